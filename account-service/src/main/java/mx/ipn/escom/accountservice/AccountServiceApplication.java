@@ -3,7 +3,8 @@ package mx.ipn.escom.accountservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@SpringBootApplication
+// mx.ipn.escom.mensajeria: el bean Mensajeria del módulo compartido
+@SpringBootApplication(scanBasePackages = {"mx.ipn.escom.accountservice", "mx.ipn.escom.mensajeria"})
 public class AccountServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(AccountServiceApplication.class, args);
@@ -0,0 +1,15 @@
+package mx.ipn.escom.accountservice.dto;
+
+import mx.ipn.escom.accountservice.model.Dinero;
+
+import java.util.List;
+
+/** Cuerpo de POST /account/transfers/batch. La cuenta origen sale del JWT. */
+public record BatchTransferRequest(
+        List<Item> transferencias
+) {
+    public record Item(
+            String curpDestino,
+            Dinero monto
+    ) {}
+}
@@ -0,0 +1,13 @@
+package mx.ipn.escom.accountservice.dto;
+
+/**
+ * Resultado por elemento del lote.
+ * status: PENDIENTE (encolada), FALLIDA (registrada sin fondos) o RECHAZADA (inválida, sin registro).
+ */
+public record BatchTransferResult(
+        int indice,
+        String curpDestino,
+        String txId,
+        String status,
+        String error
+) {}
@@ -2,11 +2,10 @@ package mx.ipn.escom.accountservice.dto;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import jakarta.validation.constraints.Positive;
-import java.math.BigDecimal;
+import mx.ipn.escom.accountservice.model.Dinero;
 
+/** Cuerpo de POST /account/transfer. La cuenta origen sale del JWT. */
 public record TransferRequest(
-        @NotBlank String fromCurp,
-        @NotBlank String toCurp,
-        @NotNull @Positive BigDecimal amount
+        @NotBlank(message = "El campo 'curpDestino' es requerido") String curpDestino,
+        @NotNull(message = "El campo 'monto' es requerido") Dinero monto
 ) {}
\ No newline at end of file
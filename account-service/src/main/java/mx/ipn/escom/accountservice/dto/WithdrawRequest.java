@@ -1,11 +1,9 @@
 package mx.ipn.escom.accountservice.dto;
 
-import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import jakarta.validation.constraints.Positive;
-import java.math.BigDecimal;
+import mx.ipn.escom.accountservice.model.Dinero;
 
+/** Cuerpo de POST /account/withdraw. La cuenta sale del JWT. */
 public record WithdrawRequest(
-        @NotBlank String curp,
-        @NotNull @Positive BigDecimal amount
+        @NotNull(message = "El campo 'monto' es requerido") Dinero monto
 ) {}
\ No newline at end of file
@@ -0,0 +1,5 @@
+package mx.ipn.escom.accountservice.error;
+
+public class BusyException extends RuntimeException {
+    public BusyException(String msg) { super(msg); }
+}
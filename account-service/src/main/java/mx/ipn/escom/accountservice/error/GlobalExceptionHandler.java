@@ -2,6 +2,7 @@ package mx.ipn.escom.accountservice.error;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
 
@@ -18,6 +19,12 @@ public class GlobalExceptionHandler {
         ));
     }
 
+    // JSON mal formado o monto inválido / fuera de numeric(14,2) (ver Dinero.Deserializador)
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<?> unreadable(HttpMessageNotReadableException ex) {
+        return ResponseEntity.badRequest().body(Map.of("error", "BAD_REQUEST", "mensaje", "Cuerpo de la petición inválido"));
+    }
+
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<?> badRequest(BadRequestException ex) {
         return ResponseEntity.badRequest().body(Map.of("error", "BAD_REQUEST", "mensaje", ex.getMessage()));
@@ -33,6 +40,13 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "INSUFFICIENT_FUNDS", "mensaje", ex.getMessage()));
     }
 
+    @ExceptionHandler(BusyException.class)
+    public ResponseEntity<?> busy(BusyException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .body(Map.of("error", "ACCOUNT_BUSY", "mensaje", ex.getMessage()));
+    }
+
     @ExceptionHandler(UnauthorizedException.class)
     public ResponseEntity<?> unauthorized(UnauthorizedException ex) {
         return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "UNAUTHORIZED", "mensaje", ex.getMessage()));
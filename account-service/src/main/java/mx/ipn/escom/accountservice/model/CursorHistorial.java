@@ -0,0 +1,32 @@
+package mx.ipn.escom.accountservice.model;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Posición en el historial: la última fila (creado_en, id) de la página anterior.
+ * Se entrega al cliente como token opaco (base64url de "epochMicros:uuid").
+ */
+public record CursorHistorial(
+        Instant creadoEn,
+        UUID id
+) {
+    public String codificar() {
+        long micros = creadoEn.getEpochSecond() * 1_000_000L + creadoEn.getNano() / 1_000;
+        String plano = micros + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plano.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @throws IllegalArgumentException si el token no es un cursor válido */
+    public static CursorHistorial decodificar(String token) {
+        String plano = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int sep = plano.indexOf(':');
+        if (sep <= 0) throw new IllegalArgumentException("cursor inválido");
+
+        long micros = Long.parseLong(plano.substring(0, sep));
+        Instant creadoEn = Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+        return new CursorHistorial(creadoEn, UUID.fromString(plano.substring(sep + 1)));
+    }
+}
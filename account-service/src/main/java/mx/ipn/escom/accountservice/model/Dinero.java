@@ -0,0 +1,180 @@
+package mx.ipn.escom.accountservice.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Monto en centavos (long), el mismo dominio que numeric(14,2) de cuentas/transacciones.
+ * Entra por JSON sin pasar por double ni BigDecimal (ver {@link Deserializador}) y solo se
+ * convierte a BigDecimal al bindear a JDBC ({@link #aNumeric()}).
+ */
+@JsonSerialize(using = Dinero.Serializador.class)
+@JsonDeserialize(using = Dinero.Deserializador.class)
+public record Dinero(long centavos) implements Comparable<Dinero> {
+
+    public static final Dinero CERO = new Dinero(0);
+
+    /** numeric(14,2): 999,999,999,999.99 */
+    public static final long MAX_CENTAVOS = 99_999_999_999_999L;
+
+    private static final long NO_SOPORTADO = Long.MIN_VALUE;
+
+    public static Dinero deCentavos(long centavos) {
+        return new Dinero(centavos);
+    }
+
+    /** Desde un numeric leído de la BD (o cualquier BigDecimal), redondeando HALF_UP a centavos. */
+    public static Dinero de(BigDecimal valor) {
+        if (valor == null) return null;
+        return new Dinero(valor.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact());
+    }
+
+    /** Valor para bindear a una columna numeric(14,2). */
+    public BigDecimal aNumeric() {
+        return BigDecimal.valueOf(centavos, 2);
+    }
+
+    public boolean esPositivo() {
+        return centavos > 0;
+    }
+
+    public Dinero mas(Dinero otro) {
+        return new Dinero(Math.addExact(centavos, otro.centavos));
+    }
+
+    public Dinero menos(Dinero otro) {
+        return new Dinero(Math.subtractExact(centavos, otro.centavos));
+    }
+
+    @Override
+    public int compareTo(Dinero otro) {
+        return Long.compare(centavos, otro.centavos);
+    }
+
+    @Override
+    public String toString() {
+        return aNumeric().toPlainString();
+    }
+
+    /**
+     * Parsea "123", "-4.5", "10.505" directo a centavos. Decimales de más se redondean HALF_UP
+     * (como lo haría PostgreSQL al guardar en numeric(14,2)), una sola vez y sobre el texto original.
+     * Regresa NO_SOPORTADO para exponentes o texto que no es número.
+     */
+    static long parsearCentavos(char[] buf, int inicio, int largo) {
+        int i = inicio;
+        int fin = inicio + largo;
+        if (i >= fin) return NO_SOPORTADO;
+
+        boolean negativo = false;
+        if (buf[i] == '-' || buf[i] == '+') {
+            negativo = buf[i] == '-';
+            i++;
+        }
+
+        long entero = 0;
+        int digitosEnteros = 0;
+        while (i < fin && buf[i] >= '0' && buf[i] <= '9') {
+            // 15 dígitos ya exceden numeric(14,2); cortar antes de desbordar el long
+            if (++digitosEnteros > 15) return NO_SOPORTADO;
+            entero = entero * 10 + (buf[i++] - '0');
+        }
+
+        long fraccion = 0;
+        int digitosFraccion = 0;
+        boolean redondearArriba = false;
+        if (i < fin && buf[i] == '.') {
+            i++;
+            while (i < fin && buf[i] >= '0' && buf[i] <= '9') {
+                if (digitosFraccion < 2) {
+                    fraccion = fraccion * 10 + (buf[i] - '0');
+                } else if (digitosFraccion == 2) {
+                    redondearArriba = buf[i] >= '5';
+                }
+                digitosFraccion++;
+                i++;
+            }
+            if (digitosFraccion == 0 && digitosEnteros == 0) return NO_SOPORTADO;
+        }
+
+        if (i != fin || (digitosEnteros == 0 && digitosFraccion == 0)) return NO_SOPORTADO;
+
+        if (digitosFraccion == 1) fraccion *= 10;
+        long centavos = entero * 100 + fraccion + (redondearArriba ? 1 : 0);
+        return negativo ? -centavos : centavos;
+    }
+
+    /** Número o string JSON a Dinero sin crear Double, BigDecimal ni String en el camino normal. */
+    public static final class Deserializador extends StdDeserializer<Dinero> {
+
+        public Deserializador() {
+            super(Dinero.class);
+        }
+
+        @Override
+        public Dinero deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken t = p.currentToken();
+            if (t != JsonToken.VALUE_NUMBER_INT && t != JsonToken.VALUE_NUMBER_FLOAT && t != JsonToken.VALUE_STRING) {
+                return (Dinero) ctxt.handleUnexpectedToken(Dinero.class, p);
+            }
+
+            long centavos = parsearCentavos(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            if (centavos == NO_SOPORTADO) {
+                if (t == JsonToken.VALUE_STRING) {
+                    throw ctxt.weirdStringException(p.getText(), Dinero.class, "monto inválido");
+                }
+                // Exponente (1e3) o más de 15 dígitos enteros: camino lento, raro
+                Dinero lento = de(p.getDecimalValue());
+                centavos = lento.centavos();
+            }
+
+            if (Math.abs(centavos) > MAX_CENTAVOS) {
+                throw ctxt.weirdNumberException(p.getNumberValue(), Dinero.class, "monto fuera de rango para numeric(14,2)");
+            }
+            return new Dinero(centavos);
+        }
+    }
+
+    /** Escribe el número con dos decimales ("10.50"), igual que un numeric(14,2). */
+    public static final class Serializador extends StdSerializer<Dinero> {
+
+        public Serializador() {
+            super(Dinero.class);
+        }
+
+        @Override
+        public void serialize(Dinero valor, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            char[] buf = new char[24];
+            int pos = buf.length;
+
+            long c = valor.centavos();
+            boolean negativo = c < 0;
+            // Long.MIN_VALUE no cabe en numeric(14,2); abs es seguro dentro del rango válido
+            long abs = Math.abs(c);
+
+            buf[--pos] = (char) ('0' + abs % 10);
+            abs /= 10;
+            buf[--pos] = (char) ('0' + abs % 10);
+            abs /= 10;
+            buf[--pos] = '.';
+            do {
+                buf[--pos] = (char) ('0' + abs % 10);
+                abs /= 10;
+            } while (abs > 0);
+            if (negativo) buf[--pos] = '-';
+
+            gen.writeNumber(buf, pos, buf.length - pos);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package mx.ipn.escom.accountservice.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Resultado de una mutación atómica de saldo (UPDATE condicional + registro en transacciones).
+ * Los saldos son los que quedaron después del UPDATE; son null si no se aplicó.
+ * version = clock_timestamp() en microsegundos, tomado con el lock de la fila (ordena escrituras).
+ */
+public record MovimientoSaldo(
+        Resultado resultado,
+        BigDecimal saldoBilletera,
+        BigDecimal saldoBanco,
+        long version
+) {
+    public enum Resultado {
+        APLICADO,
+        CUENTA_NO_EXISTE,
+        FONDOS_INSUFICIENTES
+    }
+
+    public static MovimientoSaldo aplicado(BigDecimal saldoBilletera, BigDecimal saldoBanco, long version) {
+        return new MovimientoSaldo(Resultado.APLICADO, saldoBilletera, saldoBanco, version);
+    }
+
+    public static MovimientoSaldo fallido(Resultado resultado) {
+        return new MovimientoSaldo(resultado, null, null, 0L);
+    }
+
+    public Saldos saldos() {
+        return new Saldos(saldoBanco, saldoBilletera);
+    }
+}
@@ -0,0 +1,15 @@
+package mx.ipn.escom.accountservice.model;
+
+/**
+ * Fila pendiente de outbox_eventos: el mensaje ya serializado tal cual se publica.
+ * contentType dice si payload es JSON o FormatoBinario (va al atributo content-type).
+ * curpOrigen es la ordering key en tx-events (null en filas encoladas antes de existir la columna).
+ */
+public record OutboxEvento(
+        long id,
+        String txId,
+        String tipo,
+        byte[] payload,
+        String contentType,
+        String curpOrigen
+) {}
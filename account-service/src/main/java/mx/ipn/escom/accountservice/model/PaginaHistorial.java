@@ -0,0 +1,10 @@
+package mx.ipn.escom.accountservice.model;
+
+import java.util.List;
+import java.util.Map;
+
+/** Una página de /account/transactions; siguienteCursor es null en la última página. */
+public record PaginaHistorial(
+        List<Map<String, Object>> transacciones,
+        String siguienteCursor
+) {}
@@ -0,0 +1,9 @@
+package mx.ipn.escom.accountservice.model;
+
+import java.math.BigDecimal;
+
+/** Saldos de una cuenta tal como se regresan en GET /account/balance. */
+public record Saldos(
+        BigDecimal saldoBanco,
+        BigDecimal saldoBilletera
+) {}
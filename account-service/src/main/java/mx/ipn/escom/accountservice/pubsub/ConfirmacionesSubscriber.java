@@ -0,0 +1,98 @@
+package mx.ipn.escom.accountservice.pubsub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.pubsub.v1.PubsubMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.accountservice.service.CacheSaldos;
+import mx.ipn.escom.mensajeria.Broker;
+import mx.ipn.escom.mensajeria.FormatoBinario;
+import mx.ipn.escom.mensajeria.Mensajeria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Escucha tx-confirmed para invalidar en CacheSaldos las cuentas que TransactionService modificó.
+ * Cada réplica necesita su PROPIA suscripción (si la comparten, cada una solo ve parte de los mensajes).
+ * Es best-effort: siempre ACK; el TTL de la caché cubre cualquier invalidación perdida.
+ */
+@Component
+public class ConfirmacionesSubscriber {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfirmacionesSubscriber.class);
+
+    @Value("${gcp.pubsub.confirmed-subscription-id:}")
+    private String subscriptionId;
+
+    // Solo lo usa el broker local (en Pub/Sub la suscripción ya sabe su tópico)
+    @Value("${gcp.pubsub.confirmed-topic-id:tx-confirmed}")
+    private String topicId;
+
+    private final CacheSaldos cacheSaldos;
+    private final Mensajeria mensajeria;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private Broker.Suscripcion suscripcion;
+
+    public ConfirmacionesSubscriber(CacheSaldos cacheSaldos, Mensajeria mensajeria) {
+        this.cacheSaldos = cacheSaldos;
+        this.mensajeria = mensajeria;
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        if (!cacheSaldos.habilitada() || subscriptionId == null || subscriptionId.isBlank()) {
+            log.info("ℹ Invalidación por tx-confirmed deshabilitada (caché o suscripción no configurada)");
+            return;
+        }
+
+        MessageReceiver receiver = (PubsubMessage message, AckReplyConsumer consumer) -> {
+            try {
+                if (FormatoBinario.esBinario(message.getAttributesMap())) {
+                    FormatoBinario.Confirmacion c = FormatoBinario.leerConfirmacion(message.getData());
+                    cacheSaldos.invalidar(c.curpOrigen());
+                    cacheSaldos.invalidar(c.curpDestino());
+                    return;
+                }
+                JsonNode root = mapper.readTree(message.getData().toStringUtf8());
+                cacheSaldos.invalidar(text(root, "curp_origen"));
+                cacheSaldos.invalidar(text(root, "curp_destino"));
+            } catch (Exception e) {
+                log.warn("⚠ Confirmación ilegible, no se invalida caché. msgId={}, error={}",
+                        message.getMessageId(), e.getMessage());
+            } finally {
+                consumer.ack();
+            }
+        };
+
+        try {
+            suscripcion = mensajeria.suscribir(topicId, subscriptionId, receiver,
+                    Broker.ConfigSuscripcion.basica("pubsub-confirmed", 1));
+        } catch (IOException | RuntimeException e) {
+            // Best-effort: sin la suscripción (p. ej. aún no creada) el servicio arranca y la caché vive del TTL
+            log.warn("⚠ No se pudo suscribir a tx-confirmed (subscription={}); la caché de saldos queda solo con TTL: {}",
+                    subscriptionId, e.getMessage());
+            return;
+        }
+        log.info("✔ AccountService invalidando caché de saldos desde subscription={}", subscriptionId);
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (suscripcion != null) suscripcion.detener();
+    }
+
+    private String text(JsonNode node, String key) {
+        JsonNode n = node.get(key);
+        if (n == null || n.isNull()) return null;
+        String v = n.asText();
+        return (v == null || v.isBlank()) ? null : v;
+    }
+}
@@ -0,0 +1,130 @@
+package mx.ipn.escom.accountservice.pubsub;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.accountservice.model.OutboxEvento;
+import mx.ipn.escom.accountservice.repo.OutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drena outbox_eventos hacia tx-events en lotes.
+ * AccountService.transfer solo inserta en el outbox (misma transacción que la fila PENDIENTE),
+ * así el lock de la cuenta se libera al hacer commit y la latencia de Pub/Sub queda fuera del request.
+ * Entrega al-menos-una-vez: si el lote falla se hace rollback y se republica; TransactionService
+ * es idempotente por event_id.
+ */
+@Component
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final OutboxRepository outboxRepo;
+    private final TransferPublisher publisher;
+    private final TransactionTemplate txTemplate;
+
+    @Value("${outbox.relay.lote:100}")
+    private int tamanoLote;
+
+    @Value("${outbox.relay.intervalo-ms:200}")
+    private long intervaloMs;
+
+    @Value("${outbox.relay.timeout-publicacion-segundos:30}")
+    private long timeoutPublicacionSegundos;
+
+    private ScheduledExecutorService relay;
+
+    public OutboxRelay(OutboxRepository outboxRepo, TransferPublisher publisher, PlatformTransactionManager txManager) {
+        this.outboxRepo = outboxRepo;
+        this.publisher = publisher;
+        this.txTemplate = new TransactionTemplate(txManager);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        relay = Executors.newSingleThreadScheduledExecutor(new NamedNonDaemonFactory("outbox-relay"));
+        relay.scheduleWithFixedDelay(this::drenarSeguro, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+        log.info("✔ OutboxRelay listo. lote={}, intervaloMs={}", tamanoLote, intervaloMs);
+    }
+
+    /** Adelanta el siguiente ciclo, p. ej. justo después del commit de un lote de transferencias. */
+    public void despertar() {
+        try {
+            if (relay != null) relay.execute(this::drenarSeguro);
+        } catch (RejectedExecutionException ignored) {
+            // apagando: el drenado final de detener() se encarga
+        }
+    }
+
+    private void drenarSeguro() {
+        try {
+            // Lote lleno => probablemente hay más pendientes, seguir sin esperar al siguiente tick
+            while (drenarLote() == tamanoLote) { }
+        } catch (Exception e) {
+            log.error("❌ Error drenando outbox_eventos (se reintenta en el siguiente ciclo)", e);
+        }
+    }
+
+    /** Publica un lote y lo borra en la misma transacción. Regresa cuántos eventos se publicaron. */
+    int drenarLote() {
+        Integer publicados = txTemplate.execute(status -> {
+            List<OutboxEvento> lote = outboxRepo.bloquearLote(tamanoLote);
+            if (lote.isEmpty()) return 0;
+
+            List<ApiFuture<String>> futuros = new ArrayList<>(lote.size());
+            for (OutboxEvento e : lote) {
+                futuros.add(publisher.publicar(e.txId(), e.tipo(), e.payload(), e.contentType(), e.curpOrigen()));
+            }
+
+            try {
+                ApiFutures.allAsList(futuros).get(timeoutPublicacionSegundos, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Relay interrumpido publicando lote outbox", ie);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Falló la publicación del lote outbox (" + lote.size() + " eventos)", ex);
+            }
+
+            outboxRepo.eliminar(lote.stream().map(OutboxEvento::id).toList());
+            return lote.size();
+        });
+        return publicados == null ? 0 : publicados;
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (relay != null) {
+            relay.shutdown();
+            try { relay.awaitTermination(5, TimeUnit.SECONDS); } catch (Exception ignored) {}
+            relay.shutdownNow();
+        }
+        // Último intento para no dejar eventos esperando al siguiente arranque
+        drenarSeguro();
+    }
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package mx.ipn.escom.accountservice.pubsub;
 
-import java.math.BigDecimal;
+import mx.ipn.escom.accountservice.model.Dinero;
 
 public record TransferEvent(
         String txId,
         String fromCurp,
         String toCurp,
-        BigDecimal amount,
+        Dinero amount,
         long timestampEpochMs,
         String type
 ) {}
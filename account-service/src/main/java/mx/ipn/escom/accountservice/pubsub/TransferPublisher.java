@@ -2,37 +2,88 @@ package mx.ipn.escom.accountservice.pubsub;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.core.ApiFuture;
-import com.google.cloud.pubsub.v1.Publisher;
-import com.google.protobuf.ByteString;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.pubsub.v1.PubsubMessage;
-import com.google.pubsub.v1.TopicName;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.Broker;
+import mx.ipn.escom.mensajeria.FormatoBinario;
+import mx.ipn.escom.mensajeria.Mensajeria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/**
+ * Publica en tx-events. Con gcp.pubsub.ordering.enabled cada mensaje lleva como ordering key la
+ * CURP origen: Pub/Sub entrega en orden los de una misma cuenta y, con la suscripción creada con
+ * --enable-message-ordering, los manda a una sola réplica de TransactionService a la vez.
+ * El broker (Pub/Sub o local) lo decide {@link Mensajeria}.
+ */
 @Component
 public class TransferPublisher {
 
-    private final Publisher publisher;
+    private static final Logger log = LoggerFactory.getLogger(TransferPublisher.class);
+
+    private final Broker.Publicador publisher;
+    private final boolean ordenado;
     private final ObjectMapper mapper = new ObjectMapper();
 
     public TransferPublisher(
-            @Value("${gcp.project-id}") String projectId,
-            @Value("${gcp.pubsub.events-topic-id}") String topicId
+            Mensajeria mensajeria,
+            @Value("${gcp.pubsub.events-topic-id}") String topicId,
+            @Value("${gcp.pubsub.batch.max-mensajes:100}") long maxMensajes,
+            @Value("${gcp.pubsub.batch.max-bytes:1000000}") long maxBytes,
+            @Value("${gcp.pubsub.batch.retraso-ms:10}") long retrasoMs,
+            @Value("${gcp.pubsub.ordering.enabled:false}") boolean ordenado
     ) throws Exception {
-        TopicName topicName = TopicName.of(projectId, topicId);
-        this.publisher = Publisher.newBuilder(topicName).build();
+        // El relay del outbox publica lotes completos: deja que el cliente los agrupe en pocas RPC
+        this.publisher = mensajeria.publicador(topicId,
+                new Broker.ConfigPublicador(maxMensajes, maxBytes, retrasoMs, ordenado));
+        this.ordenado = ordenado;
     }
 
     public String publish(TransferEvent event) throws Exception {
-        String json = mapper.writeValueAsString(event);
+        byte[] json = mapper.writeValueAsBytes(event);
+        return publicar(event.txId(), event.type(), json, FormatoBinario.JSON, event.fromCurp()).get();
+    }
+
+    /**
+     * Publicación NO bloqueante de un evento ya serializado (usada por {@link OutboxRelay}).
+     * contentType (JSON o FormatoBinario.BINARIO) viaja en el atributo content-type.
+     */
+    public ApiFuture<String> publicar(String txId, String type, byte[] datos, String contentType, String curpOrigen) {
+        PubsubMessage.Builder msg = PubsubMessage.newBuilder()
+                // El arreglo ya no se modifica (viene del outbox): sin copia extra
+                .setData(UnsafeByteOperations.unsafeWrap(datos))
+                .putAttributes("type", type)
+                .putAttributes("txId", txId)
+                .putAttributes(FormatoBinario.ATRIBUTO, contentType == null ? FormatoBinario.JSON : contentType);
 
-        PubsubMessage msg = PubsubMessage.newBuilder()
-                .setData(ByteString.copyFromUtf8(json))
-                .putAttributes("type", event.type())
-                .putAttributes("txId", event.txId())
-                .build();
+        if (!ordenado || curpOrigen == null || curpOrigen.isBlank()) {
+            return publisher.publicar(msg.build());
+        }
+
+        ApiFuture<String> fut = publisher.publicar(msg.setOrderingKey(curpOrigen).build());
+        ApiFutures.addCallback(fut, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(String messageId) {}
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Tras un error, el Publisher rechaza todo lo de esa key hasta resumePublish.
+                // El relay hace rollback y republica el lote completo, en el mismo orden.
+                log.warn("⚠ Falló publicación ordenada key={}, se reanuda: {}", curpOrigen, t.getMessage());
+                publisher.reanudar(curpOrigen);
+            }
+        }, MoreExecutors.directExecutor());
+        return fut;
+    }
 
-        ApiFuture<String> futureId = publisher.publish(msg);
-        return futureId.get();
+    @PreDestroy
+    public void cerrar() throws Exception {
+        publisher.cerrar();
     }
 }
@@ -1,10 +1,19 @@
 package mx.ipn.escom.accountservice.repo;
 
+import mx.ipn.escom.accountservice.model.Dinero;
+import mx.ipn.escom.accountservice.model.MovimientoSaldo;
+import mx.ipn.escom.accountservice.model.Saldos;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 @Repository
 public class CuentaRepository {
@@ -25,6 +34,17 @@ public class CuentaRepository {
         return n != null && n > 0;
     }
 
+    /** Cuáles de las CURPs dadas tienen cuenta, en una sola consulta (WHERE curp = ANY). */
+    public Set<String> curpsExistentes(Collection<String> curps) {
+        if (curps.isEmpty()) return Set.of();
+        List<String> existentes = jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT curp FROM cuentas WHERE curp = ANY(?)");
+            ps.setArray(1, con.createArrayOf("varchar", curps.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getString("curp"));
+        return new HashSet<>(existentes);
+    }
+
     /** Regresa saldo TOTAL = billetera + banco (para /balance). */
     public Optional<BigDecimal> obtenerSaldoTotal(String curp) {
         var list = jdbc.query("""
@@ -38,37 +58,135 @@ public class CuentaRepository {
         return list.stream().findFirst();
     }
 
+    /** Saldos por separado (para /balance y su caché). */
+    public Optional<Saldos> obtenerSaldos(String curp) {
+        var list = jdbc.query(
+                "SELECT saldo_banco, saldo_billetera FROM cuentas WHERE curp = ?",
+                (rs, rowNum) -> new Saldos(rs.getBigDecimal("saldo_banco"), rs.getBigDecimal("saldo_billetera")),
+                curp
+        );
+        return list.stream().findFirst();
+    }
+
     /** Bloquea fila para concurrencia segura. */
-    public BigDecimal obtenerSaldoBilleteraForUpdate(String curp) {
+    public Dinero obtenerSaldoBilleteraForUpdate(String curp) {
         return jdbc.queryForObject(
                 "SELECT saldo_billetera FROM cuentas WHERE curp = ? FOR UPDATE",
-                BigDecimal.class,
+                (rs, rowNum) -> Dinero.de(rs.getBigDecimal("saldo_billetera")),
                 curp
         );
     }
 
-    public int actualizarSaldoBilletera(String curp, BigDecimal nuevoSaldo) {
-        return jdbc.update("""
-                UPDATE cuentas
-                   SET saldo_billetera = ?, actualizado_en = NOW()
-                 WHERE curp = ?
-                """, nuevoSaldo, curp);
+    /**
+     * Depósito en UNA sentencia: suma a saldo_billetera y registra la transacción CONFIRMADA
+     * con un CTE que modifica datos. Sin fila => la cuenta no existe (no hace falta un COUNT previo).
+     */
+    public MovimientoSaldo depositar(String curp, Dinero monto, UUID txId) {
+        var saldos = jdbc.query("""
+                WITH upd AS (
+                    UPDATE cuentas
+                       SET saldo_billetera = saldo_billetera + ?, actualizado_en = NOW()
+                     WHERE curp = ?
+                 RETURNING curp, saldo_billetera, saldo_banco,
+                           (extract(epoch FROM clock_timestamp()) * 1000000)::bigint AS version
+                ), ins AS (
+                    INSERT INTO transacciones(id, event_id, curp_origen, curp_destino, monto, tipo, estado, confirmado_en)
+                    SELECT ?::uuid, ?, NULL, upd.curp, ?, 'DEPOSITO', 'CONFIRMADA', NOW()
+                      FROM upd
+                )
+                SELECT saldo_billetera, saldo_banco, version FROM upd
+                """,
+                (rs, rowNum) -> MovimientoSaldo.aplicado(
+                        rs.getBigDecimal("saldo_billetera"), rs.getBigDecimal("saldo_banco"), rs.getLong("version")),
+                monto.aNumeric(), curp, txId, txId.toString(), monto.aNumeric()
+        );
+        return saldos.isEmpty()
+                ? MovimientoSaldo.fallido(MovimientoSaldo.Resultado.CUENTA_NO_EXISTE)
+                : saldos.get(0);
     }
 
-    // --- Si después quieres operar banco también ---
-    public BigDecimal obtenerSaldoBancoForUpdate(String curp) {
-        return jdbc.queryForObject(
-                "SELECT saldo_banco FROM cuentas WHERE curp = ? FOR UPDATE",
-                BigDecimal.class,
-                curp
-        );
+    /**
+     * Varios depósitos a la MISMA cuenta en una sentencia (group commit): un UPDATE con la suma y
+     * un INSERT multi-fila vía unnest, un solo commit. Todos comparten los saldos resultantes.
+     */
+    public MovimientoSaldo depositarLote(String curp, List<UUID> txIds, List<Dinero> montos) {
+        long total = 0;
+        BigDecimal[] numericos = new BigDecimal[montos.size()];
+        for (int i = 0; i < numericos.length; i++) {
+            total = Math.addExact(total, montos.get(i).centavos());
+            numericos[i] = montos.get(i).aNumeric();
+        }
+        BigDecimal suma = BigDecimal.valueOf(total, 2);
+
+        var saldos = jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                    WITH upd AS (
+                        UPDATE cuentas
+                           SET saldo_billetera = saldo_billetera + ?, actualizado_en = NOW()
+                         WHERE curp = ?
+                     RETURNING curp, saldo_billetera, saldo_banco,
+                               (extract(epoch FROM clock_timestamp()) * 1000000)::bigint AS version
+                    ), ins AS (
+                        INSERT INTO transacciones(id, event_id, curp_origen, curp_destino, monto, tipo, estado, confirmado_en)
+                        SELECT d.id, d.id::text, NULL, upd.curp, d.monto, 'DEPOSITO', 'CONFIRMADA', NOW()
+                          FROM upd, unnest(?::uuid[], ?::numeric[]) AS d(id, monto)
+                    )
+                    SELECT saldo_billetera, saldo_banco, version FROM upd
+                    """);
+            ps.setBigDecimal(1, suma);
+            ps.setString(2, curp);
+            ps.setArray(3, con.createArrayOf("uuid", txIds.toArray()));
+            ps.setArray(4, con.createArrayOf("numeric", numericos));
+            return ps;
+        }, (rs, rowNum) -> MovimientoSaldo.aplicado(
+                rs.getBigDecimal("saldo_billetera"), rs.getBigDecimal("saldo_banco"), rs.getLong("version")));
+
+        return saldos.isEmpty()
+                ? MovimientoSaldo.fallido(MovimientoSaldo.Resultado.CUENTA_NO_EXISTE)
+                : saldos.get(0);
     }
 
-    public int actualizarSaldoBanco(String curp, BigDecimal nuevoSaldo) {
-        return jdbc.update("""
-                UPDATE cuentas
-                   SET saldo_banco = ?, actualizado_en = NOW()
-                 WHERE curp = ?
-                """, nuevoSaldo, curp);
+    /**
+     * Retiro en UNA sentencia: billetera -> banco solo si saldo_billetera >= monto.
+     * Siempre deja registro (CONFIRMADA o FALLIDA) cuando la cuenta existe.
+     * "No existe" y "fondos insuficientes" se distinguen por el resultado, sin SELECTs extra.
+     */
+    public MovimientoSaldo retirar(String curp, Dinero monto, UUID txId) {
+        BigDecimal m = monto.aNumeric();
+        return jdbc.queryForObject("""
+                WITH cuenta AS (
+                    SELECT curp FROM cuentas WHERE curp = ?
+                ), upd AS (
+                    UPDATE cuentas
+                       SET saldo_billetera = saldo_billetera - ?,
+                           saldo_banco = saldo_banco + ?,
+                           actualizado_en = NOW()
+                     WHERE curp = ? AND saldo_billetera >= ?
+                 RETURNING saldo_billetera, saldo_banco,
+                           (extract(epoch FROM clock_timestamp()) * 1000000)::bigint AS version
+                ), ins AS (
+                    INSERT INTO transacciones(id, event_id, curp_origen, curp_destino, monto, tipo, estado, confirmado_en)
+                    SELECT ?::uuid, ?, cuenta.curp, NULL, ?, 'RETIRO',
+                           CASE WHEN EXISTS (SELECT 1 FROM upd) THEN 'CONFIRMADA' ELSE 'FALLIDA' END,
+                           NOW()
+                      FROM cuenta
+                )
+                SELECT EXISTS (SELECT 1 FROM cuenta) AS existe,
+                       (SELECT saldo_billetera FROM upd) AS saldo_billetera,
+                       (SELECT saldo_banco FROM upd) AS saldo_banco,
+                       (SELECT version FROM upd) AS version
+                """,
+                (rs, rowNum) -> {
+                    if (!rs.getBoolean("existe")) {
+                        return MovimientoSaldo.fallido(MovimientoSaldo.Resultado.CUENTA_NO_EXISTE);
+                    }
+                    BigDecimal billetera = rs.getBigDecimal("saldo_billetera");
+                    if (billetera == null) {
+                        return MovimientoSaldo.fallido(MovimientoSaldo.Resultado.FONDOS_INSUFICIENTES);
+                    }
+                    return MovimientoSaldo.aplicado(billetera, rs.getBigDecimal("saldo_banco"), rs.getLong("version"));
+                },
+                curp, m, m, curp, m, txId, txId.toString(), m
+        );
     }
 }
@@ -0,0 +1,103 @@
+package mx.ipn.escom.accountservice.repo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mx.ipn.escom.accountservice.model.OutboxEvento;
+import mx.ipn.escom.accountservice.pubsub.TransferEvent;
+import mx.ipn.escom.mensajeria.FormatoBinario;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public class OutboxRepository {
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Formato con el que se guarda (y luego se publica) el evento: json | binario (ver FormatoBinario)
+    private final boolean binario;
+
+    public OutboxRepository(JdbcTemplate jdbc, @Value("${gcp.pubsub.formato:json}") String formato) {
+        this.jdbc = jdbc;
+        this.binario = "binario".equalsIgnoreCase(formato);
+    }
+
+    /**
+     * Encola el evento en outbox_eventos.
+     * Debe llamarse dentro de la misma transacción que inserta la transacción PENDIENTE:
+     * si hay rollback, el evento tampoco existe.
+     */
+    public void encolar(TransferEvent event) {
+        jdbc.update("""
+            INSERT INTO outbox_eventos(tx_id, tipo, payload, content_type, curp_origen)
+            VALUES (?, ?, ?, ?, ?)
+        """, UUID.fromString(event.txId()), event.type(), serializar(event), contentType(), event.fromCurp());
+    }
+
+    /** Igual que {@link #encolar} pero con batching JDBC, para los lotes de transferencias. */
+    public void encolarLote(List<TransferEvent> eventos) {
+        if (eventos.isEmpty()) return;
+
+        List<Object[]> filas = new ArrayList<>(eventos.size());
+        for (TransferEvent e : eventos) {
+            filas.add(new Object[]{UUID.fromString(e.txId()), e.type(), serializar(e), contentType(), e.fromCurp()});
+        }
+
+        jdbc.batchUpdate("""
+            INSERT INTO outbox_eventos(tx_id, tipo, payload, content_type, curp_origen)
+            VALUES (?, ?, ?, ?, ?)
+        """, filas);
+    }
+
+    /**
+     * Bloquea hasta {@code limite} eventos en orden de llegada.
+     * SKIP LOCKED permite que varias réplicas dren la tabla sin publicar la misma fila a la vez.
+     */
+    public List<OutboxEvento> bloquearLote(int limite) {
+        return jdbc.query("""
+            SELECT id, tx_id, tipo, payload, content_type, curp_origen
+            FROM outbox_eventos
+            ORDER BY id
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+        """, (rs, rowNum) -> new OutboxEvento(
+                rs.getLong("id"),
+                rs.getString("tx_id"),
+                rs.getString("tipo"),
+                rs.getBytes("payload"),
+                rs.getString("content_type"),
+                rs.getString("curp_origen")
+        ), limite);
+    }
+
+    public int eliminar(List<Long> ids) {
+        if (ids.isEmpty()) return 0;
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM outbox_eventos WHERE id = ANY(?)");
+            ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        });
+    }
+
+    private String contentType() {
+        return binario ? FormatoBinario.BINARIO : FormatoBinario.JSON;
+    }
+
+    private byte[] serializar(TransferEvent event) {
+        if (binario) {
+            return FormatoBinario.codificarEvento(event.txId(), event.fromCurp(), event.toCurp(),
+                    event.amount().centavos(), event.timestampEpochMs(), event.type());
+        }
+        try {
+            return mapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar TransferEvent txId=" + event.txId(), e);
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package mx.ipn.escom.accountservice.repo;
 
+import mx.ipn.escom.accountservice.model.CursorHistorial;
+import mx.ipn.escom.accountservice.model.Dinero;
 import mx.ipn.escom.accountservice.model.StatusTransaccion;
 import mx.ipn.escom.accountservice.model.TipoTransaccion;
+import mx.ipn.escom.accountservice.model.Transaccion;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Repository
@@ -30,7 +35,7 @@ public class TransaccionRepository {
                          StatusTransaccion estado,
                          String curpOrigen,
                          String curpDestino,
-                         BigDecimal monto,
+                         Dinero monto,
                          Instant confirmadoEn) {
 
         jdbc.update("""
@@ -41,10 +46,95 @@ public class TransaccionRepository {
                 eventId,
                 curpOrigen,
                 curpDestino,
-                monto,
+                monto.aNumeric(),
                 tipo.db(),     // valores en español para tu CHECK
                 estado.db(),   // valores en español para tu CHECK
                 (confirmadoEn == null ? null : Timestamp.from(confirmadoEn))
         );
     }
+
+    /**
+     * Inserta varias transacciones con batching JDBC (reWriteBatchedInserts las vuelve un INSERT multi-fila).
+     * event_id = txId, igual que en las inserciones individuales.
+     */
+    public void insertarLote(List<Transaccion> transacciones) {
+        if (transacciones.isEmpty()) return;
+
+        List<Object[]> filas = new ArrayList<>(transacciones.size());
+        for (Transaccion t : transacciones) {
+            filas.add(new Object[]{
+                    t.getTxId(),
+                    t.getTxId().toString(),
+                    t.getDeCurp(),
+                    t.getACurp(),
+                    t.getMonto(),
+                    t.getTipo().db(),
+                    t.getStatus().db(),
+                    (t.getStatus() == StatusTransaccion.PENDING ? null : Timestamp.from(t.getCreatedAt()))
+            });
+        }
+
+        jdbc.batchUpdate("""
+            INSERT INTO transacciones(id, event_id, curp_origen, curp_destino, monto, tipo, estado, confirmado_en)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+        """, filas);
+    }
+
+    /**
+     * Historial de una cuenta (como origen o destino), del más reciente al más antiguo, por keyset (creado_en, id).
+     * Cada rama del UNION ALL es un range scan hacia atrás sobre idx_transacciones_{origen,destino}_creado
+     * que se detiene a las {@code limite} filas; el ORDER BY externo solo mezcla 2*limite filas.
+     * Un OR entre las dos columnas obligaba a leer y ordenar todo el historial de la cuenta.
+     *
+     * @param cursor última fila de la página anterior, o null para la primera página
+     */
+    public List<Map<String, Object>> historial(String curp, CursorHistorial cursor, int limite) {
+        if (cursor == null) {
+            return jdbc.queryForList(HISTORIAL_PRIMERA_PAGINA, curp, limite, curp, limite, limite);
+        }
+
+        Timestamp creadoEn = Timestamp.from(cursor.creadoEn());
+        return jdbc.queryForList(HISTORIAL_DESDE_CURSOR,
+                curp, creadoEn, cursor.id(), limite,
+                curp, creadoEn, cursor.id(), limite,
+                limite);
+    }
+
+    private static final String HISTORIAL_PRIMERA_PAGINA = """
+        SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+        FROM (
+            (SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+             FROM transacciones
+             WHERE curp_origen = ?
+             ORDER BY creado_en DESC, id DESC
+             LIMIT ?)
+            UNION ALL
+            (SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+             FROM transacciones
+             WHERE curp_destino = ?
+             ORDER BY creado_en DESC, id DESC
+             LIMIT ?)
+        ) h
+        ORDER BY creado_en DESC, id DESC
+        LIMIT ?
+    """;
+
+    private static final String HISTORIAL_DESDE_CURSOR = """
+        SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+        FROM (
+            (SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+             FROM transacciones
+             WHERE curp_origen = ? AND (creado_en, id) < (?, ?)
+             ORDER BY creado_en DESC, id DESC
+             LIMIT ?)
+            UNION ALL
+            (SELECT id, event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en
+             FROM transacciones
+             WHERE curp_destino = ? AND (creado_en, id) < (?, ?)
+             ORDER BY creado_en DESC, id DESC
+             LIMIT ?)
+        ) h
+        ORDER BY creado_en DESC, id DESC
+        LIMIT ?
+    """;
 }
@@ -2,31 +2,137 @@ package mx.ipn.escom.accountservice.security;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class JwtServicio {
 
-    private final Key llave;
+    // El parser es inmutable y thread-safe: se construye una sola vez
+    private final JwtParser parser;
 
-    public JwtServicio(@Value("${jwt.secreto}") String secreto) {
+    /**
+     * Claims ya verificados, por hash SHA-256 del token (no se guarda el token en claro).
+     * Los clientes reutilizan el mismo token ~1h, así que una repetición se salta base64, JSON y HMAC.
+     * Cada entrada caduca en el exp del token.
+     */
+    private final ConcurrentHashMap<String, ClaimsEnCache> cache = new ConcurrentHashMap<>();
+    private final int maxEntradas;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    public JwtServicio(@Value("${jwt.secreto}") String secreto,
+                       @Value("${jwt.cache.max-entradas:10000}") int maxEntradas) {
         if (secreto == null || secreto.length() < 32) {
             throw new IllegalArgumentException("jwt.secreto debe tener mínimo 32 caracteres (HS256).");
         }
-        this.llave = Keys.hmacShaKeyFor(secreto.getBytes(StandardCharsets.UTF_8));
+        Key llave = Keys.hmacShaKeyFor(secreto.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(llave)
+                .build();
+        this.maxEntradas = maxEntradas;
     }
 
     public Claims validarYObtenerClaims(String token) throws JwtException {
-        return Jwts.parserBuilder()
-                .setSigningKey(llave)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        // Sin token no hay huella: se rechaza como cualquier JWT mal formado (401), no con NPE
+        if (token == null || token.isBlank()) {
+            throw new MalformedJwtException("Token vacío");
+        }
+        String clave = huella(token);
+        long ahora = System.currentTimeMillis();
+
+        ClaimsEnCache enCache = cache.get(clave);
+        if (enCache != null) {
+            if (enCache.expiraEnMs() > ahora) {
+                aciertos.increment();
+                return enCache.claims();
+            }
+            // Expiró: el parser lanzará ExpiredJwtException como antes
+            cache.remove(clave, enCache);
+        }
+
+        fallos.increment();
+        Claims claims = parser.parseClaimsJws(token).getBody();
+
+        // Sin exp no se cachea: no habría cuándo desalojarlo
+        Date exp = claims.getExpiration();
+        if (exp != null && maxEntradas > 0) {
+            guardar(clave, new ClaimsEnCache(claims, exp.getTime()), ahora);
+        }
+        return claims;
+    }
+
+    public Map<String, Object> estadisticasCache() {
+        long a = aciertos.sum();
+        long f = fallos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entradas", cache.size());
+        stats.put("maxEntradas", maxEntradas);
+        stats.put("aciertos", a);
+        stats.put("fallos", f);
+        stats.put("desalojos", desalojos.sum());
+        stats.put("tasaAciertos", (a + f) == 0 ? 0.0 : (double) a / (a + f));
+        return stats;
     }
+
+    private void guardar(String clave, ClaimsEnCache entrada, long ahora) {
+        if (cache.size() >= maxEntradas) {
+            purgar(ahora);
+        }
+        cache.put(clave, entrada);
+    }
+
+    /** Quita los expirados; si aún está lleno, libera ~10% para no purgar en cada inserción. */
+    private void purgar(long ahora) {
+        cache.entrySet().removeIf(e -> {
+            boolean expirado = e.getValue().expiraEnMs() <= ahora;
+            if (expirado) desalojos.increment();
+            return expirado;
+        });
+
+        int sobrantes = cache.size() - (maxEntradas - Math.max(1, maxEntradas / 10));
+        Iterator<String> it = cache.keySet().iterator();
+        while (sobrantes-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+            desalojos.increment();
+        }
+    }
+
+    /** SHA-256 del token en Base64; el token no puede ser null. */
+    static String huella(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("token es null");
+        }
+        // Un MessageDigest por llamada: con hilos virtuales (un hilo por request) un ThreadLocal
+        // nunca se reutiliza y solo retiene memoria; getInstance cuesta mucho menos que el HMAC que evita
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+        byte[] digest = sha256.digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    private record ClaimsEnCache(Claims claims, long expiraEnMs) {}
 }
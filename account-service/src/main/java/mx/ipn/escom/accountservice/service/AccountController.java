@@ -2,38 +2,38 @@ package mx.ipn.escom.accountservice.service;
 
 import jakarta.validation.Valid;
 import mx.ipn.escom.accountservice.error.BadRequestException;
-import mx.ipn.escom.accountservice.error.NotFoundException;
 import mx.ipn.escom.accountservice.error.UnauthorizedException;
+import mx.ipn.escom.accountservice.dto.BatchTransferRequest;
+import mx.ipn.escom.accountservice.dto.BatchTransferResult;
 import mx.ipn.escom.accountservice.dto.DepositRequest;
 import mx.ipn.escom.accountservice.dto.TransferRequest;
 import mx.ipn.escom.accountservice.dto.WithdrawRequest;
-import mx.ipn.escom.accountservice.repo.TransaccionRepository;
+import mx.ipn.escom.accountservice.model.PaginaHistorial;
+import mx.ipn.escom.accountservice.model.Saldos;
 import mx.ipn.escom.accountservice.security.JwtServicio;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.ResponseEntity;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/account")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = AccountController.HEADER_SIGUIENTE_CURSOR)
 public class AccountController {
 
+    static final String HEADER_SIGUIENTE_CURSOR = "X-Next-Cursor";
+
     private final AccountService service;
-    private final JdbcTemplate jdbcTemplate;
-    private final TransaccionRepository txRepo;
     private final JwtServicio jwtServicio;
 
-    public AccountController(AccountService service, JdbcTemplate jdbcTemplate, TransaccionRepository txRepo, JwtServicio jwtServicio) {
+    public AccountController(AccountService service, JwtServicio jwtServicio) {
         this.service = service;
-        this.jdbcTemplate = jdbcTemplate;
-        this.txRepo = txRepo;
         this.jwtServicio = jwtServicio;
     }
 
@@ -48,13 +48,12 @@ public class AccountController {
         // Extract CURP from JWT (simplified - in production use proper JWT validation)
         String curp = extractCurpFromAuth(auth);
 
-        Map<String, Object> result;
-        try {
-            result = jdbcTemplate.queryForMap(
-                "SELECT curp, saldo_banco, saldo_billetera FROM cuentas WHERE curp = ?", curp);
-        } catch (EmptyResultDataAccessException ex) {
-            throw new NotFoundException("La cuenta no existe: " + curp);
-        }
+        Saldos saldos = service.consultarSaldos(curp);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("curp", curp);
+        result.put("saldo_banco", saldos.saldoBanco());
+        result.put("saldo_billetera", saldos.saldoBilletera());
 
         return ResponseEntity.ok(result);
     }
@@ -62,57 +61,83 @@ public class AccountController {
     @PostMapping("/deposit")
     public ResponseEntity<?> deposit(
             @RequestHeader(value = "Authorization", required = false) String auth,
-            @Valid @RequestBody Map<String, Double> body) {
+            @Valid @RequestBody DepositRequest body) {
 
         String curp = extractCurpFromAuth(auth);
-        double monto = body.get("monto");
 
-        service.deposit(curp, java.math.BigDecimal.valueOf(monto));
+        service.deposit(curp, body.monto());
         return ResponseEntity.ok(Map.of("mensaje", "Depósito realizado"));
     }
 
     @PostMapping("/withdraw")
     public ResponseEntity<?> withdraw(
             @RequestHeader(value = "Authorization", required = false) String auth,
-            @Valid @RequestBody Map<String, Double> body) {
+            @Valid @RequestBody WithdrawRequest body) {
 
         String curp = extractCurpFromAuth(auth);
-        double monto = body.get("monto");
 
-        service.withdraw(curp, java.math.BigDecimal.valueOf(monto));
+        service.withdraw(curp, body.monto());
         return ResponseEntity.ok(Map.of("mensaje", "Retiro realizado"));
     }
 
     @PostMapping("/transfer")
     public ResponseEntity<?> transfer(
             @RequestHeader(value = "Authorization", required = false) String auth,
-            @Valid @RequestBody Map<String, Object> body) throws Exception {
+            @Valid @RequestBody TransferRequest body) {
 
         String curpOrigen = extractCurpFromAuth(auth);
-        String curpDestino = (String) body.get("curpDestino");
-        Object montoObj = body.get("monto");
-        
-        if (montoObj == null) {
-            throw new BadRequestException("El campo 'monto' es requerido");
-        }
-        
-        double monto = ((Number) montoObj).doubleValue();
 
-        UUID txId = service.transfer(curpOrigen, curpDestino, java.math.BigDecimal.valueOf(monto));
+        UUID txId = service.transfer(curpOrigen, body.curpDestino(), body.monto());
         return ResponseEntity.ok(Map.of("txId", txId.toString(), "status", "PENDIENTE"));
     }
 
+    /**
+     * Lote de transferencias desde la cuenta del token.
+     * Cuerpo: {"transferencias": [{"curpDestino": "...", "monto": 10.5}, ...]}
+     * Regresa el resultado por elemento; los elementos inválidos no abortan el lote.
+     */
+    @PostMapping("/transfers/batch")
+    public ResponseEntity<?> transferBatch(
+            @RequestHeader(value = "Authorization", required = false) String auth,
+            @RequestBody BatchTransferRequest body) {
+
+        String curpOrigen = extractCurpFromAuth(auth);
+        if (body == null || body.transferencias() == null) {
+            throw new BadRequestException("El campo 'transferencias' es requerido");
+        }
+
+        List<BatchTransferResult> resultados = service.transferBatch(curpOrigen, body.transferencias());
+
+        Map<String, Long> conteo = resultados.stream()
+                .collect(Collectors.groupingBy(BatchTransferResult::status, Collectors.counting()));
+
+        return ResponseEntity.ok(Map.of(
+                "resultados", resultados,
+                "pendientes", conteo.getOrDefault("PENDIENTE", 0L),
+                "fallidas", conteo.getOrDefault("FALLIDA", 0L),
+                "rechazadas", conteo.getOrDefault("RECHAZADA", 0L)
+        ));
+    }
+
+    /**
+     * Historial paginado por cursor. El cuerpo sigue siendo el arreglo de transacciones;
+     * si hay más, el header X-Next-Cursor trae el valor para ?cursor= de la siguiente página.
+     */
     @GetMapping("/transactions")
-    public ResponseEntity<?> getTransactions(@RequestHeader(value = "Authorization", required = false) String auth) {
+    public ResponseEntity<?> getTransactions(
+            @RequestHeader(value = "Authorization", required = false) String auth,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+
         String curp = extractCurpFromAuth(auth);
 
-        String sql = "SELECT event_id, curp_origen, curp_destino, monto, tipo, estado, creado_en " +
-                     "FROM transacciones " +
-                     "WHERE curp_origen = ? OR curp_destino = ? " +
-                     "ORDER BY creado_en DESC LIMIT 50";
+        PaginaHistorial pagina = service.historial(curp, cursor, limit);
 
-        List<Map<String, Object>> transactions = jdbcTemplate.queryForList(sql, curp, curp);
-        return ResponseEntity.ok(transactions);
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+        if (pagina.siguienteCursor() != null) {
+            respuesta.header(HEADER_SIGUIENTE_CURSOR, pagina.siguienteCursor());
+        }
+        return respuesta.body(pagina.transacciones());
     }
 
     // Simplified CURP extraction - in production, validate JWT properly
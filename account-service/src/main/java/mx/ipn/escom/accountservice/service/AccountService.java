@@ -1,19 +1,38 @@
 package mx.ipn.escom.accountservice.service;
 
+import mx.ipn.escom.accountservice.dto.BatchTransferRequest;
+import mx.ipn.escom.accountservice.dto.BatchTransferResult;
 import mx.ipn.escom.accountservice.error.BadRequestException;
 import mx.ipn.escom.accountservice.error.InsufficientFundsException;
 import mx.ipn.escom.accountservice.error.NotFoundException;
+import mx.ipn.escom.accountservice.model.CursorHistorial;
+import mx.ipn.escom.accountservice.model.Dinero;
+import mx.ipn.escom.accountservice.model.MovimientoSaldo;
+import mx.ipn.escom.accountservice.model.PaginaHistorial;
+import mx.ipn.escom.accountservice.model.Saldos;
 import mx.ipn.escom.accountservice.model.StatusTransaccion;
 import mx.ipn.escom.accountservice.model.TipoTransaccion;
+import mx.ipn.escom.accountservice.model.Transaccion;
+import mx.ipn.escom.accountservice.pubsub.OutboxRelay;
 import mx.ipn.escom.accountservice.pubsub.TransferEvent;
-import mx.ipn.escom.accountservice.pubsub.TransferPublisher;
 import mx.ipn.escom.accountservice.repo.CuentaRepository;
+import mx.ipn.escom.accountservice.repo.OutboxRepository;
 import mx.ipn.escom.accountservice.repo.TransaccionRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Service
@@ -21,12 +40,34 @@ public class AccountService {
 
     private final CuentaRepository cuentaRepo;
     private final TransaccionRepository txRepo;
-    private final TransferPublisher publisher;
-
-    public AccountService(CuentaRepository cuentaRepo, TransaccionRepository txRepo, TransferPublisher publisher) {
+    private final OutboxRepository outboxRepo;
+    private final OutboxRelay outboxRelay;
+    private final CacheSaldos cacheSaldos;
+    private final CandadosCuenta candados;
+    private final AgrupadorDepositos agrupadorDepositos;
+    private final TransactionTemplate txTemplate;
+
+    @Value("${account.transfers.batch.max-items:1000}")
+    private int maxItemsLote;
+
+    @Value("${account.history.page-size:50}")
+    private int tamanoPaginaHistorial;
+
+    @Value("${account.history.max-page-size:200}")
+    private int maxPaginaHistorial;
+
+    public AccountService(CuentaRepository cuentaRepo, TransaccionRepository txRepo,
+                          OutboxRepository outboxRepo, OutboxRelay outboxRelay, CacheSaldos cacheSaldos,
+                          CandadosCuenta candados, AgrupadorDepositos agrupadorDepositos,
+                          PlatformTransactionManager txManager) {
         this.cuentaRepo = cuentaRepo;
         this.txRepo = txRepo;
-        this.publisher = publisher;
+        this.outboxRepo = outboxRepo;
+        this.outboxRelay = outboxRelay;
+        this.cacheSaldos = cacheSaldos;
+        this.candados = candados;
+        this.agrupadorDepositos = agrupadorDepositos;
+        this.txTemplate = new TransactionTemplate(txManager);
     }
 
     /** Regresa saldo TOTAL (billetera + banco). */
@@ -35,96 +76,89 @@ public class AccountService {
                 .orElseThrow(() -> new NotFoundException("La cuenta no existe: " + curp));
     }
 
-    /** Depósito síncrono (por defecto a saldo_billetera). */
-    @Transactional
-    public void deposit(String curp, BigDecimal amount) {
-        validarMonto(amount);
+    /** Saldos banco/billetera para GET /balance; en estado estable se sirven desde CacheSaldos. */
+    public Saldos consultarSaldos(String curp) {
+        return cacheSaldos.obtener(curp, () -> cuentaRepo.obtenerSaldos(curp))
+                .orElseThrow(() -> new NotFoundException("La cuenta no existe: " + curp));
+    }
 
-        if (!cuentaRepo.existeCuenta(curp)) {
-            throw new NotFoundException("La cuenta no existe: " + curp);
+    /**
+     * Una página del historial de la cuenta. Se pide una fila de más para saber si hay otra página
+     * sin un COUNT; el cursor apunta a la última fila entregada.
+     */
+    public PaginaHistorial historial(String curp, String cursorToken, Integer limite) {
+        CursorHistorial cursor = null;
+        if (cursorToken != null && !cursorToken.isBlank()) {
+            try {
+                cursor = CursorHistorial.decodificar(cursorToken.trim());
+            } catch (IllegalArgumentException ex) {
+                throw new BadRequestException("Cursor de historial inválido");
+            }
         }
 
-        BigDecimal actual = cuentaRepo.obtenerSaldoBilleteraForUpdate(curp);
-        BigDecimal nuevo = actual.add(amount);
+        int tamano = (limite == null) ? tamanoPaginaHistorial : Math.max(1, Math.min(limite, maxPaginaHistorial));
 
-        cuentaRepo.actualizarSaldoBilletera(curp, nuevo);
+        List<Map<String, Object>> filas = txRepo.historial(curp, cursor, tamano + 1);
 
-        UUID txId = UUID.randomUUID();
-        String eventId = txId.toString();
+        String siguiente = null;
+        if (filas.size() > tamano) {
+            filas = new ArrayList<>(filas.subList(0, tamano));
+            Map<String, Object> ultima = filas.get(tamano - 1);
+            siguiente = new CursorHistorial(
+                    ((Timestamp) ultima.get("creado_en")).toInstant(),
+                    (UUID) ultima.get("id")
+            ).codificar();
+        }
 
-        txRepo.insertar(
-                txId,
-                eventId,
-                TipoTransaccion.DEPOSIT,
-                StatusTransaccion.CONFIRMED,
-                null,         // curp_origen NULL para DEPOSITO
-                curp,         // curp_destino NOT NULL
-                amount,
-                Instant.now() // confirmado_en obligatorio para CONFIRMADA
-        );
+        // id solo sirve para el cursor; la respuesta conserva las columnas de siempre
+        filas.forEach(f -> f.remove("id"));
+        return new PaginaHistorial(filas, siguiente);
     }
 
-    /** Retiro síncrono (por defecto de saldo_billetera). */
-    @Transactional
-    public void withdraw(String curp, BigDecimal amount) {
+    /**
+     * Depósito síncrono (por defecto a saldo_billetera).
+     * Un solo round trip: CuentaRepository.depositar actualiza y registra en la misma sentencia,
+     * por eso no necesita @Transactional.
+     * Con group commit activo, los depósitos simultáneos a la misma cuenta comparten sentencia y commit.
+     */
+    public void deposit(String curp, Dinero amount) {
         validarMonto(amount);
 
-        if (!cuentaRepo.existeCuenta(curp)) {
+        MovimientoSaldo r = agrupadorDepositos.habilitado()
+                ? agrupadorDepositos.depositar(curp, amount)
+                : candados.ejecutar(curp, () -> cuentaRepo.depositar(curp, amount, UUID.randomUUID()));
+        if (r.resultado() == MovimientoSaldo.Resultado.CUENTA_NO_EXISTE) {
             throw new NotFoundException("La cuenta no existe: " + curp);
         }
+        cacheSaldos.actualizar(curp, r.saldos(), r.version());
+    }
 
-        BigDecimal actual = cuentaRepo.obtenerSaldoBilleteraForUpdate(curp);
-
-        if (actual.compareTo(amount) < 0) {
-            UUID txId = UUID.randomUUID();
-            String eventId = txId.toString();
-
-            txRepo.insertar(
-                    txId,
-                    eventId,
-                    TipoTransaccion.WITHDRAW,
-                    StatusTransaccion.REJECTED, // -> FALLIDA en BD
-                    curp,   // origen NOT NULL para RETIRO
-                    null,   // destino NULL
-                    amount,
-                    Instant.now()
-            );
+    /**
+     * Retiro síncrono (de saldo_billetera hacia saldo_banco).
+     * Un solo round trip; el registro FALLIDA por fondos insuficientes queda guardado
+     * porque la sentencia ya hizo commit cuando se lanza la excepción.
+     */
+    public void withdraw(String curp, Dinero amount) {
+        validarMonto(amount);
 
-            throw new InsufficientFundsException("Fondos insuficientes");
+        MovimientoSaldo r = candados.ejecutar(curp, () -> cuentaRepo.retirar(curp, amount, UUID.randomUUID()));
+        switch (r.resultado()) {
+            case CUENTA_NO_EXISTE -> throw new NotFoundException("La cuenta no existe: " + curp);
+            case FONDOS_INSUFICIENTES -> throw new InsufficientFundsException("Fondos insuficientes");
+            case APLICADO -> cacheSaldos.actualizar(curp, r.saldos(), r.version());
         }
-
-        BigDecimal nuevo = actual.subtract(amount);
-        cuentaRepo.actualizarSaldoBilletera(curp, nuevo);
-        
-        // Actualizar saldo banco (añadir el monto retirado)
-        BigDecimal saldoBancoActual = cuentaRepo.obtenerSaldoBancoForUpdate(curp);
-        BigDecimal saldoBancoNuevo = saldoBancoActual.add(amount);
-        cuentaRepo.actualizarSaldoBanco(curp, saldoBancoNuevo);
-
-        UUID txId = UUID.randomUUID();
-        String eventId = txId.toString();
-
-        txRepo.insertar(
-                txId,
-                eventId,
-                TipoTransaccion.WITHDRAW,
-                StatusTransaccion.CONFIRMED,
-                curp,
-                null,
-                amount,
-                Instant.now()
-        );
     }
 
     /**
      * Transferencia ASÍNCRONA:
      * - valida
      * - crea transacción PENDIENTE
-     * - publica evento a Pub/Sub
+     * - encola el evento en outbox_eventos (misma transacción); OutboxRelay lo publica a Pub/Sub
      * - NO mueve saldo aquí
+     * La transacción se abre ya con el candado de la cuenta origen (ver CandadosCuenta),
+     * por eso TransactionTemplate y no @Transactional.
      */
-    @Transactional
-    public UUID transfer(String fromCurp, String toCurp, BigDecimal amount) throws Exception {
+    public UUID transfer(String fromCurp, String toCurp, Dinero amount) {
         validarMonto(amount);
 
         if (fromCurp == null || toCurp == null) {
@@ -135,6 +169,10 @@ public class AccountService {
             throw new BadRequestException("fromCurp y toCurp no pueden ser iguales");
         }
 
+        return candados.ejecutar(fromCurp, () -> txTemplate.execute(status -> transferEnTx(fromCurp, toCurp, amount)));
+    }
+
+    private UUID transferEnTx(String fromCurp, String toCurp, Dinero amount) {
         if (!cuentaRepo.existeCuenta(fromCurp)) {
             throw new NotFoundException("No existe cuenta origen: " + fromCurp);
         }
@@ -143,7 +181,7 @@ public class AccountService {
         }
 
         // pre-check en billetera (TransactionService revalida de todos modos)
-        BigDecimal actual = cuentaRepo.obtenerSaldoBilleteraForUpdate(fromCurp);
+        Dinero actual = cuentaRepo.obtenerSaldoBilleteraForUpdate(fromCurp);
         if (actual.compareTo(amount) < 0) {
             UUID txId = UUID.randomUUID();
             String eventId = txId.toString();
@@ -187,13 +225,104 @@ public class AccountService {
                 "TRANSFER" // atributo type (ajústalo si tu subscriber espera otro)
         );
 
-        publisher.publish(event);
+        // No se publica aquí: el lock FOR UPDATE se libera al commit, sin esperar a Pub/Sub
+        outboxRepo.encolar(event);
 
         return txId;
     }
 
-    private void validarMonto(BigDecimal amount) {
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+    /**
+     * Lote de transferencias desde una sola cuenta origen (nómina, pagos masivos).
+     * - valida todos los destinos con una sola consulta (curp = ANY)
+     * - bloquea la cuenta origen una vez y va descontando el saldo disponible
+     * - inserta todas las filas y eventos del outbox con batching JDBC
+     * Los errores por elemento (monto inválido, destino inexistente, sin fondos) NO abortan el lote.
+     */
+    public List<BatchTransferResult> transferBatch(String fromCurp, List<BatchTransferRequest.Item> items) {
+        if (items == null || items.isEmpty()) {
+            throw new BadRequestException("La lista de transferencias está vacía");
+        }
+        if (items.size() > maxItemsLote) {
+            throw new BadRequestException("Máximo " + maxItemsLote + " transferencias por lote");
+        }
+
+        return candados.ejecutar(fromCurp, () -> txTemplate.execute(status -> transferBatchEnTx(fromCurp, items)));
+    }
+
+    private List<BatchTransferResult> transferBatchEnTx(String fromCurp, List<BatchTransferRequest.Item> items) {
+        Set<String> curps = new HashSet<>();
+        curps.add(fromCurp);
+        for (BatchTransferRequest.Item item : items) {
+            if (item != null && item.curpDestino() != null) curps.add(item.curpDestino());
+        }
+
+        Set<String> existentes = cuentaRepo.curpsExistentes(curps);
+        if (!existentes.contains(fromCurp)) {
+            throw new NotFoundException("No existe cuenta origen: " + fromCurp);
+        }
+
+        // pre-check acumulado en billetera (TransactionService revalida de todos modos)
+        Dinero disponible = cuentaRepo.obtenerSaldoBilleteraForUpdate(fromCurp);
+
+        Instant ahora = Instant.now();
+        List<BatchTransferResult> resultados = new ArrayList<>(items.size());
+        List<Transaccion> filas = new ArrayList<>(items.size());
+        List<TransferEvent> eventos = new ArrayList<>(items.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            BatchTransferRequest.Item item = items.get(i);
+            String toCurp = item == null ? null : item.curpDestino();
+            Dinero amount = item == null ? null : item.monto();
+
+            String error = validarElementoLote(fromCurp, toCurp, amount, existentes);
+            if (error != null) {
+                resultados.add(new BatchTransferResult(i, toCurp, null, "RECHAZADA", error));
+                continue;
+            }
+
+            UUID txId = UUID.randomUUID();
+
+            if (disponible.compareTo(amount) < 0) {
+                filas.add(new Transaccion(txId, TipoTransaccion.TRANSFER, fromCurp, toCurp, amount.aNumeric(),
+                        StatusTransaccion.REJECTED, "Fondos insuficientes", ahora));
+                resultados.add(new BatchTransferResult(i, toCurp, txId.toString(),
+                        StatusTransaccion.REJECTED.db(), "Fondos insuficientes"));
+                continue;
+            }
+
+            disponible = disponible.menos(amount);
+            filas.add(new Transaccion(txId, TipoTransaccion.TRANSFER, fromCurp, toCurp, amount.aNumeric(),
+                    StatusTransaccion.PENDING, null, ahora));
+            eventos.add(new TransferEvent(txId.toString(), fromCurp, toCurp, amount, ahora.toEpochMilli(), "TRANSFER"));
+            resultados.add(new BatchTransferResult(i, toCurp, txId.toString(), StatusTransaccion.PENDING.db(), null));
+        }
+
+        txRepo.insertarLote(filas);
+        outboxRepo.encolarLote(eventos);
+
+        if (!eventos.isEmpty()) {
+            // Publicar el lote en cuanto haga commit, sin esperar al siguiente ciclo del relay
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    outboxRelay.despertar();
+                }
+            });
+        }
+
+        return resultados;
+    }
+
+    private String validarElementoLote(String fromCurp, String toCurp, Dinero amount, Set<String> existentes) {
+        if (amount == null || !amount.esPositivo()) return "El monto debe ser mayor que 0";
+        if (toCurp == null || toCurp.isBlank()) return "curpDestino es obligatorio";
+        if (fromCurp.equalsIgnoreCase(toCurp)) return "fromCurp y toCurp no pueden ser iguales";
+        if (!existentes.contains(toCurp)) return "No existe cuenta destino: " + toCurp;
+        return null;
+    }
+
+    private void validarMonto(Dinero amount) {
+        if (amount == null || !amount.esPositivo()) {
             throw new BadRequestException("El monto debe ser mayor que 0");
         }
     }
@@ -0,0 +1,278 @@
+package mx.ipn.escom.accountservice.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.accountservice.error.BusyException;
+import mx.ipn.escom.accountservice.model.Dinero;
+import mx.ipn.escom.accountservice.model.MovimientoSaldo;
+import mx.ipn.escom.accountservice.repo.CuentaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit de depósitos (opcional, account.deposits.group-commit.enabled).
+ * Los depósitos concurrentes a una misma CURP que llegan dentro de la ventana se aplican con UNA
+ * sentencia (CuentaRepository.depositarLote) y un solo commit; cada llamador espera su resultado.
+ * Cambia un poco de latencia (hasta ventana-ms) por muchos menos commits en cuentas con ráfagas.
+ * Si el lote falla, fallan todos sus depósitos (todos son de la misma cuenta, el error es el mismo).
+ * A lo más max-pendientes depósitos esperan commit (entre todas las cuentas): si la BD se frena no se
+ * acumulan sin límite, el siguiente recibe 503 (BusyException) de inmediato.
+ * Al apagar, los grupos que no alcanzaron a aplicarse en el plazo fallan con BusyException: ningún
+ * llamador se queda esperando un lote que ya no va a correr.
+ */
+@Component
+public class AgrupadorDepositos {
+
+    private static final Logger log = LoggerFactory.getLogger(AgrupadorDepositos.class);
+
+    private final CuentaRepository cuentaRepo;
+    private final CandadosCuenta candados;
+
+    private final boolean habilitado;
+    private final long ventanaMs;
+    private final int maxLote;
+    private final int hilos;
+    private final int maxPendientes;
+    private final Semaphore cupo;
+
+    // Grupo abierto por CURP; se quita del mapa al cerrarse, el siguiente depósito abre otro
+    private final ConcurrentHashMap<String, Grupo> abiertos = new ConcurrentHashMap<>();
+    // Abiertos o ya cerrados pero sin aplicar (en la cola del ejecutor); detener() falla los que queden
+    private final Set<Grupo> sinAplicar = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder depositos = new LongAdder();
+    private final AtomicInteger maxTamanoLote = new AtomicInteger();
+    private final LongAdder rechazados = new LongAdder();
+
+    private ScheduledExecutorService ejecutor;
+
+    public AgrupadorDepositos(CuentaRepository cuentaRepo,
+                              CandadosCuenta candados,
+                              @Value("${account.deposits.group-commit.enabled:false}") boolean habilitado,
+                              @Value("${account.deposits.group-commit.ventana-ms:2}") long ventanaMs,
+                              @Value("${account.deposits.group-commit.max-lote:64}") int maxLote,
+                              @Value("${account.deposits.group-commit.hilos:4}") int hilos,
+                              @Value("${account.deposits.group-commit.max-pendientes:5000}") int maxPendientes) {
+        this.cuentaRepo = cuentaRepo;
+        this.candados = candados;
+        this.habilitado = habilitado;
+        this.ventanaMs = ventanaMs;
+        this.maxLote = Math.max(1, maxLote);
+        this.hilos = Math.max(1, hilos);
+        this.maxPendientes = Math.max(1, maxPendientes);
+        this.cupo = new Semaphore(this.maxPendientes);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!habilitado) return;
+        ejecutor = Executors.newScheduledThreadPool(hilos, new NamedNonDaemonFactory("deposit-group-commit"));
+        log.info("✔ Group commit de depósitos activo. ventanaMs={}, maxLote={}, hilos={}, maxPendientes={}",
+                ventanaMs, maxLote, hilos, maxPendientes);
+    }
+
+    public boolean habilitado() {
+        return habilitado;
+    }
+
+    /**
+     * Encola el depósito en el grupo abierto de la CURP y espera a que su lote haga commit.
+     * @throws BusyException si ya hay max-pendientes depósitos esperando commit
+     */
+    public MovimientoSaldo depositar(String curp, Dinero monto) {
+        if (!cupo.tryAcquire()) {
+            rechazados.increment();
+            throw new BusyException("Demasiados depósitos esperando commit, reintenta");
+        }
+        try {
+            return depositarConCupo(curp, monto);
+        } finally {
+            cupo.release();
+        }
+    }
+
+    private MovimientoSaldo depositarConCupo(String curp, Dinero monto) {
+        Pendiente p = new Pendiente(UUID.randomUUID(), monto, new CompletableFuture<>());
+
+        try {
+            while (!abiertos.computeIfAbsent(curp, this::abrirGrupo).agregar(p)) {
+                // El grupo se cerró entre computeIfAbsent y agregar: ya salió del mapa, tomar el siguiente
+            }
+        } catch (RejectedExecutionException e) {
+            // Apagando (no se pudo programar un grupo nuevo): aplicarlo solo, como en modo normal
+            return candados.ejecutar(curp, () -> cuentaRepo.depositar(curp, monto, p.txId()));
+        }
+
+        try {
+            return p.resultado().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long l = lotes.sum();
+        long d = depositos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("ventanaMs", ventanaMs);
+        stats.put("maxLote", maxLote);
+        stats.put("gruposAbiertos", abiertos.size());
+        stats.put("pendientes", maxPendientes - cupo.availablePermits());
+        stats.put("maxPendientes", maxPendientes);
+        stats.put("rechazados", rechazados.sum());
+        stats.put("lotes", l);
+        stats.put("depositos", d);
+        stats.put("depositosPorLote", l == 0 ? 0.0 : (double) d / l);
+        stats.put("maxTamanoLote", maxTamanoLote.get());
+        return stats;
+    }
+
+    private Grupo abrirGrupo(String curp) {
+        Grupo g = new Grupo(curp);
+        // Antes de programarlo: con ventana corta aplicar() puede correr antes de que regrese schedule
+        sinAplicar.add(g);
+        try {
+            ejecutor.schedule(() -> aplicar(g), ventanaMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            sinAplicar.remove(g);
+            throw e;
+        }
+        return g;
+    }
+
+    private void aplicar(Grupo g) {
+        List<Pendiente> lote = g.cerrar();
+        sinAplicar.remove(g);
+        if (lote.isEmpty()) return;
+
+        List<UUID> txIds = new ArrayList<>(lote.size());
+        List<Dinero> montos = new ArrayList<>(lote.size());
+        for (Pendiente p : lote) {
+            txIds.add(p.txId());
+            montos.add(p.monto());
+        }
+
+        try {
+            MovimientoSaldo r = candados.ejecutar(g.curp, () -> cuentaRepo.depositarLote(g.curp, txIds, montos));
+            lotes.increment();
+            depositos.add(lote.size());
+            maxTamanoLote.accumulateAndGet(lote.size(), Math::max);
+            for (Pendiente p : lote) p.resultado().complete(r);
+        } catch (Exception e) {
+            log.warn("⚠ Falló lote de {} depósitos para {}: {}", lote.size(), g.curp, e.getMessage());
+            for (Pendiente p : lote) p.resultado().completeExceptionally(e);
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (ejecutor == null) return;
+        // Los grupos ya programados se aplican antes de terminar
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(5, TimeUnit.SECONDS)) ejecutor.shutdownNow();
+        } catch (InterruptedException e) {
+            ejecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        // shutdownNow descarta los programados: sus llamadores esperan en join, se les contesta aquí
+        for (Grupo g : sinAplicar) fallar(g);
+    }
+
+    private void fallar(Grupo g) {
+        List<Pendiente> lote = g.cerrar();
+        sinAplicar.remove(g);
+        if (lote.isEmpty()) return;
+        log.warn("⚠ Apagando: {} depósitos para {} no alcanzaron a aplicarse", lote.size(), g.curp);
+        BusyException e = new BusyException("El servicio se está apagando, reintenta");
+        for (Pendiente p : lote) p.resultado().completeExceptionally(e);
+    }
+
+    private final class Grupo {
+        final String curp;
+        // ReentrantLock y no synchronized (ver HILOS_VIRTUALES.md)
+        final ReentrantLock candado = new ReentrantLock();
+        final List<Pendiente> pendientes = new ArrayList<>();
+        boolean cerrado;
+        boolean tomado;
+
+        Grupo(String curp) {
+            this.curp = curp;
+        }
+
+        /** false si el grupo ya se cerró; si con este depósito se llena, se aplica sin esperar la ventana. */
+        boolean agregar(Pendiente p) {
+            boolean lleno;
+            candado.lock();
+            try {
+                if (cerrado) return false;
+                pendientes.add(p);
+                lleno = pendientes.size() >= maxLote;
+                if (lleno) cerrado = true;
+            } finally {
+                candado.unlock();
+            }
+
+            if (lleno) {
+                abiertos.remove(curp, this);
+                try {
+                    ejecutor.execute(() -> aplicar(this));
+                } catch (RejectedExecutionException e) {
+                    aplicar(this);
+                }
+            }
+            return true;
+        }
+
+        /** Cierra el grupo y entrega sus depósitos una sola vez (la ventana y el "lleno" pueden coincidir). */
+        List<Pendiente> cerrar() {
+            abiertos.remove(curp, this);
+            candado.lock();
+            try {
+                cerrado = true;
+                if (tomado) return List.of();
+                tomado = true;
+                return pendientes;
+            } finally {
+                candado.unlock();
+            }
+        }
+    }
+
+    private record Pendiente(UUID txId, Dinero monto, CompletableFuture<MovimientoSaldo> resultado) {}
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package mx.ipn.escom.accountservice.service;
+
+import mx.ipn.escom.accountservice.model.Saldos;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Caché LRU de saldos por CURP para GET /account/balance.
+ * - depósitos/retiros locales la actualizan (write-through) con los saldos que regresa el UPDATE
+ * - las confirmaciones de tx-confirmed invalidan origen y destino: queda una lápida con la hora de
+ *   la invalidación y un write-through más viejo que llegue tarde ya no revive el saldo anterior
+ * - el TTL acota lo desfasada que puede quedar si otra réplica modifica la cuenta
+ */
+@Component
+public class CacheSaldos {
+
+    private final boolean habilitada;
+    private final int maxEntradas;
+    private final long ttlMs;
+
+    // accessOrder=true => LRU; LinkedHashMap no es thread-safe, todo acceso va bajo candado.
+    // ReentrantLock y no synchronized (ver HILOS_VIRTUALES.md)
+    private final LinkedHashMap<String, Entrada> entradas;
+    private final ReentrantLock candado = new ReentrantLock();
+
+    // Generación por franja de CURP (hash): cambia con cada escritura/invalidación de esa franja y una
+    // carga desde BD que se cruzó con una escritura de SU cuenta no se guarda. Las demás cuentas no se
+    // enteran; dos CURP en la misma franja solo pierden, a veces, el guardado de una carga.
+    private static final int FRANJAS = 4096;
+    private final AtomicLongArray escrituras = new AtomicLongArray(FRANJAS);
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder invalidaciones = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    public CacheSaldos(@Value("${account.balance-cache.enabled:true}") boolean habilitada,
+                       @Value("${account.balance-cache.max-entradas:50000}") int maxEntradas,
+                       @Value("${account.balance-cache.ttl-ms:5000}") long ttlMs) {
+        this.habilitada = habilitada;
+        this.maxEntradas = maxEntradas;
+        this.ttlMs = ttlMs;
+        this.entradas = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                boolean desalojar = size() > CacheSaldos.this.maxEntradas;
+                if (desalojar) desalojos.increment();
+                return desalojar;
+            }
+        };
+    }
+
+    public boolean habilitada() {
+        return habilitada;
+    }
+
+    /** Regresa el saldo en caché o lo carga con {@code cargador} (y lo guarda si nadie escribió mientras tanto). */
+    public Optional<Saldos> obtener(String curp, Supplier<Optional<Saldos>> cargador) {
+        if (!habilitada) return cargador.get();
+
+        candado.lock();
+        try {
+            Entrada e = entradas.get(curp);
+            if (e != null && e.saldos() != null && System.currentTimeMillis() - e.guardadoEnMs() < ttlMs) {
+                aciertos.increment();
+                return Optional.of(e.saldos());
+            }
+        } finally {
+            candado.unlock();
+        }
+
+        fallos.increment();
+        int franja = franja(curp);
+        long generacion = escrituras.get(franja);
+        // La lectura de BD es posterior: incluye toda escritura con version menor a esta
+        long desde = ahoraMicros();
+        Optional<Saldos> cargado = cargador.get();
+
+        cargado.ifPresent(saldos -> {
+            candado.lock();
+            try {
+                if (escrituras.get(franja) == generacion) {
+                    entradas.put(curp, new Entrada(saldos, desde, System.currentTimeMillis()));
+                }
+            } finally {
+                candado.unlock();
+            }
+        });
+        return cargado;
+    }
+
+    /**
+     * Write-through tras un depósito/retiro aplicado.
+     * {@code version} viene de clock_timestamp() tomado con el lock de la fila: si dos escrituras
+     * terminan en desorden, gana la más nueva. Tampoco pisa una lápida de invalidar ni una carga
+     * posteriores a ella.
+     */
+    public void actualizar(String curp, Saldos saldos, long version) {
+        if (!habilitada) return;
+
+        candado.lock();
+        try {
+            escrituras.incrementAndGet(franja(curp));
+            Entrada actual = entradas.get(curp);
+            if (actual == null || actual.version() < version) {
+                entradas.put(curp, new Entrada(saldos, version, System.currentTimeMillis()));
+            }
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Deja una lápida (sin saldos) con la hora de la invalidación en vez de borrar la entrada: la
+     * confirmación llega después del commit de la transferencia, así que un write-through con version
+     * anterior ya no trae ese movimiento y se descarta. Compara el reloj de la BD (version) con el de
+     * esta réplica: con desfase, lo peor es un fallo de caché de más o, si la réplica va atrasada,
+     * esa misma ventana de desfase acotada por el TTL.
+     */
+    public void invalidar(String curp) {
+        if (!habilitada || curp == null) return;
+
+        candado.lock();
+        try {
+            escrituras.incrementAndGet(franja(curp));
+            Entrada anterior = entradas.get(curp);
+            long version = anterior == null ? ahoraMicros() : Math.max(ahoraMicros(), anterior.version());
+            entradas.put(curp, new Entrada(null, version, System.currentTimeMillis()));
+            if (anterior != null && anterior.saldos() != null) invalidaciones.increment();
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long a = aciertos.sum();
+        long f = fallos.sum();
+        int tamano;
+        candado.lock();
+        try {
+            tamano = entradas.size();
+        } finally {
+            candado.unlock();
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitada", habilitada);
+        stats.put("entradas", tamano);
+        stats.put("maxEntradas", maxEntradas);
+        stats.put("ttlMs", ttlMs);
+        stats.put("aciertos", a);
+        stats.put("fallos", f);
+        stats.put("invalidaciones", invalidaciones.sum());
+        stats.put("desalojos", desalojos.sum());
+        stats.put("tasaAciertos", (a + f) == 0 ? 0.0 : (double) a / (a + f));
+        return stats;
+    }
+
+    /** Misma unidad que version (clock_timestamp() en microsegundos). */
+    private static long ahoraMicros() {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    private static int franja(String curp) {
+        int h = curp.hashCode();
+        return (h ^ (h >>> 16)) & (FRANJAS - 1);
+    }
+
+    /** saldos == null: lápida de invalidar. */
+    private record Entrada(Saldos saldos, long version, long guardadoEnMs) {}
+}
@@ -0,0 +1,156 @@
+package mx.ipn.escom.accountservice.service;
+
+import mx.ipn.escom.accountservice.error.BusyException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Serializa en memoria las operaciones sobre una misma cuenta (por franjas de hash de la CURP).
+ * Sin esto, N requests a una cuenta "caliente" toman N conexiones de Hikari y las N esperan
+ * el lock de la fila en PostgreSQL; aquí esperan ANTES de pedir conexión, y el pool queda libre
+ * para las demás cuentas. Dos CURPs en la misma franja se serializan entre sí (costo aceptable).
+ * Es por réplica: el lock de fila en BD sigue siendo la garantía entre réplicas.
+ */
+@Component
+public class CandadosCuenta {
+
+    private final boolean habilitado;
+    private final long esperaMaxMs;
+    private final Franja[] franjas;
+    private final int mascara;
+
+    public CandadosCuenta(@Value("${account.stripes.enabled:true}") boolean habilitado,
+                          @Value("${account.stripes.cantidad:256}") int cantidad,
+                          @Value("${account.stripes.espera-max-ms:2000}") long esperaMaxMs) {
+        this.habilitado = habilitado;
+        this.esperaMaxMs = esperaMaxMs;
+
+        // Potencia de 2 para elegir franja con una máscara
+        int n = cantidad <= 1 ? 1 : Integer.highestOneBit(cantidad - 1) << 1;
+        this.franjas = new Franja[n];
+        for (int i = 0; i < n; i++) franjas[i] = new Franja();
+        this.mascara = n - 1;
+    }
+
+    /**
+     * Ejecuta {@code accion} con la franja de {@code curp} tomada.
+     * @throws BusyException si la espera supera account.stripes.espera-max-ms
+     */
+    public <T> T ejecutar(String curp, Supplier<T> accion) {
+        if (!habilitado || curp == null) return accion.get();
+
+        Franja f = franjas[indice(curp)];
+        f.adquirir(curp, esperaMaxMs);
+        try {
+            return accion.get();
+        } finally {
+            f.permiso.release();
+        }
+    }
+
+    /** Totales y detalle de las franjas que han tenido espera (las demás se omiten). */
+    public Map<String, Object> estadisticas() {
+        long adquisiciones = 0, conEspera = 0, timeouts = 0, esperaTotalNs = 0, esperaMaxNs = 0;
+        int enEspera = 0;
+        List<Map<String, Object>> detalle = new ArrayList<>();
+
+        for (int i = 0; i < franjas.length; i++) {
+            Franja f = franjas[i];
+            long a = f.adquisiciones.sum();
+            long e = f.conEspera.sum();
+            long t = f.timeouts.sum();
+            long ns = f.esperaTotalNs.sum();
+            long max = f.esperaMaxNs.get();
+            int cola = f.enEspera.get();
+
+            adquisiciones += a;
+            conEspera += e;
+            timeouts += t;
+            esperaTotalNs += ns;
+            esperaMaxNs = Math.max(esperaMaxNs, max);
+            enEspera += cola;
+
+            if (e > 0 || cola > 0) {
+                Map<String, Object> franja = new LinkedHashMap<>();
+                franja.put("franja", i);
+                franja.put("enEspera", cola);
+                franja.put("maxEnEspera", f.maxEnEspera.get());
+                franja.put("adquisiciones", a);
+                franja.put("conEspera", e);
+                franja.put("timeouts", t);
+                franja.put("esperaPromedioMs", e == 0 ? 0.0 : ns / 1e6 / e);
+                franja.put("esperaMaxMs", max / 1e6);
+                detalle.add(franja);
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("franjas", franjas.length);
+        stats.put("esperaMaxPermitidaMs", esperaMaxMs);
+        stats.put("enEspera", enEspera);
+        stats.put("adquisiciones", adquisiciones);
+        stats.put("conEspera", conEspera);
+        stats.put("timeouts", timeouts);
+        stats.put("esperaPromedioMs", conEspera == 0 ? 0.0 : esperaTotalNs / 1e6 / conEspera);
+        stats.put("esperaMaxMs", esperaMaxNs / 1e6);
+        stats.put("detalle", detalle);
+        return stats;
+    }
+
+    private int indice(String curp) {
+        int h = curp.hashCode();
+        return (h ^ (h >>> 16)) & mascara;
+    }
+
+    private static final class Franja {
+        // Semaphore justo (FIFO) en lugar de synchronized: no fija hilos virtuales y permite timeout
+        final Semaphore permiso = new Semaphore(1, true);
+
+        final AtomicInteger enEspera = new AtomicInteger();
+        final AtomicInteger maxEnEspera = new AtomicInteger();
+        final LongAdder adquisiciones = new LongAdder();
+        final LongAdder conEspera = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder esperaTotalNs = new LongAdder();
+        final AtomicLong esperaMaxNs = new AtomicLong();
+
+        void adquirir(String curp, long esperaMaxMs) {
+            adquisiciones.increment();
+            if (permiso.tryAcquire()) return;
+
+            int cola = enEspera.incrementAndGet();
+            maxEnEspera.accumulateAndGet(cola, Math::max);
+            long inicio = System.nanoTime();
+            boolean obtenido;
+            try {
+                obtenido = permiso.tryAcquire(esperaMaxMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new BusyException("Operación interrumpida esperando la cuenta " + curp);
+            } finally {
+                enEspera.decrementAndGet();
+                long espera = System.nanoTime() - inicio;
+                conEspera.increment();
+                esperaTotalNs.add(espera);
+                esperaMaxNs.accumulateAndGet(espera, Math::max);
+            }
+
+            if (!obtenido) {
+                timeouts.increment();
+                throw new BusyException("La cuenta " + curp + " tiene demasiadas operaciones en curso, reintenta");
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package mx.ipn.escom.accountservice.service;
+
+import mx.ipn.escom.accountservice.security.JwtServicio;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Contadores internos de esta réplica (cachés, colas). Sin datos de usuarios. */
+@RestController
+@RequestMapping("/account")
+@CrossOrigin(origins = "*")
+public class MetricsController {
+
+    private final JwtServicio jwtServicio;
+    private final CacheSaldos cacheSaldos;
+    private final CandadosCuenta candados;
+    private final AgrupadorDepositos agrupadorDepositos;
+
+    public MetricsController(JwtServicio jwtServicio, CacheSaldos cacheSaldos, CandadosCuenta candados,
+                             AgrupadorDepositos agrupadorDepositos) {
+        this.jwtServicio = jwtServicio;
+        this.cacheSaldos = cacheSaldos;
+        this.candados = candados;
+        this.agrupadorDepositos = agrupadorDepositos;
+    }
+
+    @GetMapping("/metrics")
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("jwtCache", jwtServicio.estadisticasCache());
+        metrics.put("balanceCache", cacheSaldos.estadisticas());
+        metrics.put("accountLocks", candados.estadisticas());
+        metrics.put("depositGroupCommit", agrupadorDepositos.estadisticas());
+        return metrics;
+    }
+}
@@ -0,0 +1,77 @@
+package mx.ipn.escom.accountservice.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import mx.ipn.escom.accountservice.dto.TransferRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cuerpo de /account/transfer de punta a punta dentro de la JVM: JSON -> monto -> pre-check
+ * contra el saldo -> valor que se bindea a JDBC.
+ * - mapaDouble: camino anterior (Map<String, Object> + BigDecimal.valueOf(double))
+ * - dinero: TransferRequest tipado con Dinero en centavos
+ *
+ * Correr con -prof gc para comparar bytes asignados por operación:
+ *   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=mx.ipn.escom.accountservice.model.DineroBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DineroBenchmark {
+
+    private final byte[] cuerpo = "{\"curpDestino\":\"GODE561231HDFRRN09\",\"monto\":1234.56}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader lectorMapa = mapper.readerFor(new TypeReference<Map<String, Object>>() {});
+    private final ObjectReader lectorTipado = mapper.readerFor(TransferRequest.class);
+
+    private final BigDecimal saldoBigDecimal = new BigDecimal("50000.00");
+    private final Dinero saldoDinero = Dinero.deCentavos(5_000_000);
+
+    @Benchmark
+    public BigDecimal mapaDouble() throws Exception {
+        Map<String, Object> body = lectorMapa.readValue(cuerpo);
+        double monto = ((Number) body.get("monto")).doubleValue();
+        BigDecimal amount = BigDecimal.valueOf(monto);
+
+        if (amount.compareTo(BigDecimal.ZERO) <= 0 || saldoBigDecimal.compareTo(amount) < 0) return null;
+        return amount;
+    }
+
+    @Benchmark
+    public BigDecimal dinero() throws Exception {
+        TransferRequest body = lectorTipado.readValue(cuerpo);
+        Dinero amount = body.monto();
+
+        if (!amount.esPositivo() || saldoDinero.compareTo(amount) < 0) return null;
+        return amount.aNumeric();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(DineroBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
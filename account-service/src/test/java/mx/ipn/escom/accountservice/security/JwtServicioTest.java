@@ -0,0 +1,45 @@
+package mx.ipn.escom.accountservice.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtServicioTest {
+
+    private static final String SECRETO = "secreto-de-pruebas-de-al-menos-32-caracteres";
+
+    private final JwtServicio servicio = new JwtServicio(SECRETO, 100);
+
+    @Test
+    void tokenNuloOVacioSeRechazaComoJwtMalFormado() {
+        assertThatThrownBy(() -> servicio.validarYObtenerClaims(null)).isInstanceOf(MalformedJwtException.class);
+        assertThatThrownBy(() -> servicio.validarYObtenerClaims("  ")).isInstanceOf(MalformedJwtException.class);
+        assertThat(servicio.estadisticasCache()).containsEntry("fallos", 0L).containsEntry("entradas", 0);
+    }
+
+    @Test
+    void huellaDeNullSeRechazaExplicitamente() {
+        assertThatThrownBy(() -> JwtServicio.huella(null)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(JwtServicio.huella("abc")).isEqualTo(JwtServicio.huella("abc")).isNotEqualTo(JwtServicio.huella("abd"));
+    }
+
+    @Test
+    void elMismoTokenSeVerificaUnaVez() {
+        String token = Jwts.builder()
+                .setSubject("CURP000000HDFXXX00")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.hmacShaKeyFor(SECRETO.getBytes(StandardCharsets.UTF_8)))
+                .compact();
+
+        assertThat(servicio.validarYObtenerClaims(token).getSubject()).isEqualTo("CURP000000HDFXXX00");
+        assertThat(servicio.validarYObtenerClaims(token).getSubject()).isEqualTo("CURP000000HDFXXX00");
+        assertThat(servicio.estadisticasCache()).containsEntry("fallos", 1L).containsEntry("aciertos", 1L);
+    }
+}
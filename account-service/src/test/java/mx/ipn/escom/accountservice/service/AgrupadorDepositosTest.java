@@ -0,0 +1,38 @@
+package mx.ipn.escom.accountservice.service;
+
+import mx.ipn.escom.accountservice.error.BusyException;
+import mx.ipn.escom.accountservice.model.Dinero;
+import mx.ipn.escom.accountservice.model.MovimientoSaldo;
+import mx.ipn.escom.accountservice.repo.CuentaRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AgrupadorDepositosTest {
+
+    private static final String CURP = "AAAA000000HDFAAA01";
+
+    @Test
+    void alApagarLosGruposSinAplicarFallanEnVezDeDejarEsperando() throws Exception {
+        // Ventana de un minuto: el grupo sigue programado cuando vence el plazo de detener()
+        AgrupadorDepositos agrupador = new AgrupadorDepositos(new CuentaRepository(null),
+                new CandadosCuenta(true, 16, 2000), true, 60_000, 64, 1, 100);
+        agrupador.iniciar();
+
+        CompletableFuture<MovimientoSaldo> deposito =
+                CompletableFuture.supplyAsync(() -> agrupador.depositar(CURP, Dinero.deCentavos(100)));
+        while (!agrupador.estadisticas().get("gruposAbiertos").equals(1)) Thread.sleep(5);
+
+        agrupador.detener();
+
+        assertThatThrownBy(() -> deposito.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(BusyException.class);
+        assertThat(agrupador.estadisticas()).containsEntry("pendientes", 0).containsEntry("lotes", 0L);
+    }
+}
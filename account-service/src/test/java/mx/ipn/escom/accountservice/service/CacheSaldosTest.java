@@ -0,0 +1,85 @@
+package mx.ipn.escom.accountservice.service;
+
+import mx.ipn.escom.accountservice.model.Saldos;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheSaldosTest {
+
+    private static final String CURP_A = "AAAA000000HDFAAA01";
+    private static final String CURP_B = "BBBB000000HDFBBB02";
+
+    private final CacheSaldos cache = new CacheSaldos(true, 100, 60_000);
+    private final AtomicInteger cargas = new AtomicInteger();
+
+    @Test
+    void escribirEnOtraCuentaNoImpideGuardarLaCarga() {
+        // La escritura a A ocurre mientras B se lee de la BD
+        cache.obtener(CURP_B, () -> {
+            cache.actualizar(CURP_A, saldos(5), 1L);
+            cache.invalidar(CURP_A);
+            return cargar(100);
+        });
+
+        assertThat(cache.obtener(CURP_B, () -> cargar(999))).contains(saldos(100));
+        assertThat(cargas).hasValue(1);
+    }
+
+    @Test
+    void escribirEnLaMismaCuentaDuranteLaCargaNoGuardaElValorViejo() {
+        cache.obtener(CURP_B, () -> {
+            cache.invalidar(CURP_B);
+            return cargar(100);
+        });
+
+        assertThat(cache.obtener(CURP_B, () -> cargar(200))).contains(saldos(200));
+        assertThat(cargas).hasValue(2);
+    }
+
+    @Test
+    void writeThroughAtrasadoNoReviveElSaldoInvalidado() {
+        long antes = ahoraMicros() - 1_000_000;
+        cache.actualizar(CURP_A, saldos(5), antes);
+
+        // La transferencia se confirma; el write-through de un depósito anterior llega después
+        cache.invalidar(CURP_A);
+        cache.actualizar(CURP_A, saldos(7), antes + 1);
+        assertThat(cache.obtener(CURP_A, () -> cargar(100))).contains(saldos(100));
+        assertThat(cargas).hasValue(1);
+
+        // Uno posterior a la invalidación sí se guarda
+        cache.invalidar(CURP_A);
+        cache.actualizar(CURP_A, saldos(8), ahoraMicros() + 1_000_000);
+        assertThat(cache.obtener(CURP_A, () -> cargar(999))).contains(saldos(8));
+        assertThat(cargas).hasValue(1);
+    }
+
+    @Test
+    void writeThroughAtrasadoNoPisaUnaCargaPosterior() {
+        long antes = ahoraMicros() - 1_000_000;
+        assertThat(cache.obtener(CURP_A, () -> cargar(100))).contains(saldos(100));
+
+        cache.actualizar(CURP_A, saldos(5), antes);
+        assertThat(cache.obtener(CURP_A, () -> cargar(999))).contains(saldos(100));
+        assertThat(cargas).hasValue(1);
+    }
+
+    private static long ahoraMicros() {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    private Optional<Saldos> cargar(long banco) {
+        cargas.incrementAndGet();
+        return Optional.of(saldos(banco));
+    }
+
+    private static Saldos saldos(long banco) {
+        return new Saldos(BigDecimal.valueOf(banco), BigDecimal.ZERO);
+    }
+}
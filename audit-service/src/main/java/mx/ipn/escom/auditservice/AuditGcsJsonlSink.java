@@ -1,7 +1,5 @@
 package mx.ipn.escom.auditservice;
 
-import com.google.cloud.storage.BlobId;
-import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import jakarta.annotation.PostConstruct;
@@ -11,13 +9,16 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.LocalDate;
+import java.time.Clock;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * JSONL de auditoría: EscritorSegmentos lo escribe en segmentos locales y SubidorSegmentos sube cada
+ * segmento cerrado una vez y lo compone en auditoria/YYYY-MM-DD.jsonl. Los appends y el flusher no
+ * comparten lock: una subida lenta no frena el ACK de los mensajes.
+ */
 @Component
 public class AuditGcsJsonlSink {
 
@@ -32,75 +33,93 @@ public class AuditGcsJsonlSink {
     @Value("${audit.local-dir:./audit-buffer}")
     private String localDir;
 
+    // fsync en grupo del archivo local (ver EscritorSegmentos)
+    @Value("${audit.jsonl.fsync-ms:200}")
+    private long fsyncMs;
+
+    @Value("${audit.jsonl.fsync-bytes:1048576}")
+    private long fsyncBytes;
+
+    @Value("${audit.jsonl.esperar-fsync:false}")
+    private boolean esperarFsync;
+
+    // Segmentos: se cierran al juntar max-bytes o al cumplir max-edad-ms, y se suben cada subir-cada-ms
+    @Value("${audit.segmentos.max-bytes:8388608}")
+    private long segmentoMaxBytes;
+
+    @Value("${audit.segmentos.max-edad-ms:3000}")
+    private long segmentoMaxEdadMs;
+
+    @Value("${audit.segmentos.subir-cada-ms:3000}")
+    private long subirCadaMs;
+
+    // Vacío: el id guardado en {local-dir}/.escritor (ver SubidorSegmentos.idEscritor)
+    @Value("${audit.segmentos.escritor-id:}")
+    private String escritorId;
+
+    @Value("${audit.segmentos.componer:continua}")
+    private String componer;
+
+    // Bloques independientes de ~bloque-bytes (sin comprimir) con índice por received_at
+    @Value("${audit.segmentos.compresion:gzip}")
+    private String compresion;
+
+    @Value("${audit.segmentos.bloque-bytes:65536}")
+    private int bloqueBytes;
+
     private final Storage storage = StorageOptions.getDefaultInstance().getService();
 
+    private EscritorSegmentos escritor;
+    private SubidorSegmentos subidor;
     private ScheduledExecutorService flusher;
-    private final AtomicBoolean dirty = new AtomicBoolean(false);
 
     @PostConstruct
     public void init() throws Exception {
-        Files.createDirectories(Paths.get(localDir));
+        Path dir = Paths.get(localDir);
+        Files.createDirectories(dir);
+        BloquesSegmento.Compresion formato = BloquesSegmento.Compresion.de(compresion);
+        String id = SubidorSegmentos.idEscritor(dir, escritorId);
+        Clock reloj = Clock.systemDefaultZone();
+        escritor = new EscritorSegmentos(dir, fsyncMs, fsyncBytes, esperarFsync,
+                segmentoMaxBytes, segmentoMaxEdadMs, formato, bloqueBytes, reloj);
+        subidor = new SubidorSegmentos(storage, bucket, prefix, dir, id,
+                SubidorSegmentos.Composicion.de(componer), formato, reloj);
         flusher = Executors.newSingleThreadScheduledExecutor(new NamedNonDaemonFactory("audit-gcs-flusher"));
-        flusher.scheduleWithFixedDelay(this::safeFlush, 3, 3, TimeUnit.SECONDS);
-        log.info("✔ AuditGcsJsonlSink listo. bucket={}, prefix={}, localDir={}", bucket, prefix, localDir);
+        flusher.scheduleWithFixedDelay(this::safeFlush, subirCadaMs, subirCadaMs, TimeUnit.MILLISECONDS);
+        log.info("✔ AuditGcsJsonlSink listo. bucket={}, prefix={}, localDir={}, escritor={}, componer={}, compresion={}",
+                bucket, prefix, localDir, id, componer, formato);
     }
 
-    public synchronized void appendJsonl(String jsonLine) throws Exception {
-        String day = LocalDate.now().toString();
-        Path file = Paths.get(localDir, day + ".jsonl");
-
-        Files.writeString(
-                file,
-                jsonLine + "\n",
-                StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND
-        );
-
-        dirty.set(true);
+    /** Sin synchronized ni espera: encola en el escritor; el future se completa con la línea en el archivo. */
+    public CompletableFuture<Void> appendJsonl(String jsonLine, long recibidoEnMs) {
+        return escritor.agregar(jsonLine, recibidoEnMs);
     }
 
     private void safeFlush() {
         try {
-            flushIfDirty();
+            subidor.ciclo();
         } catch (Exception e) {
             log.error("❌ Error flush a GCS", e);
         }
     }
 
-    public synchronized void flushIfDirty() throws Exception {
-        if (!dirty.get()) return;
-
-        String day = LocalDate.now().toString();
-        Path file = Paths.get(localDir, day + ".jsonl");
-        if (!Files.exists(file)) return;
-
-        byte[] bytes = Files.readAllBytes(file);
-
-        // ✅ REQUERIDO por tu bucket: auditoria/YYYY-MM-DD.jsonl
-        String objectName = prefix + "/" + day + ".jsonl";
-
-        BlobId blobId = BlobId.of(bucket, objectName);
-        BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
-                .setContentType("application/x-ndjson") // JSONL/NDJSON
-                .build();
-
-        storage.create(blobInfo, bytes);
-        dirty.set(false);
-
-        log.info("☁️ Subido a GCS: gs://{}/{} ({} bytes)", bucket, objectName, bytes.length);
-    }
-
     @PreDestroy
     public void shutdown() {
-        try { flushIfDirty(); } catch (Exception ignored) {}
+        if (escritor != null) {
+            escritor.cerrar();
+            log.info("ℹ Escritor JSONL de auditoría cerrado: {}", escritor.estadisticas());
+        }
 
         if (flusher != null) {
             flusher.shutdown();
             try { flusher.awaitTermination(3, TimeUnit.SECONDS); } catch (Exception ignored) {}
             flusher.shutdownNow();
         }
+        // Último ciclo con el segmento que cerró el escritor; lo que no alcance se sube al arrancar
+        if (subidor != null) {
+            try { subidor.ciclo(); } catch (Exception e) { log.warn("⚠ Segmentos pendientes de subir: {}", e.getMessage()); }
+            log.info("ℹ Subidor de segmentos: {}", subidor.estadisticas());
+        }
     }
 
     private static class NamedNonDaemonFactory implements ThreadFactory {
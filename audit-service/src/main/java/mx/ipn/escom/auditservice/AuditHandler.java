@@ -1,22 +1,24 @@
 package mx.ipn.escom.auditservice;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.pubsub.v1.PubsubMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.FormatoBinario;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class AuditHandler {
 
     private static final Logger log = LoggerFactory.getLogger(AuditHandler.class);
 
-    private final ObjectMapper mapper = new ObjectMapper();
     private final AuditJdbcSink jdbcSink;
     private final AuditGcsJsonlSink gcsSink;
 
@@ -29,29 +31,56 @@ public class AuditHandler {
     @Value("${audit.strict:true}")
     private boolean strict;
 
+    @Value("${audit.db.max-en-vuelo:2000}")
+    private int dbMaxEnVuelo;
+
+    @Value("${audit.db.timeout-ms:10000}")
+    private long dbTimeoutMs;
+
+    @Value("${audit.jsonl.max-en-vuelo:2000}")
+    private int gcsMaxEnVuelo;
+
+    @Value("${audit.jsonl.timeout-ms:5000}")
+    private long gcsTimeoutMs;
+
+    @Value("${audit.latencias.log-cada-ms:60000}")
+    private long logLatenciasCadaMs;
+
+    private DestinoAuditoria destinoDb;
+    private DestinoAuditoria destinoGcs;
+    private final AtomicLong ultimoLogLatencias = new AtomicLong(System.currentTimeMillis());
+
     public AuditHandler(AuditJdbcSink jdbcSink, AuditGcsJsonlSink gcsSink) {
         this.jdbcSink = jdbcSink;
         this.gcsSink = gcsSink;
     }
 
-    public void handle(PubsubMessage message) throws Exception {
-        String rawJson = message.getData().toStringUtf8();
-        JsonNode root = mapper.readTree(rawJson);
-
-        // ✅ 1) Tomar eventId también de attributes (porque tu publisher lo manda ahí)
-        String eventId = firstNonBlank(
-                message.getAttributesMap().get("event_id"),
-                message.getAttributesMap().get("txId"),
-                message.getAttributesMap().get("id"),
-                pickFirstText(root, "event_id", "txId", "id", "transaction_id")
-        );
-
-        // ✅ 2) Tipo también puede venir por attributes
-        String tipo = firstNonBlank(
-                message.getAttributesMap().get("tipo"),
-                message.getAttributesMap().get("type"),
-                pickFirstText(root, "tipo", "type")
-        );
+    @PostConstruct
+    public void iniciar() {
+        destinoDb = new DestinoAuditoria("db", dbMaxEnVuelo, dbTimeoutMs);
+        destinoGcs = new DestinoAuditoria("gcs", gcsMaxEnVuelo, gcsTimeoutMs);
+    }
+
+    /**
+     * Lo inválido (sin event_id) falla aquí mismo con IllegalArgumentException. Lo demás se resuelve en
+     * el future: se completa cuando la BD hizo commit del lote y la línea quedó en el JSONL, y falla
+     * según audit.strict igual que antes. No bloquea: el ACK lo da quien lo recibe al completarse.
+     */
+    public CompletableFuture<Void> handle(PubsubMessage message) throws Exception {
+        // ✅ 1) eventId y tipo: attributes primero (tu publisher los manda ahí), luego el cuerpo.
+        //    Una sola pasada con JsonParser (EventoCodec), sin armar el árbol JsonNode.
+        //    Confirmación binaria (content-type): se convierte a su JSON equivalente para BD y JSONL
+        String rawJson;
+        EventoCodec.Campos campos;
+        if (FormatoBinario.esBinario(message.getAttributesMap())) {
+            rawJson = FormatoBinario.leerConfirmacion(message.getData()).json();
+            campos = EventoCodec.leer(rawJson, message.getAttributesMap());
+        } else {
+            rawJson = message.getData().toStringUtf8();
+            campos = EventoCodec.leer(message);
+        }
+        String eventId = campos.eventId();
+        String tipo = campos.tipo();
 
         if (eventId == null || eventId.isBlank()) {
             throw new IllegalArgumentException("El evento no trae event_id/txId/id");
@@ -60,46 +89,54 @@ public class AuditHandler {
             tipo = "DESCONOCIDO";
         }
 
-        // ✅ JSONL: una línea por evento con metadatos de Pub/Sub
-        ObjectNode jsonl = mapper.createObjectNode();
-        jsonl.put("received_at", OffsetDateTime.now().toString());
-        jsonl.put("pubsub_message_id", message.getMessageId());
-        jsonl.put("event_id", eventId);
-        jsonl.put("tipo", tipo);
-        jsonl.set("payload", root);
-
-        String jsonlLine = mapper.writeValueAsString(jsonl);
-
-        boolean okDb = true;
-        boolean okGcs = true;
-        Exception dbEx = null;
-        Exception gcsEx = null;
-
-        if (writeDb) {
-            try {
-                jdbcSink.save(eventId, tipo + "_CONFIRMADA", rawJson);
-            } catch (Exception e) {
-                okDb = false;
-                dbEx = e;
-                log.error("❌ Falló escritura en BD auditoria (event_id={})", eventId, e);
-            }
-        }
+        // ✅ JSONL: una línea por evento con metadatos de Pub/Sub (payload crudo, sin re-serializar)
+        OffsetDateTime recibidoEn = OffsetDateTime.now();
+        String jsonlLine = EventoCodec.lineaJsonl(
+                recibidoEn.toString(), message.getMessageId(), eventId, tipo, rawJson);
+
+        // ✅ Los dos destinos a la vez: BD por lotes (AuditJdbcSink) y JSONL (EscritorSegmentos), cada uno
+        //    con su cupo y su timeout (DestinoAuditoria): uno lento no frena ni tumba al otro
+        String tipoBd = tipo + "_CONFIRMADA";
+        long recibidoEnMs = recibidoEn.toInstant().toEpochMilli();
+        CompletableFuture<Throwable> db = writeDb
+                ? destinoDb.enviar(() -> jdbcSink.guardar(eventId, tipoBd, rawJson)).handle((v, e) -> causa(e))
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Throwable> gcs = writeGcs
+                ? destinoGcs.enviar(() -> gcsSink.appendJsonl(jsonlLine, recibidoEnMs)).handle((v, e) -> causa(e))
+                : CompletableFuture.completedFuture(null);
+
+        return db.thenCombine(gcs, (dbEx, gcsEx) -> {
+            logLatenciasSiToca();
+            decidir(eventId, dbEx, gcsEx);
+            return null;
+        });
+    }
+
+    /** Cada log-cada-ms: latencias por destino del último intervalo, para ver cuál es el cuello de botella. */
+    private void logLatenciasSiToca() {
+        if (logLatenciasCadaMs <= 0) return;
+        long ahora = System.currentTimeMillis();
+        long ultimo = ultimoLogLatencias.get();
+        if (ahora - ultimo < logLatenciasCadaMs || !ultimoLogLatencias.compareAndSet(ultimo, ahora)) return;
+        log.info("ℹ Latencias de auditoría: db={}, gcs={}", destinoDb.estadisticas(), destinoGcs.estadisticas());
+    }
+
+    private void decidir(String eventId, Throwable dbEx, Throwable gcsEx) {
+        boolean okDb = dbEx == null;
+        boolean okGcs = gcsEx == null;
 
-        if (writeGcs) {
-            try {
-                gcsSink.appendJsonl(jsonlLine);
-            } catch (Exception e) {
-                okGcs = false;
-                gcsEx = e;
-                // ✅ mensaje correcto (tu profe pide auditoria/YYYY-MM-DD.jsonl)
-                log.error("❌ Falló escritura en GCS auditoria/YYYY-MM-DD.jsonl (event_id={})", eventId, e);
-            }
+        if (!okDb) {
+            log.error("❌ Falló escritura en BD auditoria (event_id={})", eventId, dbEx);
+        }
+        if (!okGcs) {
+            // ✅ mensaje correcto (tu profe pide auditoria/YYYY-MM-DD.jsonl)
+            log.error("❌ Falló escritura en GCS auditoria/YYYY-MM-DD.jsonl (event_id={})", eventId, gcsEx);
         }
 
         // ✅ Modo estricto => si falla algún destino habilitado => reintento
         if (strict) {
-            if (writeDb && !okDb) throw dbEx;
-            if (writeGcs && !okGcs) throw gcsEx;
+            if (writeDb && !okDb) throw new CompletionException(dbEx);
+            if (writeGcs && !okGcs) throw new CompletionException(gcsEx);
         }
 
         // ✅ No estricto => con que uno funcione, se acepta
@@ -112,22 +149,14 @@ public class AuditHandler {
         throw new RuntimeException("Falló BD y GCS para event_id=" + eventId);
     }
 
-    private String pickFirstText(JsonNode root, String... keys) {
-        for (String k : keys) {
-            JsonNode n = root.get(k);
-            if (n != null && !n.isNull() && n.isValueNode()) {
-                String v = n.asText();
-                if (v != null && !v.isBlank()) return v;
-            }
+    @PreDestroy
+    public void detener() {
+        if (destinoDb != null) {
+            log.info("ℹ Latencias de auditoría: db={}, gcs={}", destinoDb.estadisticas(), destinoGcs.estadisticas());
         }
-        return null;
     }
 
-    private String firstNonBlank(String... values) {
-        if (values == null) return null;
-        for (String v : values) {
-            if (v != null && !v.isBlank()) return v;
-        }
-        return null;
+    private static Throwable causa(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
     }
 }
@@ -1,33 +1,306 @@
 package mx.ipn.escom.auditservice;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.io.StringReader;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Escritura a la tabla auditoria por lotes, con un solo hilo y una sola conexión por lote.
+ * - guardar() solo encola y regresa un future que se completa cuando el lote hizo commit: el
+ *   mensaje se confirma (ACK) después de eso, nunca antes.
+ * - El hilo junta lo encolado (esperando a lo más ventana-ms a que llegue más, hasta max-lote) y lo
+ *   escribe con UN INSERT ... SELECT FROM unnest(arrays): la búsqueda de transacciones.id es un solo
+ *   LEFT JOIN por lote en vez de una subconsulta por evento.
+ * - Desde copy-desde eventos usa COPY (CopyManager de pgjdbc) a una tabla temporal y de ahí el mismo
+ *   INSERT ... SELECT con JOIN, en una transacción.
+ * Si el lote falla por un dato (SQLState 22/23, p. ej. un payload que no es JSON válido) se reintenta
+ * evento por evento para que solo falle el malo; cualquier otro error falla el lote completo.
+ */
 @Component
 public class AuditJdbcSink {
 
+    private static final Logger log = LoggerFactory.getLogger(AuditJdbcSink.class);
+
+    private static final long ESPERA_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final String SQL_UNNEST =
+            "INSERT INTO auditoria (transaccion_id, tipo_evento, payload_json) " +
+                    "SELECT t.id, v.tipo_evento, v.payload_json::jsonb " +
+                    "FROM unnest(?::text[], ?::text[], ?::text[]) WITH ORDINALITY AS v(event_id, tipo_evento, payload_json, n) " +
+                    "LEFT JOIN transacciones t ON t.event_id = v.event_id " +
+                    "ORDER BY v.n";
+
+    private static final String SQL_TEMPORAL =
+            "CREATE TEMP TABLE IF NOT EXISTS auditoria_lote " +
+                    "(n int, event_id text, tipo_evento text, payload_json text) ON COMMIT DELETE ROWS";
+
+    private static final String SQL_COPY =
+            "COPY auditoria_lote (n, event_id, tipo_evento, payload_json) FROM STDIN WITH (FORMAT csv)";
+
+    private static final String SQL_DESDE_TEMPORAL =
+            "INSERT INTO auditoria (transaccion_id, tipo_evento, payload_json) " +
+                    "SELECT t.id, l.tipo_evento, l.payload_json::jsonb " +
+                    "FROM auditoria_lote l " +
+                    "LEFT JOIN transacciones t ON t.event_id = l.event_id " +
+                    "ORDER BY l.n";
+
     private final DataSource dataSource;
+    private final int maxLote;
+    private final long ventanaNanos;
+    private final int copyDesde;
 
-    public AuditJdbcSink(DataSource dataSource) {
+    private final ConcurrentLinkedQueue<Pendiente> cola = new ConcurrentLinkedQueue<>();
+    private Thread hilo;
+    private volatile boolean activo = true;
+    private volatile boolean dormido;
+
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder eventos = new LongAdder();
+    private final LongAdder lotesCopy = new LongAdder();
+    private final LongAdder lotesUnoPorUno = new LongAdder();
+    private final LongAdder fallidos = new LongAdder();
+    private final AtomicInteger maxTamanoLote = new AtomicInteger();
+
+    public AuditJdbcSink(DataSource dataSource,
+                         @Value("${audit.db.max-lote:2000}") int maxLote,
+                         @Value("${audit.db.ventana-ms:2}") long ventanaMs,
+                         @Value("${audit.db.copy-desde:500}") int copyDesde) {
         this.dataSource = dataSource;
+        this.maxLote = Math.max(1, maxLote);
+        this.ventanaNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ventanaMs));
+        this.copyDesde = copyDesde <= 0 ? Integer.MAX_VALUE : copyDesde;
     }
 
-    public void save(String eventId, String tipoEvento, String payloadJson) throws Exception {
+    @PostConstruct
+    public void iniciar() {
+        hilo = new Thread(this::ciclo, "audit-db-lotes");
+        hilo.setDaemon(false);
+        hilo.start();
+        log.info("✔ AuditJdbcSink por lotes. maxLote={}, ventanaMs={}, copyDesde={}",
+                maxLote, TimeUnit.NANOSECONDS.toMillis(ventanaNanos), copyDesde);
+    }
 
-        String sql =
-                "INSERT INTO auditoria (transaccion_id, tipo_evento, payload_json) " +
-                        "VALUES ((SELECT id FROM transacciones WHERE event_id = ?), ?, ?::jsonb)";
+    /** Encola el evento; el future se completa al hacer commit su lote (o falla con la causa). */
+    public CompletableFuture<Void> guardar(String eventId, String tipoEvento, String payloadJson) {
+        Pendiente p = new Pendiente(eventId, tipoEvento, payloadJson, new CompletableFuture<>());
+        if (!activo) {
+            p.listo().completeExceptionally(new IllegalStateException("AuditJdbcSink cerrado"));
+            return p.listo();
+        }
+        cola.add(p);
+        // Primero encolar y luego leer 'dormido' (el hilo hace lo inverso): no se pierde el despertar
+        if (dormido) LockSupport.unpark(hilo);
+        return p.listo();
+    }
 
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+    public Map<String, Object> estadisticas() {
+        long l = lotes.sum();
+        long e = eventos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lotes", l);
+        stats.put("eventos", e);
+        stats.put("eventosPorLote", l == 0 ? 0.0 : (double) e / l);
+        stats.put("maxTamanoLote", maxTamanoLote.get());
+        stats.put("lotesCopy", lotesCopy.sum());
+        stats.put("lotesUnoPorUno", lotesUnoPorUno.sum());
+        stats.put("fallidos", fallidos.sum());
+        stats.put("enCola", cola.size());
+        return stats;
+    }
 
-            ps.setString(1, eventId);
-            ps.setString(2, tipoEvento);
-            ps.setString(3, payloadJson);
+    private void ciclo() {
+        List<Pendiente> lote = new ArrayList<>();
+        while (true) {
+            drenar(lote);
+
+            if (lote.isEmpty()) {
+                if (!activo) break;
+                dormido = true;
+                if (cola.isEmpty()) LockSupport.parkNanos(this, ESPERA_MAX_NANOS);
+                dormido = false;
+                continue;
+            }
+
+            // Lote chico: una ventana corta para que se sumen los mensajes que vienen en camino
+            if (lote.size() < maxLote && ventanaNanos > 0 && activo) {
+                LockSupport.parkNanos(this, ventanaNanos);
+                drenar(lote);
+            }
+
+            escribir(lote);
+            lote.clear();
+        }
+
+        Pendiente x;
+        while ((x = cola.poll()) != null) x.listo().completeExceptionally(new IllegalStateException("AuditJdbcSink cerrado"));
+    }
+
+    private void drenar(List<Pendiente> lote) {
+        Pendiente p;
+        while (lote.size() < maxLote && (p = cola.poll()) != null) lote.add(p);
+    }
+
+    private void escribir(List<Pendiente> lote) {
+        boolean copy = lote.size() >= copyDesde;
+        try (Connection conn = dataSource.getConnection()) {
+            if (copy) {
+                copiar(conn, lote);
+                lotesCopy.increment();
+            } else {
+                insertar(conn, lote);
+            }
+            lotes.increment();
+            eventos.add(lote.size());
+            maxTamanoLote.accumulateAndGet(lote.size(), Math::max);
+            for (Pendiente p : lote) p.listo().complete(null);
+        } catch (Exception e) {
+            if (lote.size() > 1 && esErrorDeDatos(e)) {
+                log.warn("⚠ Lote de {} eventos rechazado por un dato ({}); se reintenta uno por uno", lote.size(), e.getMessage());
+                unoPorUno(lote);
+                return;
+            }
+            log.error("❌ Falló lote de {} eventos en BD auditoria", lote.size(), e);
+            fallidos.add(lote.size());
+            for (Pendiente p : lote) p.listo().completeExceptionally(e);
+        }
+    }
+
+    private void unoPorUno(List<Pendiente> lote) {
+        lotesUnoPorUno.increment();
+        try (Connection conn = dataSource.getConnection()) {
+            for (Pendiente p : lote) {
+                try {
+                    insertar(conn, List.of(p));
+                    eventos.increment();
+                    p.listo().complete(null);
+                } catch (SQLException e) {
+                    log.error("❌ Falló escritura en BD auditoria (event_id={})", p.eventId(), e);
+                    fallidos.increment();
+                    p.listo().completeExceptionally(e);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("❌ Sin conexión para reintentar {} eventos de auditoría", lote.size(), e);
+            fallidos.add(lote.size());
+            for (Pendiente p : lote) p.listo().completeExceptionally(e);
+        }
+    }
+
+    /** Un INSERT ... SELECT FROM unnest con autocommit: una sentencia, un commit, un JOIN. */
+    private void insertar(Connection conn, List<Pendiente> lote) throws SQLException {
+        String[] ids = new String[lote.size()];
+        String[] tipos = new String[lote.size()];
+        String[] payloads = new String[lote.size()];
+        for (int i = 0; i < lote.size(); i++) {
+            Pendiente p = lote.get(i);
+            ids[i] = p.eventId();
+            tipos[i] = p.tipoEvento();
+            payloads[i] = p.payloadJson();
+        }
+
+        Array a1 = conn.createArrayOf("text", ids);
+        Array a2 = conn.createArrayOf("text", tipos);
+        Array a3 = conn.createArrayOf("text", payloads);
+        try (PreparedStatement ps = conn.prepareStatement(SQL_UNNEST)) {
+            ps.setArray(1, a1);
+            ps.setArray(2, a2);
+            ps.setArray(3, a3);
             ps.executeUpdate();
+        } finally {
+            a1.free();
+            a2.free();
+            a3.free();
+        }
+    }
+
+    /** COPY a la tabla temporal de la sesión y de ahí a auditoria, en una transacción. */
+    private void copiar(Connection conn, List<Pendiente> lote) throws Exception {
+        conn.setAutoCommit(false);
+        try {
+            try (Statement st = conn.createStatement()) {
+                st.execute(SQL_TEMPORAL);
+            }
+            conn.unwrap(PGConnection.class).getCopyAPI().copyIn(SQL_COPY, new StringReader(csv(lote)));
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate(SQL_DESDE_TEMPORAL);
+            }
+            conn.commit();
+        } catch (Exception e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static String csv(List<Pendiente> lote) {
+        StringBuilder sb = new StringBuilder(lote.size() * 256);
+        for (int i = 0; i < lote.size(); i++) {
+            Pendiente p = lote.get(i);
+            sb.append(i).append(',');
+            campo(sb, p.eventId()).append(',');
+            campo(sb, p.tipoEvento()).append(',');
+            campo(sb, p.payloadJson()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Campo CSV siempre entre comillas: comas, saltos de línea y comillas del JSON no rompen la fila. */
+    private static StringBuilder campo(StringBuilder sb, String valor) {
+        sb.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
         }
+        return sb.append('"');
     }
+
+    /** Clase 22 (dato inválido) o 23 (restricción): el problema es una fila, no la BD. */
+    private static boolean esErrorDeDatos(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && sql.getSQLState() != null
+                    && (sql.getSQLState().startsWith("22") || sql.getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void detener() {
+        activo = false;
+        if (hilo == null) return;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("ℹ AuditJdbcSink detenido: {}", estadisticas());
+    }
+
+    private record Pendiente(String eventId, String tipoEvento, String payloadJson, CompletableFuture<Void> listo) {}
 }
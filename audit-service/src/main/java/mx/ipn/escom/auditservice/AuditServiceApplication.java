@@ -3,7 +3,8 @@ package mx.ipn.escom.auditservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@SpringBootApplication
+// mx.ipn.escom.mensajeria: el bean Mensajeria del módulo compartido
+@SpringBootApplication(scanBasePackages = {"mx.ipn.escom.auditservice", "mx.ipn.escom.mensajeria"})
 public class AuditServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(AuditServiceApplication.class, args);
@@ -1,25 +1,20 @@
 package mx.ipn.escom.auditservice;
 
-import com.google.api.core.ApiService;
-import com.google.api.gax.core.FixedExecutorProvider;
 import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.cloud.pubsub.v1.MessageReceiver;
-import com.google.cloud.pubsub.v1.Subscriber;
-import com.google.pubsub.v1.ProjectSubscriptionName;
 import com.google.pubsub.v1.PubsubMessage;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.Broker;
+import mx.ipn.escom.mensajeria.Mensajeria;
+import mx.ipn.escom.mensajeria.PoliticaReintentos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
 
 @Component
 public class AuditSubscriber {
@@ -32,99 +27,55 @@ public class AuditSubscriber {
     @Value("${gcp.pubsub.audit-subscription-id}")
     private String subscriptionId;
 
-    private final AuditHandler handler;
+    // Solo lo usa el broker local (en Pub/Sub la suscripción ya sabe su tópico)
+    @Value("${gcp.pubsub.confirmed-topic-id:tx-confirmed}")
+    private String topicId;
 
-    private Subscriber subscriber;
+    private final AuditHandler handler;
+    private final PoliticaReintentos politica;
+    private final Mensajeria mensajeria;
 
-    // ✅ FixedExecutorProvider.create(...) requiere ScheduledExecutorService
-    private ScheduledExecutorService subscriberExecutor;
-    private ExecutorService listenerExecutor;
+    private Broker.Suscripcion suscripcion;
 
-    public AuditSubscriber(AuditHandler handler) {
+    public AuditSubscriber(AuditHandler handler, PoliticaReintentos politica, Mensajeria mensajeria) {
         this.handler = handler;
+        this.politica = politica;
+        this.mensajeria = mensajeria;
     }
 
     @PostConstruct
-    public void iniciar() {
-        ProjectSubscriptionName subName = ProjectSubscriptionName.of(projectId, subscriptionId);
-
+    public void iniciar() throws IOException {
         MessageReceiver receiver = (PubsubMessage message, AckReplyConsumer consumer) -> {
             try {
-                handler.handle(message);
-                consumer.ack();
+                // ✅ ACK solo cuando el lote de BD hizo commit (y el JSONL quedó escrito); el receiver no espera
+                handler.handle(message).whenComplete((v, error) -> {
+                    if (error == null) {
+                        politica.exito(message);
+                        consumer.ack();
+                        return;
+                    }
+                    Throwable causa = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    politica.fallo(message, consumer, causa);
+                });
             } catch (IllegalArgumentException bad) {
                 // ✅ Mensaje inválido/ruidoso: ACK para evitar NACK infinito
                 log.warn("⚠ Mensaje inválido, ACK para evitar loop. msgId={}, error={}",
                         message.getMessageId(), bad.getMessage());
                 consumer.ack();
             } catch (Exception e) {
-                // ✅ Fallo real (BD/GCS): NACK para reintento
-                log.error("❌ Error AuditService -> NACK (reintento). msgId={}", message.getMessageId(), e);
-                consumer.nack();
+                // ✅ Fallo real (BD/GCS): reintento con backoff y, tras N intentos, dead-letter
+                politica.fallo(message, consumer, e);
             }
         };
 
-        // ✅ ScheduledThreadPool para cumplir con FixedExecutorProvider
-        subscriberExecutor = Executors.newScheduledThreadPool(
-                4,
-                new NamedNonDaemonFactory("pubsub-audit")
-        );
-
-        listenerExecutor = Executors.newSingleThreadExecutor(
-                new NamedNonDaemonFactory("pubsub-audit-listener")
-        );
-
-        subscriber = Subscriber.newBuilder(subName, receiver)
-                .setExecutorProvider(FixedExecutorProvider.create(subscriberExecutor))
-                .build();
-
-        subscriber.addListener(new ApiService.Listener() {
-            @Override
-            public void failed(ApiService.State from, Throwable failure) {
-                log.error("❌ AuditSubscriber falló. Estado previo: {}", from, failure);
-            }
-        }, listenerExecutor);
-
-        subscriber.startAsync().awaitRunning();
+        suscripcion = mensajeria.suscribir(topicId, subscriptionId, receiver,
+                Broker.ConfigSuscripcion.basica("pubsub-audit", 4));
         log.info("✔ AuditService escuchando subscription={} (project={})", subscriptionId, projectId);
     }
 
     @PreDestroy
     public void detener() {
-        try {
-            if (subscriber != null) {
-                subscriber.stopAsync();
-                subscriber.awaitTerminated(10, TimeUnit.SECONDS);
-            }
-        } catch (Exception ignored) {}
-
-        shutdown(subscriberExecutor);
-        shutdown(listenerExecutor);
-    }
-
-    private void shutdown(ExecutorService exec) {
-        if (exec == null) return;
-        exec.shutdown();
-        try {
-            if (!exec.awaitTermination(5, TimeUnit.SECONDS)) exec.shutdownNow();
-        } catch (Exception e) {
-            exec.shutdownNow();
-        }
-    }
-
-    private static class NamedNonDaemonFactory implements ThreadFactory {
-        private final String base;
-        private final AtomicInteger n = new AtomicInteger(1);
-
-        NamedNonDaemonFactory(String base) {
-            this.base = base;
-        }
-
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
-            t.setDaemon(false);
-            return t;
-        }
+        if (suscripcion != null) suscripcion.detener();
     }
 }
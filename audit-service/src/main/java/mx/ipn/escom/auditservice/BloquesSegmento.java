@@ -0,0 +1,214 @@
+package mx.ipn.escom.auditservice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Escribe un segmento como bloques independientes de ~bloqueBytes (sin comprimir) y lleva su índice.
+ * - GZIP: cada bloque es un miembro gzip completo. Los miembros concatenados siguen siendo un gzip
+ *   válido (gunzip, GZIPInputStream), y cada uno se puede descomprimir solo a partir de su offset.
+ *   Al final de cada lote se hace SYNC_FLUSH: las líneas quedan en el archivo sin cerrar el bloque
+ *   y el diccionario se conserva, así que la compresión casi no empeora.
+ * - NINGUNA: JSONL plano; los bloques son rangos de bytes que empiezan y terminan en una línea.
+ * Los bloques solo se cortan al final de una línea. Lo usa solo el hilo escritor.
+ */
+final class BloquesSegmento {
+
+    enum Compresion {
+        NINGUNA(".jsonl", null),
+        GZIP(".jsonl.gz", "gzip");
+
+        /** Extensión local del segmento; en GCS el objeto del día siempre es .jsonl. */
+        final String ext;
+        /** Content-Encoding del objeto: con gzip, GCS lo entrega descomprimido a quien no lo acepte. */
+        final String contentEncoding;
+
+        Compresion(String ext, String contentEncoding) {
+            this.ext = ext;
+            this.contentEncoding = contentEncoding;
+        }
+
+        static Compresion de(String valor) {
+            return switch (valor.trim().toLowerCase()) {
+                case "gzip" -> GZIP;
+                case "ninguna" -> NINGUNA;
+                default -> throw new IllegalArgumentException(
+                        "audit.segmentos.compresion debe ser gzip o ninguna: " + valor);
+            };
+        }
+    }
+
+    /** Entrada del índice: received_at mínimo/máximo (epoch ms) y rango de bytes del bloque. */
+    record Bloque(long tsMin, long tsMax, long offset, long bytes, int lineas) {
+
+        private static final JsonFactory JSON = new JsonFactory();
+
+        Bloque desplazado(long base) {
+            return new Bloque(tsMin, tsMax, offset + base, bytes, lineas);
+        }
+
+        String json() {
+            return "{\"ts_min\":" + tsMin + ",\"ts_max\":" + tsMax + ",\"offset\":" + offset
+                    + ",\"bytes\":" + bytes + ",\"lineas\":" + lineas + "}";
+        }
+
+        static Bloque deJson(String linea) throws IOException {
+            long[] v = new long[5];
+            try (JsonParser p = JSON.createParser(linea)) {
+                if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Índice inválido: " + linea);
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String clave = p.currentName();
+                    p.nextToken();
+                    switch (clave) {
+                        case "ts_min" -> v[0] = p.getLongValue();
+                        case "ts_max" -> v[1] = p.getLongValue();
+                        case "offset" -> v[2] = p.getLongValue();
+                        case "bytes" -> v[3] = p.getLongValue();
+                        case "lineas" -> v[4] = p.getLongValue();
+                        default -> p.skipChildren();
+                    }
+                }
+            }
+            return new Bloque(v[0], v[1], v[2], v[3], (int) v[4]);
+        }
+    }
+
+    // Sin FNAME ni MTIME: el mismo contenido produce los mismos bytes
+    private static final byte[] VACIO = new byte[0];
+    private static final byte[] CABECERA_GZIP = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Compresion compresion;
+    private final int bloqueBytes;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer salida = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer pie = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final List<Bloque> bloques = new ArrayList<>();
+    private FileChannel canal;
+    private long posicion;
+
+    private boolean abierto;
+    private long inicioBloque;
+    private long crudoBloque;
+    private long tsMin = Long.MAX_VALUE;
+    private long tsMax = Long.MIN_VALUE;
+    private int lineas;
+
+    BloquesSegmento(Compresion compresion, int bloqueBytes) {
+        this.compresion = compresion;
+        this.bloqueBytes = Math.max(1, bloqueBytes);
+    }
+
+    /** Empieza un segmento; descarta lo que hubiera quedado de uno que falló al cerrarse. */
+    void abrir(FileChannel c) {
+        canal = c;
+        posicion = 0;
+        bloques.clear();
+        deflater.reset();
+        crc.reset();
+        abierto = false;
+        crudoBloque = 0;
+        lineas = 0;
+        tsMin = Long.MAX_VALUE;
+        tsMax = Long.MIN_VALUE;
+    }
+
+    /** Bytes UTF-8 de una o varias líneas (la última puede ir a medias); consume todo el buffer. */
+    void escribir(ByteBuffer datos) throws IOException {
+        if (!datos.hasRemaining()) return;
+        if (!abierto) iniciarBloque();
+        crudoBloque += datos.remaining();
+
+        if (compresion == Compresion.NINGUNA) {
+            while (datos.hasRemaining()) posicion += canal.write(datos);
+            return;
+        }
+        crc.update(datos.duplicate());
+        deflater.setInput(datos);
+        while (!deflater.needsInput()) desinflar(Deflater.NO_FLUSH);
+        // El Deflater se queda con el ByteBuffer: soltarlo antes de que el escritor lo reutilice
+        deflater.setInput(VACIO);
+    }
+
+    /** Una línea terminó (sus bytes ya pasaron o pasarán por escribir antes del próximo corte). */
+    void linea(long ts) {
+        lineas++;
+        tsMin = Math.min(tsMin, ts);
+        tsMax = Math.max(tsMax, ts);
+    }
+
+    /** true si con 'pendientes' bytes más el bloque llega a su tamaño y conviene cortarlo. */
+    boolean lleno(int pendientes) {
+        return crudoBloque + pendientes >= bloqueBytes;
+    }
+
+    /** Fin de lote: lo escrito queda en el archivo aunque el bloque siga abierto. */
+    void sincronizar() throws IOException {
+        if (compresion == Compresion.GZIP && abierto) desinflar(Deflater.SYNC_FLUSH);
+    }
+
+    void terminarBloque() throws IOException {
+        if (!abierto) return;
+        if (compresion == Compresion.GZIP) {
+            deflater.finish();
+            while (!deflater.finished()) desinflar(Deflater.NO_FLUSH);
+            pie.clear();
+            pie.putInt((int) crc.getValue()).putInt((int) crudoBloque).flip();
+            while (pie.hasRemaining()) posicion += canal.write(pie);
+            deflater.reset();
+            crc.reset();
+        }
+        bloques.add(new Bloque(tsMin, tsMax, inicioBloque, posicion - inicioBloque, lineas));
+        abierto = false;
+        crudoBloque = 0;
+        lineas = 0;
+        tsMin = Long.MAX_VALUE;
+        tsMax = Long.MIN_VALUE;
+    }
+
+    /** Cierra el último bloque y regresa el índice del segmento (offsets relativos al archivo). */
+    List<Bloque> cerrar() throws IOException {
+        terminarBloque();
+        canal = null;
+        return List.copyOf(bloques);
+    }
+
+    /** Bytes escritos al archivo del segmento. */
+    long posicion() {
+        return posicion;
+    }
+
+    void liberar() {
+        deflater.end();
+    }
+
+    private void iniciarBloque() throws IOException {
+        inicioBloque = posicion;
+        abierto = true;
+        if (compresion == Compresion.GZIP) {
+            ByteBuffer cabecera = ByteBuffer.wrap(CABECERA_GZIP);
+            while (cabecera.hasRemaining()) posicion += canal.write(cabecera);
+        }
+    }
+
+    private void desinflar(int flush) throws IOException {
+        int n;
+        do {
+            salida.clear();
+            n = deflater.deflate(salida, flush);
+            salida.flip();
+            while (salida.hasRemaining()) posicion += canal.write(salida);
+        } while (n == salida.capacity());
+    }
+}
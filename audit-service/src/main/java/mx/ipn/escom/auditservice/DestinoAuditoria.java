@@ -0,0 +1,153 @@
+package mx.ipn.escom.auditservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Un destino de auditoría (BD o JSONL) visto desde AuditHandler. Cada sink ya escribe en su propio
+ * hilo con su propia cola; aquí se le pone a cada uno:
+ * - cupo: a lo más max-en-vuelo escrituras sin terminar; pasado eso se rechaza en el acto
+ *   (RejectedExecutionException) en vez de dejar crecer la cola del sink sin límite.
+ * - timeout: el future que ve el handler falla con TimeoutException a los timeout-ms. La escritura
+ *   sigue su curso y libera su cupo al terminar; si al final sí quedó, el reintento la duplica
+ *   (igual que cualquier reintento de auditoría).
+ * - histograma de la latencia real de cada escritura (hasta que el sink la termina), por intervalo.
+ */
+final class DestinoAuditoria {
+
+    private final String nombre;
+    private final int maxEnVuelo;
+    private final long timeoutMs;
+    private final Semaphore cupo;
+
+    private final Histograma latencias = new Histograma();
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder fallidos = new LongAdder();
+
+    DestinoAuditoria(String nombre, int maxEnVuelo, long timeoutMs) {
+        this.nombre = nombre;
+        this.maxEnVuelo = Math.max(1, maxEnVuelo);
+        this.timeoutMs = timeoutMs;
+        this.cupo = new Semaphore(this.maxEnVuelo);
+    }
+
+    /** Lanza la escritura si hay cupo; el future falla por rechazo, timeout o error del sink. */
+    CompletableFuture<Void> enviar(Supplier<CompletableFuture<Void>> escritura) {
+        if (!cupo.tryAcquire()) {
+            rechazados.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    nombre + ": " + maxEnVuelo + " escrituras en vuelo"));
+        }
+
+        long inicio = System.nanoTime();
+        CompletableFuture<Void> f;
+        try {
+            f = escritura.get();
+        } catch (RuntimeException e) {
+            cupo.release();
+            fallidos.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        f.whenComplete((v, e) -> {
+            cupo.release();
+            latencias.registrar(System.nanoTime() - inicio);
+            if (e != null) fallidos.increment();
+        });
+        if (timeoutMs <= 0) return f;
+
+        // copy(): el timeout no debe completar el future del sink (la latencia es la de la escritura)
+        return f.copy().orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((v, e) -> {
+            Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (causa instanceof TimeoutException) timeouts.increment();
+        });
+    }
+
+    /** Contadores acumulados y latencias del intervalo desde la llamada anterior. */
+    Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enVuelo", maxEnVuelo - cupo.availablePermits());
+        stats.put("rechazados", rechazados.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("fallidos", fallidos.sum());
+        stats.putAll(latencias.corte());
+        return stats;
+    }
+
+    /**
+     * Histograma logarítmico en microsegundos: 4 cubetas por potencia de dos (error < 25%), sin locks.
+     * Los percentiles reportan el límite superior de la cubeta.
+     */
+    static final class Histograma {
+
+        private static final int CUBETAS = 160;
+
+        private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+        private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+        void registrar(long nanos) {
+            long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            cuentas.incrementAndGet(Math.min(CUBETAS - 1, cubeta(micros)));
+            maximo.accumulate(micros);
+        }
+
+        /** n, p50/p90/p99/max en ms de lo registrado desde el corte anterior, y reinicia. */
+        Map<String, Object> corte() {
+            long[] c = new long[CUBETAS];
+            long n = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                c[i] = cuentas.getAndSet(i, 0);
+                n += c[i];
+            }
+            long max = maximo.getThenReset();
+
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("n", n);
+            r.put("p50Ms", ms(Math.min(max, percentil(c, n, 0.50))));
+            r.put("p90Ms", ms(Math.min(max, percentil(c, n, 0.90))));
+            r.put("p99Ms", ms(Math.min(max, percentil(c, n, 0.99))));
+            r.put("maxMs", ms(max));
+            return r;
+        }
+
+        static int cubeta(long micros) {
+            if (micros < 4) return (int) micros;
+            int e = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) ((micros >> (e - 2)) & 3);
+            return 4 + (e - 2) * 4 + sub;
+        }
+
+        static long limiteSuperior(int cubeta) {
+            if (cubeta < 4) return cubeta;
+            int e = (cubeta - 4) / 4 + 2;
+            int sub = (cubeta - 4) % 4;
+            return ((4L + sub + 1) << (e - 2)) - 1;
+        }
+
+        private static long percentil(long[] c, long n, double p) {
+            if (n == 0) return 0;
+            long objetivo = (long) Math.ceil(p * n);
+            long acumulado = 0;
+            for (int i = 0; i < c.length; i++) {
+                acumulado += c[i];
+                if (acumulado >= objetivo) return limiteSuperior(i);
+            }
+            return limiteSuperior(c.length - 1);
+        }
+
+        private static double ms(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package mx.ipn.escom.auditservice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Append de líneas JSONL a segmentos {dir}/{YYYY-MM-DD}/{epochMs}.jsonl[.gz] con UN FileChannel abierto.
+ * - Los appenders solo encolan (ConcurrentLinkedQueue, sin locks ni monitores) y esperan su future.
+ * - Un hilo escritor drena la cola, codifica a UTF-8 en un ByteBuffer directo reutilizable y escribe
+ *   todo lo que juntó con uno o pocos write. La fecha se calcula una vez por lote, no por línea.
+ * - fsync (force) en grupo: al juntar fsync-bytes desde el último o al pasar fsync-ms.
+ * esperarFsync=false: el future se completa al quedar la línea en el archivo (page cache), lo mismo
+ * que garantizaba Files.writeString; true: hasta que un force la cubre.
+ * Segmentos: el abierto lleva .parcial; al juntar max-bytes, pasar max-edad o cambiar de día se
+ * escribe su índice ({epochMs}.idx), se hace fsync, se cierra y se le quita el .parcial. Desde ese
+ * momento es inmutable y lo sube SubidorSegmentos sin tocar nada de este hilo. El nombre (epoch ms
+ * al abrir, 13 dígitos) ordena los segmentos de un día también como texto.
+ * Dentro del segmento las líneas van en bloques de ~bloque-bytes, comprimidos o no (BloquesSegmento).
+ */
+final class EscritorSegmentos {
+
+    private static final Logger log = LoggerFactory.getLogger(EscritorSegmentos.class);
+
+    private static final int CAPACIDAD_BUFFER = 256 * 1024;
+    private static final int MAX_LOTE = 4096;
+    private static final long ESPERA_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    static final String EXT = ".jsonl";
+    static final String PARCIAL = ".parcial";
+    static final String IDX = ".idx";
+
+    private final Path dir;
+    private final long fsyncNanos;
+    private final long fsyncBytes;
+    private final boolean esperarFsync;
+    private final long maxBytesSegmento;
+    private final long maxEdadNanos;
+    private final BloquesSegmento.Compresion compresion;
+    private final Clock reloj;
+
+    private final ConcurrentLinkedQueue<Pendiente> cola = new ConcurrentLinkedQueue<>();
+    private final Thread hilo;
+    private volatile boolean activo = true;
+    private volatile boolean dormido;
+
+    // Solo los toca el hilo escritor
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(CAPACIDAD_BUFFER);
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final BloquesSegmento bloques;
+    private final List<Pendiente> sinFsync = new ArrayList<>();
+    private LocalDate dia;
+    private Path segmento;
+    private FileChannel canal;
+    private long aperturaSegmento;
+    private long ultimoNombre;
+    private long bytesSinFsync;
+    private long ultimoFsync = System.nanoTime();
+
+    private final LongAdder lineas = new LongAdder();
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder bytesCrudos = new LongAdder();
+    private final LongAdder segmentos = new LongAdder();
+
+    EscritorSegmentos(Path dir, long fsyncMs, long fsyncBytes, boolean esperarFsync,
+                      long maxBytesSegmento, long maxEdadMs,
+                      BloquesSegmento.Compresion compresion, int bloqueBytes, Clock reloj) {
+        this.dir = dir;
+        this.fsyncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fsyncMs));
+        this.fsyncBytes = Math.max(1, fsyncBytes);
+        this.esperarFsync = esperarFsync;
+        this.maxBytesSegmento = Math.max(1, maxBytesSegmento);
+        this.maxEdadNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxEdadMs));
+        this.compresion = compresion;
+        this.reloj = reloj;
+        this.bloques = new BloquesSegmento(compresion, bloqueBytes);
+        recuperar();
+        this.hilo = new Thread(this::ciclo, "audit-jsonl-escritor");
+        hilo.setDaemon(false);
+        hilo.start();
+    }
+
+    /** La línea sin salto final y su received_at (epoch ms, para el índice); el future falla si no se pudo escribir. */
+    CompletableFuture<Void> agregar(String linea, long ts) {
+        Pendiente p = new Pendiente(linea, ts, new CompletableFuture<>());
+        if (!activo) {
+            p.listo().completeExceptionally(new IllegalStateException("Escritor de auditoría cerrado"));
+            return p.listo();
+        }
+        cola.add(p);
+        // Primero encolar y luego leer 'dormido' (el escritor hace lo inverso): no se pierde el despertar
+        if (dormido) LockSupport.unpark(hilo);
+        return p.listo();
+    }
+
+    Map<String, Object> estadisticas() {
+        long l = lotes.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lineas", lineas.sum());
+        stats.put("lotes", l);
+        stats.put("lineasPorLote", l == 0 ? 0.0 : (double) lineas.sum() / l);
+        stats.put("fsyncs", fsyncs.sum());
+        stats.put("bytes", bytes.sum());
+        stats.put("bytesCrudos", bytesCrudos.sum());
+        stats.put("compresion", compresion);
+        stats.put("segmentos", segmentos.sum());
+        return stats;
+    }
+
+    private void ciclo() {
+        List<Pendiente> lote = new ArrayList<>();
+        while (true) {
+            Pendiente p;
+            while (lote.size() < MAX_LOTE && (p = cola.poll()) != null) lote.add(p);
+
+            if (lote.isEmpty()) {
+                fsyncSiToca();
+                if (canal != null && vencido()) cerrarSegmento();
+                if (!activo) break;
+                dormido = true;
+                if (cola.isEmpty()) LockSupport.parkNanos(this, espera());
+                dormido = false;
+                continue;
+            }
+
+            try {
+                escribir(lote);
+            } catch (Exception e) {
+                log.error("❌ Falló escritura de {} líneas de auditoría", lote.size(), e);
+                for (Pendiente x : lote) x.listo().completeExceptionally(e);
+            }
+            lote.clear();
+        }
+
+        if (canal != null) cerrarSegmento();
+        bloques.liberar();
+        Pendiente x;
+        while ((x = cola.poll()) != null) x.listo().completeExceptionally(new IllegalStateException("Escritor de auditoría cerrado"));
+    }
+
+    private void escribir(List<Pendiente> lote) throws IOException {
+        LocalDate hoy = LocalDate.now(reloj);
+        if (canal != null && (!hoy.equals(dia) || vencido())) cerrarSegmento();
+        if (canal == null) abrir(hoy);
+
+        long antes = bloques.posicion();
+        buf.clear();
+        for (Pendiente p : lote) {
+            codificar(p.linea(), p.ts());
+        }
+        vaciar();
+        bloques.sincronizar();
+        long escritos = bloques.posicion() - antes;
+
+        lineas.add(lote.size());
+        lotes.increment();
+        bytes.add(escritos);
+        bytesSinFsync += escritos;
+
+        if (esperarFsync) {
+            sinFsync.addAll(lote);
+        } else {
+            for (Pendiente p : lote) p.listo().complete(null);
+        }
+        fsyncSiToca();
+        if (bloques.posicion() >= maxBytesSegmento) cerrarSegmento();
+    }
+
+    /** Codifica linea + '\n' en buf (vaciándolo si se llena) y corta el bloque si ya juntó su tamaño. */
+    private void codificar(String linea, long ts) throws IOException {
+        CharBuffer in = CharBuffer.wrap(linea);
+        utf8.reset();
+        while (true) {
+            CoderResult r = utf8.encode(in, buf, true);
+            if (r.isOverflow()) {
+                vaciar();
+                continue;
+            }
+            if (r.isError()) r.throwException();
+            break;
+        }
+        while (utf8.flush(buf).isOverflow()) vaciar();
+
+        if (!buf.hasRemaining()) vaciar();
+        buf.put((byte) '\n');
+
+        bloques.linea(ts);
+        if (bloques.lleno(buf.position())) {
+            vaciar();
+            bloques.terminarBloque();
+        }
+    }
+
+    private void vaciar() throws IOException {
+        buf.flip();
+        bytesCrudos.add(buf.remaining());
+        bloques.escribir(buf);
+        buf.clear();
+    }
+
+    private void fsyncSiToca() {
+        if (canal == null || bytesSinFsync == 0) return;
+        if (bytesSinFsync < fsyncBytes && System.nanoTime() - ultimoFsync < fsyncNanos) return;
+        try {
+            forzar();
+        } catch (IOException e) {
+            log.error("❌ Falló fsync de {}", segmento, e);
+            fallarSinFsync(e);
+        }
+    }
+
+    private void fallarSinFsync(Exception e) {
+        for (Pendiente p : sinFsync) p.listo().completeExceptionally(e);
+        sinFsync.clear();
+    }
+
+    private void forzar() throws IOException {
+        canal.force(false);
+        fsyncs.increment();
+        bytesSinFsync = 0;
+        ultimoFsync = System.nanoTime();
+        for (Pendiente p : sinFsync) p.listo().complete(null);
+        sinFsync.clear();
+    }
+
+    /** Segmento nuevo al llegar la primera línea: en horas sin tráfico no se crean archivos vacíos. */
+    private void abrir(LocalDate hoy) throws IOException {
+        Path d = dir.resolve(hoy.toString());
+        Files.createDirectories(d);
+        // Creciente aunque se abran dos en el mismo milisegundo
+        ultimoNombre = Math.max(reloj.millis(), ultimoNombre + 1);
+        segmento = d.resolve(String.format("%013d", ultimoNombre) + compresion.ext + PARCIAL);
+        canal = FileChannel.open(segmento, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        bloques.abrir(canal);
+        dia = hoy;
+        aperturaSegmento = System.nanoTime();
+    }
+
+    private boolean vencido() {
+        return System.nanoTime() - aperturaSegmento >= maxEdadNanos;
+    }
+
+    /** Último bloque, índice, fsync, cierre y rename sin .parcial: a partir de aquí ya se puede subir. */
+    private void cerrarSegmento() {
+        Path datos = terminado(segmento);
+        try {
+            List<BloquesSegmento.Bloque> indice = bloques.cerrar();
+            forzar();
+            escribirIndice(indice(datos), indice);
+            canal.close();
+            Files.move(segmento, datos, StandardCopyOption.ATOMIC_MOVE);
+            segmentos.increment();
+        } catch (IOException e) {
+            // Se queda como .parcial; recuperar() lo cierra al siguiente arranque
+            log.error("❌ No se pudo cerrar el segmento {}", segmento, e);
+            fallarSinFsync(e);
+            try {
+                canal.close();
+            } catch (IOException ignorada) {
+                // ya se reportó el error original
+            }
+        }
+        canal = null;
+        segmento = null;
+    }
+
+    private long espera() {
+        long resta = canal == null ? ESPERA_MAX_NANOS : maxEdadNanos - (System.nanoTime() - aperturaSegmento);
+        if (bytesSinFsync > 0) resta = Math.min(resta, fsyncNanos - (System.nanoTime() - ultimoFsync));
+        return Math.max(1, Math.min(resta, ESPERA_MAX_NANOS));
+    }
+
+    private static Path terminado(Path parcial) {
+        String n = parcial.getFileName().toString();
+        return parcial.resolveSibling(n.substring(0, n.length() - PARCIAL.length()));
+    }
+
+    /** {base}.idx junto a los datos del segmento. */
+    static Path indice(Path datos) {
+        String n = datos.getFileName().toString();
+        return datos.resolveSibling(n.substring(0, n.indexOf(EXT)) + IDX);
+    }
+
+    private static void escribirIndice(Path p, List<BloquesSegmento.Bloque> indice) throws IOException {
+        StringBuilder sb = new StringBuilder(indice.size() * 96);
+        for (BloquesSegmento.Bloque b : indice) sb.append(b.json()).append('\n');
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer datos = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (datos.hasRemaining()) ch.write(datos);
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Segmentos que quedaron abiertos por una caída: se releen hasta la última línea completa y se
+     * reescriben cerrados, con su índice, para que se suban. Las líneas cortadas nunca se confirmaron
+     * (su future no se completó).
+     */
+    private void recuperar() {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> dias = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path d : dias) {
+                try (DirectoryStream<Path> parciales = Files.newDirectoryStream(d, "*" + PARCIAL)) {
+                    for (Path p : parciales) {
+                        log.warn("⚠ Segmento sin cerrar recuperado: {} ({} líneas)", p, recuperar(p));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("❌ No se pudieron recuperar segmentos en {}", dir, e);
+        }
+    }
+
+    private int recuperar(Path parcial) throws IOException {
+        String nombre = parcial.getFileName().toString();
+        byte[] datos = nombre.endsWith(BloquesSegmento.Compresion.GZIP.ext + PARCIAL)
+                ? descomprimirLoQueSePueda(parcial)
+                : Files.readAllBytes(parcial);
+
+        int fin = datos.length;
+        while (fin > 0 && datos[fin - 1] != '\n') fin--;
+        if (fin == 0) {
+            Files.delete(parcial);
+            return 0;
+        }
+
+        // Se reescribe en el formato configurado ahora, aunque el .parcial fuera del otro
+        String base = nombre.substring(0, nombre.indexOf(EXT));
+        Path tmp = parcial.resolveSibling(base + ".tmp");
+        Path destino = parcial.resolveSibling(base + compresion.ext);
+        int n = 0;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            bloques.abrir(ch);
+            int inicio = 0;
+            for (int i = 0; i < fin; i++) {
+                if (datos[i] != '\n') continue;
+                bloques.escribir(ByteBuffer.wrap(datos, inicio, i + 1 - inicio));
+                bloques.linea(EventoCodec.recibidoEnMs(new String(datos, inicio, i - inicio, StandardCharsets.UTF_8)));
+                if (bloques.lleno(0)) bloques.terminarBloque();
+                inicio = i + 1;
+                n++;
+            }
+            escribirIndice(indice(destino), bloques.cerrar());
+            ch.force(false);
+        }
+        Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(parcial);
+        return n;
+    }
+
+    /** Todo lo que se alcanzó a escribir: el último bloque de un .parcial no tiene pie gzip. */
+    private static byte[] descomprimirLoQueSePueda(Path p) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(p))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            // Fin inesperado del miembro abierto: lo que ya salió en 'out' es válido
+        }
+        return out.toByteArray();
+    }
+
+    /** Deja de aceptar líneas, escribe lo encolado y cierra el segmento abierto. */
+    void cerrar() {
+        activo = false;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Pendiente(String linea, long ts, CompletableFuture<Void> listo) {}
+}
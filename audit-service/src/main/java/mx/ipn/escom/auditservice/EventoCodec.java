@@ -0,0 +1,160 @@
+package mx.ipn.escom.auditservice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.pubsub.v1.PubsubMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.time.OffsetDateTime;
+import java.util.Map;
+
+/**
+ * Lee un mensaje de tx-confirmed en una sola pasada con JsonParser, sin JsonNode intermedio.
+ * Cada alias de la raíz se resuelve en un switch a (campo, prioridad), igual que antes con
+ * pickFirstText/firstNonBlank:
+ * - eventId: attr event_id, attr txId, attr id, event_id, txId, id, transaction_id
+ * - tipo:    attr tipo, attr type, tipo, type
+ * Solo valores escalares de la raíz; vacíos cuentan como ausentes.
+ * El payload debe ser un solo objeto JSON: vacío, otra raíz o algo después de la raíz es inválido.
+ * También arma la línea JSONL con el payload tal cual (writeRawValue), sin volver a serializarlo.
+ */
+public final class EventoCodec {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final int EVENT_ID = 0;
+    private static final int TIPO = 1;
+
+    private static final int SIN_VALOR = Integer.MAX_VALUE;
+
+    /** eventId/tipo resueltos; null si no vinieron. */
+    public record Campos(String eventId, String tipo) {}
+
+    private EventoCodec() {}
+
+    /** IOException si el JSON es inválido, está vacío, la raíz no es un objeto o sobra algo después. */
+    public static Campos leer(PubsubMessage message) throws IOException {
+        try (InputStream in = message.getData().newInput();
+             JsonParser p = JSON.createParser(in)) {
+            return leer(p, message.getAttributesMap());
+        }
+    }
+
+    /** Igual, pero sobre un JSON ya en texto (la confirmación binaria convertida por FormatoBinario). */
+    public static Campos leer(String json, Map<String, String> attrs) throws IOException {
+        try (JsonParser p = JSON.createParser(json)) {
+            return leer(p, attrs);
+        }
+    }
+
+    private static Campos leer(JsonParser p, Map<String, String> attrs) throws IOException {
+        String[] textos = new String[2];
+        int[] prioridades = {SIN_VALOR, SIN_VALOR};
+
+        JsonToken raiz = p.nextToken();
+        if (raiz != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, raiz == null ? "Payload vacío" : "La raíz del payload no es un objeto: " + raiz);
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String clave = p.currentName();
+            JsonToken valor = p.nextToken();
+
+            if (valor == JsonToken.START_OBJECT || valor == JsonToken.START_ARRAY) {
+                p.skipChildren();
+                continue;
+            }
+
+            int campo;
+            int prioridad;
+            switch (clave) {
+                case "event_id" -> { campo = EVENT_ID; prioridad = 0; }
+                case "txId" -> { campo = EVENT_ID; prioridad = 1; }
+                case "id" -> { campo = EVENT_ID; prioridad = 2; }
+                case "transaction_id" -> { campo = EVENT_ID; prioridad = 3; }
+                case "tipo" -> { campo = TIPO; prioridad = 0; }
+                case "type" -> { campo = TIPO; prioridad = 1; }
+                default -> { continue; }
+            }
+
+            // Con claves repetidas gana la última, como en readTree
+            if (valor == JsonToken.VALUE_NULL || prioridad > prioridades[campo] || esBlanco(p)) continue;
+            textos[campo] = p.getText();
+            prioridades[campo] = prioridad;
+        }
+        // lineaJsonl copia el payload crudo: nada después del objeto (otro JSON, basura)
+        if (p.nextToken() != null) {
+            throw new JsonParseException(p, "Contenido después del objeto raíz del payload");
+        }
+
+        return new Campos(
+                primero(attrs.get("event_id"), attrs.get("txId"), attrs.get("id"), textos[EVENT_ID]),
+                primero(attrs.get("tipo"), attrs.get("type"), textos[TIPO])
+        );
+    }
+
+    /**
+     * Línea JSONL {received_at, pubsub_message_id, event_id, tipo, payload}. rawJson debe ser el texto
+     * que aceptó leer (un solo objeto, sin nada después), así que va crudo salvo que traiga saltos de
+     * línea (JSON con formato), que romperían el JSONL: en ese caso se copia token por token, compactado.
+     */
+    public static String lineaJsonl(String recibidoEn, String messageId, String eventId, String tipo, String rawJson) throws IOException {
+        StringWriter out = new StringWriter(rawJson.length() + 160);
+        try (JsonGenerator g = JSON.createGenerator(out)) {
+            g.writeStartObject();
+            g.writeStringField("received_at", recibidoEn);
+            g.writeStringField("pubsub_message_id", messageId);
+            g.writeStringField("event_id", eventId);
+            g.writeStringField("tipo", tipo);
+            g.writeFieldName("payload");
+            if (rawJson.indexOf('\n') < 0 && rawJson.indexOf('\r') < 0) {
+                g.writeRawValue(rawJson.strip());
+            } else {
+                try (JsonParser p = JSON.createParser(rawJson)) {
+                    p.nextToken();
+                    g.copyCurrentStructure(p);
+                }
+            }
+            g.writeEndObject();
+        }
+        return out.toString();
+    }
+
+    /** received_at de una línea JSONL de lineaJsonl en epoch ms; 0 si no lo trae o no se puede leer. */
+    public static long recibidoEnMs(String lineaJsonl) {
+        try (JsonParser p = JSON.createParser(lineaJsonl)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return 0;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String clave = p.currentName();
+                p.nextToken();
+                if (clave.equals("received_at")) {
+                    return OffsetDateTime.parse(p.getText()).toInstant().toEpochMilli();
+                }
+                p.skipChildren();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Línea corrupta: cae en el bloque sin afectar la búsqueda por rango de las demás
+        }
+        return 0;
+    }
+
+    private static boolean esBlanco(JsonParser p) throws IOException {
+        char[] buf = p.getTextCharacters();
+        int fin = p.getTextOffset() + p.getTextLength();
+        for (int i = p.getTextOffset(); i < fin; i++) {
+            if (!Character.isWhitespace(buf[i])) return false;
+        }
+        return true;
+    }
+
+    private static String primero(String... valores) {
+        for (String v : valores) {
+            if (v != null && !v.isBlank()) return v;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+package mx.ipn.escom.auditservice;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lee del objeto del día solo los bloques que pueden tener eventos con received_at en [desde, hasta),
+ * usando el índice {prefix}/YYYY-MM-DD.jsonl.idx que arma SubidorSegmentos. Cada bloque guarda su
+ * received_at mínimo y máximo, así que los eventos que llegaron desordenados no se pierden. Con gzip
+ * pide los bytes tal cual (sin transcodificar) y descomprime solo esos bloques.
+ * Lo que se subió antes de que existiera el índice no se puede buscar por tiempo.
+ *
+ *   java -Dloader.main=mx.ipn.escom.auditservice.LectorAuditoria \
+ *        -cp target/audit-service-0.0.1-SNAPSHOT.jar org.springframework.boot.loader.launch.PropertiesLauncher \
+ *        sfd-pfinal auditoria 2026-10-16T10:00:00-06:00 2026-10-16T10:05:00-06:00
+ */
+public final class LectorAuditoria {
+
+    private final Storage storage;
+    private final String bucket;
+    private final String prefix;
+
+    public LectorAuditoria(Storage storage, String bucket, String prefix) {
+        this.storage = storage;
+        this.bucket = bucket;
+        this.prefix = prefix;
+    }
+
+    /** Líneas JSONL del día con received_at en [desde, hasta), en el orden del archivo. */
+    public List<String> leer(LocalDate dia, Instant desde, Instant hasta) throws IOException {
+        BlobId idDia = BlobId.of(bucket, prefix + "/" + dia + EscritorSegmentos.EXT);
+        Blob datos = storage.get(idDia);
+        Blob indice = storage.get(BlobId.of(bucket, idDia.getName() + EscritorSegmentos.IDX));
+        if (datos == null || indice == null) return List.of();
+
+        boolean gzip = "gzip".equals(datos.getContentEncoding());
+        long d = desde.toEpochMilli();
+        long h = hasta.toEpochMilli();
+        List<String> lineas = new ArrayList<>();
+
+        // Bloques seguidos que caen en el rango se piden con una sola lectura
+        long inicio = -1;
+        long fin = -1;
+        for (String entrada : new String(indice.getContent(), StandardCharsets.UTF_8).split("\n")) {
+            if (entrada.isBlank()) continue;
+            BloquesSegmento.Bloque b = BloquesSegmento.Bloque.deJson(entrada);
+            if (b.tsMax() < d || b.tsMin() >= h) continue;
+            if (b.offset() == fin) {
+                fin += b.bytes();
+                continue;
+            }
+            if (inicio >= 0) filtrar(rango(idDia, inicio, fin), gzip, d, h, lineas);
+            inicio = b.offset();
+            fin = b.offset() + b.bytes();
+        }
+        if (inicio >= 0) filtrar(rango(idDia, inicio, fin), gzip, d, h, lineas);
+        return lineas;
+    }
+
+    private byte[] rango(BlobId id, long inicio, long fin) throws IOException {
+        // Los bytes guardados: con Content-Encoding gzip, sin esto GCS los descomprimiría y los offsets no cuadran
+        try (ReadChannel rc = storage.reader(id, Storage.BlobSourceOption.shouldReturnRawInputStream(true))) {
+            rc.seek(inicio);
+            ByteBuffer b = ByteBuffer.allocate(Math.toIntExact(fin - inicio));
+            while (b.hasRemaining() && rc.read(b) >= 0) {
+                // hasta juntar el rango completo
+            }
+            return Arrays.copyOf(b.array(), b.position());
+        }
+    }
+
+    private static void filtrar(byte[] bloques, boolean gzip, long desde, long hasta, List<String> salida) throws IOException {
+        InputStream in = new ByteArrayInputStream(bloques);
+        // Miembros gzip concatenados: GZIPInputStream los lee seguidos
+        if (gzip) in = new GZIPInputStream(in);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = r.readLine()) != null) {
+                long ts = EventoCodec.recibidoEnMs(linea);
+                if (ts >= desde && ts < hasta) salida.add(linea);
+            }
+        }
+    }
+
+    /** bucket prefix desde hasta (ISO-8601 con offset); los días se cuentan en la zona de la máquina. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Uso: LectorAuditoria <bucket> <prefix> <desde> <hasta>");
+            System.exit(2);
+        }
+        Instant desde = OffsetDateTime.parse(args[2]).toInstant();
+        Instant hasta = OffsetDateTime.parse(args[3]).toInstant();
+        ZoneId zona = ZoneId.systemDefault();
+
+        LectorAuditoria lector = new LectorAuditoria(StorageOptions.getDefaultInstance().getService(), args[0], args[1]);
+        for (LocalDate dia = LocalDate.ofInstant(desde, zona); !dia.isAfter(LocalDate.ofInstant(hasta, zona)); dia = dia.plusDays(1)) {
+            for (String linea : lector.leer(dia, desde, hasta)) System.out.println(linea);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package mx.ipn.escom.auditservice;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Sube a GCS los segmentos cerrados de EscritorSegmentos, cada uno UNA sola vez, y los junta en el
+ * objeto del día {prefix}/YYYY-MM-DD.jsonl con compose (del lado de GCS, sin volver a subir bytes).
+ * - Solo lee segmentos ya cerrados (inmutables): no comparte ningún lock con el escritor, así que
+ *   la red nunca frena los appends.
+ * - Subido: {n}.jsonl[.gz] -> {n}.jsonl[.gz].subido; el objeto queda en {prefix}/segmentos/YYYY-MM-DD/{escritor}/.
+ * - compose acepta hasta 32 fuentes: [objeto del día, segmentos...] -> objeto del día, en tandas.
+ *   El último segmento incluido se guarda en la metadata del objeto del día (ultimo_segmento.{escritor}):
+ *   si el proceso cae entre el compose y el borrado de los segmentos, al reintentar no se duplican líneas.
+ * - Varias réplicas componen en el mismo objeto del día. Los nombres epoch ms de dos réplicas se
+ *   intercalan o coinciden, así que cada una es un escritor con su id (idEscritor): sus segmentos y
+ *   su ultimo_segmento no se mezclan con los de otra. Cada compose lleva precondición de generación;
+ *   si otra réplica compuso en medio, falla y el siguiente ciclo vuelve a leer el objeto.
+ * - Con gzip el objeto del día son miembros gzip concatenados (Content-Encoding: gzip, así que GCS
+ *   lo entrega como JSONL plano a quien no pida gzip). Su índice {prefix}/YYYY-MM-DD.jsonl.idx se arma
+ *   igual: por tanda se sube un pedazo con los offsets recorridos al tamaño que tenía el objeto del
+ *   día y se compone detrás del índice anterior. LectorAuditoria lo usa para leer por rango de tiempo.
+ * Lo usa un solo hilo (el flusher de AuditGcsJsonlSink); no es thread-safe.
+ */
+final class SubidorSegmentos {
+
+    private static final Logger log = LoggerFactory.getLogger(SubidorSegmentos.class);
+
+    static final String SUBIDO = ".subido";
+    static final String METADATA_ULTIMO = "ultimo_segmento";
+    static final String ARCHIVO_ESCRITOR = ".escritor";
+    static final String METADATA_BYTES = "bytes_compuestos";
+
+    private static final int MAX_FUENTES_COMPOSE = 32;
+    private static final String CONTENT_TYPE = "application/x-ndjson";
+
+    enum Composicion {
+        /** En cada ciclo: el objeto del día va unos segundos atrás, como cuando se resubía completo. */
+        CONTINUA,
+        /** Solo días terminados; mientras tanto las líneas están en {prefix}/segmentos/. */
+        FIN_DE_DIA,
+        /** Nunca: quedan solo los segmentos. */
+        NINGUNA;
+
+        static Composicion de(String valor) {
+            return switch (valor.trim().toLowerCase()) {
+                case "continua" -> CONTINUA;
+                case "fin-de-dia" -> FIN_DE_DIA;
+                case "ninguna" -> NINGUNA;
+                default -> throw new IllegalArgumentException(
+                        "audit.segmentos.componer debe ser continua, fin-de-dia o ninguna: " + valor);
+            };
+        }
+    }
+
+    private final Storage storage;
+    private final String bucket;
+    private final String prefix;
+    private final Path dir;
+    private final String escritor;
+    private final Composicion composicion;
+    private final BloquesSegmento.Compresion compresion;
+    private final Clock reloj;
+
+    // Días cuyo objeto ya existía con otro Content-Encoding (se avisa una vez)
+    private final Set<LocalDate> sinComponer = new HashSet<>();
+
+    private final LongAdder segmentosSubidos = new LongAdder();
+    private final LongAdder bytesSubidos = new LongAdder();
+    private final LongAdder composiciones = new LongAdder();
+    private final LongAdder segmentosCompuestos = new LongAdder();
+
+    SubidorSegmentos(Storage storage, String bucket, String prefix, Path dir, String escritor,
+                     Composicion composicion, BloquesSegmento.Compresion compresion, Clock reloj) {
+        this.storage = storage;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.dir = dir;
+        this.escritor = escritor;
+        this.composicion = composicion;
+        this.compresion = compresion;
+        this.reloj = reloj;
+    }
+
+    /**
+     * Sube lo pendiente y compone según el modo, día por día en orden. Si algo falla se corta ahí
+     * y el siguiente ciclo retoma desde el mismo punto. Regresa cuántos segmentos subió.
+     */
+    int ciclo() throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        LocalDate hoy = LocalDate.now(reloj);
+
+        int subidos = 0;
+        for (Path d : dias()) {
+            LocalDate dia = LocalDate.parse(d.getFileName().toString());
+            subidos += subir(dia, segmentos(d));
+
+            boolean terminado = dia.isBefore(hoy);
+            if (composicion == Composicion.CONTINUA || (composicion == Composicion.FIN_DE_DIA && terminado)) {
+                componer(dia, segmentos(d));
+            }
+            if (terminado) borrarSiVacio(d);
+        }
+        return subidos;
+    }
+
+    Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("escritor", escritor);
+        stats.put("composicion", composicion);
+        stats.put("compresion", compresion);
+        stats.put("segmentosSubidos", segmentosSubidos.sum());
+        stats.put("bytesSubidos", bytesSubidos.sum());
+        stats.put("composiciones", composiciones.sum());
+        stats.put("segmentosCompuestos", segmentosCompuestos.sum());
+        return stats;
+    }
+
+    String objetoDia(LocalDate dia) {
+        return prefix + "/" + dia + EscritorSegmentos.EXT;
+    }
+
+    String objetoIndiceDia(LocalDate dia) {
+        return objetoDia(dia) + EscritorSegmentos.IDX;
+    }
+
+    String objetoSegmento(LocalDate dia, String segmento) {
+        return prefix + "/segmentos/" + dia + "/" + escritor + "/" + segmento + compresion.ext;
+    }
+
+    /** Índice de un segmento (sin composición) o de la tanda que termina en él (mientras se compone). */
+    String objetoIndiceSegmento(LocalDate dia, String segmento) {
+        return prefix + "/segmentos/" + dia + "/" + escritor + "/" + segmento + EscritorSegmentos.IDX;
+    }
+
+    /** Llave de metadata con el último segmento de este escritor ya compuesto. */
+    String metadataUltimo() {
+        return METADATA_ULTIMO + "." + escritor;
+    }
+
+    /**
+     * Id de este escritor: audit.segmentos.escritor-id si viene, si no el guardado en
+     * {local-dir}/.escritor, que se crea la primera vez con el hostname y un sufijo al azar. Va con el
+     * directorio local y no con el proceso: lo pendiente de ahí se sube con el mismo id al reiniciar,
+     * y dos réplicas en la misma máquina (cada una con su local-dir) no chocan.
+     */
+    static String idEscritor(Path dir, String configurado) throws IOException {
+        if (configurado != null && !configurado.isBlank()) return validarId(configurado.trim());
+
+        Path archivo = dir.resolve(ARCHIVO_ESCRITOR);
+        if (Files.exists(archivo)) return validarId(Files.readString(archivo, StandardCharsets.UTF_8).trim());
+
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "audit";
+        }
+        String id = host.toLowerCase().replaceAll("[^a-z0-9-]+", "-").replaceAll("^-+|-+$", "");
+        if (id.length() > 40) id = id.substring(0, 40);
+        id = (id.isEmpty() ? "audit" : id) + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffL);
+        Files.writeString(archivo, id, StandardCharsets.UTF_8);
+        return id;
+    }
+
+    private static String validarId(String id) {
+        if (!id.matches("[A-Za-z0-9_-]{1,63}")) {
+            throw new IllegalArgumentException("audit.segmentos.escritor-id debe ser [A-Za-z0-9_-], 1 a 63: " + id);
+        }
+        return id;
+    }
+
+    private int subir(LocalDate dia, List<Path> segs) throws IOException {
+        int n = 0;
+        for (Path p : segs) {
+            String archivo = p.getFileName().toString();
+            // *.parcial sigue abierto; *.subido ya se subió
+            if (!archivo.endsWith(compresion.ext)) continue;
+
+            String nombre = objetoSegmento(dia, base(archivo));
+            // Un segmento pesa a lo más audit.segmentos.max-bytes (más un lote), no el día completo
+            byte[] datos = Files.readAllBytes(p);
+            storage.create(infoDatos(BlobId.of(bucket, nombre)).build(), datos);
+
+            if (composicion == Composicion.NINGUNA) {
+                // Sin objeto del día el índice viaja con cada segmento, con sus offsets tal cual
+                Path idx = EscritorSegmentos.indice(p);
+                if (Files.exists(idx)) {
+                    storage.create(BlobInfo.newBuilder(BlobId.of(bucket, objetoIndiceSegmento(dia, base(archivo))))
+                            .setContentType(CONTENT_TYPE).build(), Files.readAllBytes(idx));
+                    Files.delete(idx);
+                }
+                Files.delete(p);
+            } else {
+                Files.move(p, p.resolveSibling(archivo + SUBIDO), StandardCopyOption.ATOMIC_MOVE);
+            }
+            segmentosSubidos.increment();
+            bytesSubidos.add(datos.length);
+            n++;
+            log.info("☁️ Segmento subido a GCS: gs://{}/{} ({} bytes)", bucket, nombre, datos.length);
+        }
+        return n;
+    }
+
+    private void componer(LocalDate dia, List<Path> segs) throws IOException {
+        BlobId idDia = BlobId.of(bucket, objetoDia(dia));
+        Blob actual = storage.get(idDia);
+        if (actual != null && !Objects.equals(actual.getContentEncoding(), compresion.contentEncoding)) {
+            // Objeto de antes de cambiar audit.segmentos.compresion: mezclarlos lo dejaría ilegible
+            if (sinComponer.add(dia)) {
+                log.warn("⚠ gs://{}/{} tiene Content-Encoding={} y los segmentos {}; se quedan en segmentos/",
+                        bucket, idDia.getName(), actual.getContentEncoding(), compresion);
+            }
+            return;
+        }
+
+        String ultimo = ultimoCompuesto(actual);
+        Blob indice = storage.get(BlobId.of(bucket, objetoIndiceDia(dia)));
+        if (ultimoCompuesto(indice).compareTo(ultimo) < 0) {
+            // Caída entre el compose de los datos y el del índice: falta el pedazo de la última tanda
+            indice = componerIndice(dia, indice, ultimo);
+        }
+
+        List<Path> listos = new ArrayList<>();
+        for (Path p : segs) {
+            String archivo = p.getFileName().toString();
+            // Se respeta el orden: el primero sin subir (o el abierto) corta la tanda
+            if (!archivo.endsWith(SUBIDO)) break;
+            if (base(archivo).compareTo(ultimo) <= 0) {
+                // Ya está en el objeto del día (ultimo es de este escritor): caída entre el compose y la limpieza
+                limpiar(dia, p);
+                continue;
+            }
+            listos.add(p);
+        }
+
+        int i = 0;
+        while (i < listos.size()) {
+            int cupo = actual == null ? MAX_FUENTES_COMPOSE : MAX_FUENTES_COMPOSE - 1;
+            List<Path> tanda = listos.subList(i, Math.min(listos.size(), i + cupo));
+            String hasta = base(tanda.get(tanda.size() - 1).getFileName().toString());
+
+            // El pedazo de índice va antes que los datos: si el proceso cae después, se recupera arriba
+            long base = tamano(actual);
+            storage.create(BlobInfo.newBuilder(BlobId.of(bucket, objetoIndiceSegmento(dia, hasta)))
+                    .setContentType(CONTENT_TYPE).build(), indiceTanda(tanda, base));
+            long total = base;
+            for (Path p : tanda) total += Files.size(p);
+
+            Storage.ComposeRequest.Builder req = Storage.ComposeRequest.newBuilder();
+            if (actual != null) req.addSource(idDia.getName());
+            for (Path p : tanda) req.addSource(objetoSegmento(dia, base(p.getFileName().toString())));
+
+            // Precondición: si otra réplica compuso desde el get, falla (412) en vez de pisar su tanda;
+            // el siguiente ciclo relee el objeto. Se conservan las llaves ultimo_segmento.* de las demás.
+            BlobId destino = actual == null ? idDia : BlobId.of(bucket, idDia.getName(), actual.getGeneration());
+            req.setTarget(infoDatos(destino)
+                    .setMetadata(metadata(actual, hasta, Map.of(METADATA_BYTES, String.valueOf(total))))
+                    .build());
+            req.setTargetOptions(actual == null
+                    ? Storage.BlobTargetOption.doesNotExist()
+                    : Storage.BlobTargetOption.generationMatch());
+
+            actual = storage.compose(req.build());
+            indice = componerIndice(dia, indice, hasta);
+            composiciones.increment();
+            segmentosCompuestos.add(tanda.size());
+            for (Path p : tanda) limpiar(dia, p);
+            i += tanda.size();
+            log.info("☁️ Compuesto gs://{}/{} hasta el segmento {} (+{})", bucket, idDia.getName(), hasta, tanda.size());
+        }
+    }
+
+    /** [índice del día, pedazo de la tanda 'hasta'] -> índice del día. */
+    private Blob componerIndice(LocalDate dia, Blob indice, String hasta) {
+        BlobId pedazo = BlobId.of(bucket, objetoIndiceSegmento(dia, hasta));
+        if (storage.get(pedazo) == null) {
+            log.warn("⚠ Falta el índice de la tanda {} de {}; esos bloques no se podrán buscar por tiempo", hasta, dia);
+            return indice;
+        }
+
+        BlobId idIndice = BlobId.of(bucket, objetoIndiceDia(dia));
+        Storage.ComposeRequest.Builder req = Storage.ComposeRequest.newBuilder();
+        if (indice != null) req.addSource(idIndice.getName());
+        req.addSource(pedazo.getName());
+        req.setTarget(BlobInfo.newBuilder(indice == null ? idIndice : BlobId.of(bucket, idIndice.getName(), indice.getGeneration()))
+                .setContentType(CONTENT_TYPE)
+                .setMetadata(metadata(indice, hasta, Map.of()))
+                .build());
+        req.setTargetOptions(indice == null
+                ? Storage.BlobTargetOption.doesNotExist()
+                : Storage.BlobTargetOption.generationMatch());
+
+        Blob nuevo = storage.compose(req.build());
+        storage.delete(pedazo);
+        return nuevo;
+    }
+
+    /** Índices locales de la tanda con los offsets recorridos a donde quedan en el objeto del día. */
+    private static byte[] indiceTanda(List<Path> tanda, long base) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Path p : tanda) {
+            Path idx = EscritorSegmentos.indice(p);
+            if (Files.exists(idx)) {
+                for (String linea : Files.readAllLines(idx, StandardCharsets.UTF_8)) {
+                    if (!linea.isBlank()) sb.append(BloquesSegmento.Bloque.deJson(linea).desplazado(base).json()).append('\n');
+                }
+            } else {
+                log.warn("⚠ Segmento sin índice: {}", p);
+            }
+            base += Files.size(p);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private BlobInfo.Builder infoDatos(BlobId id) {
+        BlobInfo.Builder b = BlobInfo.newBuilder(id).setContentType(CONTENT_TYPE);
+        if (compresion.contentEncoding != null) b.setContentEncoding(compresion.contentEncoding);
+        return b;
+    }
+
+    private void limpiar(LocalDate dia, Path p) throws IOException {
+        storage.delete(BlobId.of(bucket, objetoSegmento(dia, base(p.getFileName().toString()))));
+        Files.deleteIfExists(p);
+        Files.deleteIfExists(EscritorSegmentos.indice(p));
+    }
+
+    private static void borrarSiVacio(Path d) throws IOException {
+        try (Stream<Path> s = Files.list(d)) {
+            if (s.findAny().isPresent()) return;
+        }
+        Files.deleteIfExists(d);
+    }
+
+    private List<Path> dias() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(Files::isDirectory)
+                    .filter(p -> p.getFileName().toString().matches("\\d{4}-\\d{2}-\\d{2}"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /** Datos de segmentos (sin índices). Los nombres base tienen el mismo largo: el orden de texto es el de creación. */
+    private List<Path> segmentos(Path d) throws IOException {
+        String ext = compresion.ext;
+        try (Stream<Path> s = Files.list(d)) {
+            return s.filter(p -> {
+                        String n = p.getFileName().toString();
+                        return n.endsWith(ext) || n.endsWith(ext + SUBIDO) || n.endsWith(ext + EscritorSegmentos.PARCIAL);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /** Tamaño del objeto del día; el de la metadata es el que cuadra con los offsets del índice. */
+    private static long tamano(Blob actual) {
+        if (actual == null) return 0;
+        String v = actual.getMetadata() == null ? null : actual.getMetadata().get(METADATA_BYTES);
+        return v != null ? Long.parseLong(v) : actual.getSize();
+    }
+
+    private String ultimoCompuesto(Blob actual) {
+        if (actual == null || actual.getMetadata() == null) return "";
+        String v = actual.getMetadata().get(metadataUltimo());
+        return v == null ? "" : v;
+    }
+
+    /** Metadata del objeto compuesto: la que tenía (las llaves de otros escritores) con la de este al día. */
+    private Map<String, String> metadata(Blob anterior, String hasta, Map<String, String> extra) {
+        Map<String, String> m = new HashMap<>();
+        if (anterior != null && anterior.getMetadata() != null) {
+            anterior.getMetadata().forEach((k, v) -> {
+                if (v != null) m.put(k, v);
+            });
+        }
+        m.putAll(extra);
+        m.put(metadataUltimo(), hasta);
+        return m;
+    }
+
+    private static String base(String archivo) {
+        return archivo.substring(0, archivo.indexOf(EscritorSegmentos.EXT));
+    }
+}
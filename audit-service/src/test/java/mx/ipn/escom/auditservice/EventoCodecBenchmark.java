@@ -0,0 +1,109 @@
+package mx.ipn.escom.auditservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lo que AuditHandler hace con cada mensaje de tx-confirmed tal como lo publica
+ * PublicadorConfirmaciones (JSON con payload_original + attributes): sacar eventId/tipo y armar la
+ * línea JSONL.
+ * - arbolJsonNode: camino anterior (readTree + pickFirstText + ObjectNode + writeValueAsString)
+ * - codecStreaming: EventoCodec.leer + EventoCodec.lineaJsonl
+ *
+ * Correr con -prof gc para comparar bytes asignados por mensaje:
+ *   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=mx.ipn.escom.auditservice.EventoCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventoCodecBenchmark {
+
+    private static final String RECIBIDO_EN = "2025-10-17T00:00:00.123Z";
+
+    private final PubsubMessage mensaje = PubsubMessage.newBuilder()
+            .setMessageId("1234567890")
+            .setData(ByteString.copyFromUtf8("{\"event_id\":\"3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10\","
+                    + "\"tipo_evento\":\"TRANSACCION_CONFIRMADA\",\"tipo\":\"TRANSFERENCIA\","
+                    + "\"curp_origen\":\"GODE561231HDFRRN09\",\"curp_destino\":\"PEMA800101MDFRRR01\","
+                    + "\"monto\":1234.56,\"timestamp\":\"2025-10-17T00:00:00.123Z\","
+                    + "\"payload_original\":\"{\\\"txId\\\":\\\"3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10\\\","
+                    + "\\\"fromCurp\\\":\\\"GODE561231HDFRRN09\\\",\\\"toCurp\\\":\\\"PEMA800101MDFRRR01\\\","
+                    + "\\\"amount\\\":1234.56,\\\"timestampEpochMs\\\":1760659200000,\\\"type\\\":\\\"TRANSFER\\\"}\"}"))
+            .putAttributes("event_id", "3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10")
+            .putAttributes("tipo_evento", "TRANSACCION_CONFIRMADA")
+            .putAttributes("content-type", "application/json")
+            .build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Benchmark
+    public String arbolJsonNode() throws Exception {
+        JsonNode root = mapper.readTree(mensaje.getData().toStringUtf8());
+        Map<String, String> attrs = mensaje.getAttributesMap();
+
+        String eventId = firstNonBlank(attrs.get("event_id"), attrs.get("txId"), attrs.get("id"),
+                pickFirstText(root, "event_id", "txId", "id", "transaction_id"));
+        String tipo = firstNonBlank(attrs.get("tipo"), attrs.get("type"), pickFirstText(root, "tipo", "type"));
+
+        ObjectNode jsonl = mapper.createObjectNode();
+        jsonl.put("received_at", RECIBIDO_EN);
+        jsonl.put("pubsub_message_id", mensaje.getMessageId());
+        jsonl.put("event_id", eventId);
+        jsonl.put("tipo", tipo);
+        jsonl.set("payload", root);
+        return mapper.writeValueAsString(jsonl);
+    }
+
+    @Benchmark
+    public String codecStreaming() throws Exception {
+        EventoCodec.Campos campos = EventoCodec.leer(mensaje);
+        return EventoCodec.lineaJsonl(RECIBIDO_EN, mensaje.getMessageId(), campos.eventId(), campos.tipo(),
+                mensaje.getData().toStringUtf8());
+    }
+
+    private String pickFirstText(JsonNode root, String... keys) {
+        for (String k : keys) {
+            JsonNode n = root.get(k);
+            if (n != null && !n.isNull() && n.isValueNode()) {
+                String v = n.asText();
+                if (v != null && !v.isBlank()) return v;
+            }
+        }
+        return null;
+    }
+
+    private String firstNonBlank(String... values) {
+        for (String v : values) {
+            if (v != null && !v.isBlank()) return v;
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(EventoCodecBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
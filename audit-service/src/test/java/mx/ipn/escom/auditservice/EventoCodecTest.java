@@ -0,0 +1,95 @@
+package mx.ipn.escom.auditservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import mx.ipn.escom.mensajeria.FormatoBinario;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventoCodecTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void leeEventIdYTipoDeAttributesYCuerpo() throws Exception {
+        EventoCodec.Campos campos = EventoCodec.leer(mensaje("{\"txId\":\"tx-1\",\"type\":\"TRANSFER\",\"x\":{\"id\":\"no\"}}"));
+        assertThat(campos).isEqualTo(new EventoCodec.Campos("tx-1", "TRANSFER"));
+
+        campos = EventoCodec.leer("{\"event_id\":\"ev-1\"}", Map.of("event_id", "attr-1", "tipo", "DEPOSITO"));
+        assertThat(campos).isEqualTo(new EventoCodec.Campos("attr-1", "DEPOSITO"));
+    }
+
+    @Test
+    void leeLaConfirmacionBinariaConvertidaAJson() throws Exception {
+        // Lo que hace AuditHandler con content-type binario
+        byte[] datos = FormatoBinario.codificarConfirmacion("ev-1", "TRANSFERENCIA",
+                "GODE561231HDFRRN09", "PEMA800101MDFRRR01", new BigDecimal("1234.56"), 1_760_659_200_123L);
+        String json = FormatoBinario.leerConfirmacion(ByteString.copyFrom(datos)).json();
+
+        assertThat(EventoCodec.leer(json, Map.of())).isEqualTo(new EventoCodec.Campos("ev-1", "TRANSFERENCIA"));
+    }
+
+    @Test
+    void basuraDespuesDelObjetoSeRechaza() {
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("{\"event_id\":\"ev-1\"} basura")))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("{\"event_id\":\"ev-1\"}{\"event_id\":\"ev-2\"}")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("después del objeto raíz");
+        assertThatThrownBy(() -> EventoCodec.leer("{\"event_id\":\"ev-1\"}]", Map.of()))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void payloadVacioSeRechaza() {
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("vacío");
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("  \n ")))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void raizQueNoEsObjetoSeRechaza() {
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("[{\"event_id\":\"ev-1\"}]")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("no es un objeto");
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("\"ev-1\""))).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> EventoCodec.leer(mensaje("42"))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void payloadEnUnaLineaVaCrudo() throws Exception {
+        String raw = "{\"event_id\":\"ev-1\",\"monto\":10.50} ";
+        String linea = EventoCodec.lineaJsonl("2026-10-16T10:00:00Z", "m-1", "ev-1", "TRANSFERENCIA", raw);
+
+        // Tal cual, sin reformatear el número
+        assertThat(linea).endsWith(",\"payload\":{\"event_id\":\"ev-1\",\"monto\":10.50}}");
+        assertThat(MAPPER.readTree(linea).get("event_id").asText()).isEqualTo("ev-1");
+    }
+
+    @Test
+    void payloadConSaltosDeLineaSeCompacta() throws Exception {
+        String raw = "{\n  \"event_id\": \"ev-1\",\r\n  \"curps\": [\"A\", \"B\"]\n}\n";
+        EventoCodec.leer(raw, Map.of());
+        String linea = EventoCodec.lineaJsonl("2026-10-16T10:00:00Z", "m-1", "ev-1", "TRANSFERENCIA", raw);
+
+        assertThat(linea).doesNotContain("\n").doesNotContain("\r");
+        JsonNode payload = MAPPER.readTree(linea).get("payload");
+        assertThat(payload).isEqualTo(MAPPER.readTree(raw));
+        assertThat(EventoCodec.recibidoEnMs(linea)).isEqualTo(Instant.parse("2026-10-16T10:00:00Z").toEpochMilli());
+    }
+
+    private static PubsubMessage mensaje(String json) {
+        return PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(json)).build();
+    }
+}
@@ -0,0 +1,350 @@
+package mx.ipn.escom.auditservice;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SubidorSegmentos contra LocalStorageHelper (Storage en memoria de google-cloud-nio).
+ * El stand-in no lleva generaciones ni implementa compose: el proxy las numera, las pone en lo que
+ * regresa get y emula compose concatenando las fuentes y revisando la precondición como GCS (412).
+ * El día es fijo (reloj fijo también para EscritorSegmentos), así que no depende de la hora en que corra.
+ */
+class SubidorSegmentosTest {
+
+    private static final String BUCKET = "sfd-test";
+    private static final LocalDate DIA = LocalDate.of(2026, 10, 16);
+
+    @TempDir
+    Path dir;
+
+    private Storage real;
+    private Storage storage;
+    private final List<Integer> fuentesPorCompose = new ArrayList<>();
+    private final Map<String, Long> generaciones = new HashMap<>();
+    // Se corre una vez justo antes del siguiente compose (otra réplica componiendo en medio)
+    private Runnable antesDeComponer;
+
+    @BeforeEach
+    void preparar() {
+        real = LocalStorageHelper.getOptions().getService();
+        storage = (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[]{Storage.class},
+                (proxy, metodo, args) -> {
+                    if (metodo.getName().equals("compose")) return componer((Storage.ComposeRequest) args[0]);
+                    Object r;
+                    try {
+                        r = metodo.invoke(real, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    return r instanceof Blob b && metodo.getName().equals("get") ? conGeneracion(b) : r;
+                });
+    }
+
+    @Test
+    void subeCadaSegmentoUnaVezYLoComponeEnElObjetoDelDia() throws Exception {
+        segmento(DIA, "0000000000001.jsonl", "{\"a\":1}\n");
+        segmento(DIA, "0000000000002.jsonl", "{\"a\":2}\n");
+        segmento(DIA, "0000000000003.jsonl.parcial", "{\"a\":3}\n");
+        SubidorSegmentos subidor = subidor(SubidorSegmentos.Composicion.CONTINUA, DIA);
+
+        assertThat(subidor.ciclo()).isEqualTo(2);
+        assertThat(leer(subidor.objetoDia(DIA))).isEqualTo("{\"a\":1}\n{\"a\":2}\n");
+        assertThat(real.get(BlobId.of(BUCKET, subidor.objetoDia(DIA))).getMetadata())
+                .containsEntry(subidor.metadataUltimo(), "0000000000002");
+        // Los segmentos ya compuestos se borran en GCS y en disco; el abierto no se toca
+        assertThat(real.get(BlobId.of(BUCKET, subidor.objetoSegmento(DIA, "0000000000001")))).isNull();
+        assertThat(archivos(DIA)).containsExactly("0000000000003.jsonl.parcial");
+
+        // Nada nuevo: no se sube ni se compone otra vez
+        assertThat(subidor.ciclo()).isZero();
+        assertThat(subidor.estadisticas()).containsEntry("composiciones", 1L);
+
+        Files.move(dir.resolve(DIA.toString()).resolve("0000000000003.jsonl.parcial"),
+                dir.resolve(DIA.toString()).resolve("0000000000003.jsonl"));
+        assertThat(subidor.ciclo()).isEqualTo(1);
+        assertThat(leer(subidor.objetoDia(DIA))).isEqualTo("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n");
+        assertThat(subidor.estadisticas()).containsEntry("bytesSubidos", 24L);
+    }
+
+    @Test
+    void masDe32SegmentosSeComponenEnTandas() throws Exception {
+        StringBuilder esperado = new StringBuilder();
+        for (int i = 1; i <= 70; i++) {
+            String linea = "{\"n\":" + i + "}\n";
+            segmento(DIA, String.format("%013d", i) + ".jsonl", linea);
+            esperado.append(linea);
+        }
+        SubidorSegmentos subidor = subidor(SubidorSegmentos.Composicion.CONTINUA, DIA);
+
+        assertThat(subidor.ciclo()).isEqualTo(70);
+        assertThat(leer(subidor.objetoDia(DIA))).isEqualTo(esperado.toString());
+        assertThat(fuentesPorCompose).allSatisfy(n -> assertThat(n).isLessThanOrEqualTo(32));
+        assertThat(subidor.estadisticas()).containsEntry("composiciones", 3L);
+    }
+
+    @Test
+    void finDeDiaSoloComponeDiasTerminados() throws Exception {
+        segmento(DIA, "0000000000001.jsonl", "{\"a\":1}\n");
+
+        SubidorSegmentos durante = subidor(SubidorSegmentos.Composicion.FIN_DE_DIA, DIA);
+        assertThat(durante.ciclo()).isEqualTo(1);
+        assertThat(real.get(BlobId.of(BUCKET, durante.objetoDia(DIA)))).isNull();
+        assertThat(leer(durante.objetoSegmento(DIA, "0000000000001"))).isEqualTo("{\"a\":1}\n");
+
+        SubidorSegmentos despues = subidor(SubidorSegmentos.Composicion.FIN_DE_DIA, DIA.plusDays(1));
+        assertThat(despues.ciclo()).isZero();
+        assertThat(leer(despues.objetoDia(DIA))).isEqualTo("{\"a\":1}\n");
+        // Día terminado y sin segmentos: se borra el directorio local
+        assertThat(dir.resolve(DIA.toString())).doesNotExist();
+    }
+
+    @Test
+    void noDuplicaLineasSiCayoEntreComposeYLimpieza() throws Exception {
+        segmento(DIA, "0000000000001.jsonl", "{\"a\":1}\n");
+        SubidorSegmentos subidor = subidor(SubidorSegmentos.Composicion.CONTINUA, DIA);
+        subidor.ciclo();
+
+        // Como si el proceso hubiera caído justo después del compose
+        segmento(DIA, "0000000000001.jsonl.subido", "{\"a\":1}\n");
+        real.create(BlobInfo.newBuilder(BlobId.of(BUCKET, subidor.objetoSegmento(DIA, "0000000000001"))).build(),
+                "{\"a\":1}\n".getBytes(StandardCharsets.UTF_8));
+
+        subidor.ciclo();
+        assertThat(leer(subidor.objetoDia(DIA))).isEqualTo("{\"a\":1}\n");
+        assertThat(archivos(DIA)).isEmpty();
+        assertThat(real.get(BlobId.of(BUCKET, subidor.objetoSegmento(DIA, "0000000000001")))).isNull();
+    }
+
+    @Test
+    void dosReplicasComponenElMismoDiaSinBorrarseSegmentos() throws Exception {
+        Path dirA = dir.resolve("a");
+        Path dirB = dir.resolve("b");
+        // Nombres epoch ms intercalados y uno repetido entre réplicas
+        segmento(dirA, DIA, "0000000000001.jsonl", "{\"r\":\"a1\"}\n");
+        segmento(dirA, DIA, "0000000000003.jsonl", "{\"r\":\"a3\"}\n");
+        segmento(dirB, DIA, "0000000000002.jsonl", "{\"r\":\"b2\"}\n");
+        segmento(dirB, DIA, "0000000000003.jsonl", "{\"r\":\"b3\"}\n");
+        SubidorSegmentos a = subidor(dirA, "replica-a", SubidorSegmentos.Composicion.CONTINUA, DIA);
+        SubidorSegmentos b = subidor(dirB, "replica-b", SubidorSegmentos.Composicion.CONTINUA, DIA);
+
+        assertThat(a.ciclo()).isEqualTo(2);
+        assertThat(b.ciclo()).isEqualTo(2);
+
+        String esperado = "{\"r\":\"a1\"}\n{\"r\":\"a3\"}\n{\"r\":\"b2\"}\n{\"r\":\"b3\"}\n";
+        assertThat(leer(a.objetoDia(DIA))).isEqualTo(esperado);
+        assertThat(real.get(BlobId.of(BUCKET, a.objetoDia(DIA))).getMetadata())
+                .containsEntry(a.metadataUltimo(), "0000000000003")
+                .containsEntry(b.metadataUltimo(), "0000000000003");
+        assertThat(archivos(dirA, DIA)).isEmpty();
+        assertThat(archivos(dirB, DIA)).isEmpty();
+
+        // Otra vuelta de cada una: nada se pierde ni se duplica
+        a.ciclo();
+        b.ciclo();
+        assertThat(leer(a.objetoDia(DIA))).isEqualTo(esperado);
+    }
+
+    @Test
+    void siOtraReplicaComponeEnMedioElComposeFallaYSeReintenta() throws Exception {
+        Path dirA = dir.resolve("a");
+        Path dirB = dir.resolve("b");
+        segmento(dirA, DIA, "0000000000001.jsonl", "{\"r\":\"a1\"}\n");
+        SubidorSegmentos a = subidor(dirA, "replica-a", SubidorSegmentos.Composicion.CONTINUA, DIA);
+        SubidorSegmentos b = subidor(dirB, "replica-b", SubidorSegmentos.Composicion.CONTINUA, DIA);
+        a.ciclo();
+
+        segmento(dirA, DIA, "0000000000002.jsonl", "{\"r\":\"a2\"}\n");
+        segmento(dirB, DIA, "0000000000001.jsonl", "{\"r\":\"b1\"}\n");
+        // A compone después de que B leyó el objeto del día y antes de su compose
+        antesDeComponer = () -> {
+            try {
+                a.ciclo();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        assertThatThrownBy(b::ciclo).isInstanceOf(StorageException.class);
+        assertThat(archivos(dirB, DIA)).containsExactly("0000000000001.jsonl.subido");
+
+        b.ciclo();
+        assertThat(leer(a.objetoDia(DIA))).isEqualTo("{\"r\":\"a1\"}\n{\"r\":\"a2\"}\n{\"r\":\"b1\"}\n");
+        assertThat(archivos(dirB, DIA)).isEmpty();
+    }
+
+    @Test
+    void elIdDelEscritorSeGuardaConElDirectorioLocal() throws Exception {
+        String id = SubidorSegmentos.idEscritor(dir, "");
+        assertThat(id).matches("[a-z0-9-]+");
+        assertThat(SubidorSegmentos.idEscritor(dir, null)).isEqualTo(id);
+        assertThat(SubidorSegmentos.idEscritor(Files.createDirectories(dir.resolve("otra")), "")).isNotEqualTo(id);
+
+        assertThat(SubidorSegmentos.idEscritor(dir, "replica-1")).isEqualTo("replica-1");
+        assertThatThrownBy(() -> SubidorSegmentos.idEscritor(dir, "a/b")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void lineasDelEscritorLleganCompletasYEnOrden() throws Exception {
+        // Segmentos de ~64 bytes: casi cada lote cierra uno
+        EscritorSegmentos escritor = new EscritorSegmentos(dir, 200, 1 << 20, false, 64, 60_000,
+                BloquesSegmento.Compresion.NINGUNA, 65_536, reloj(DIA));
+        StringBuilder esperado = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String linea = "{\"i\":" + i + ",\"ñ\":\"á\"}";
+            escritor.agregar(linea, i).join();
+            esperado.append(linea).append('\n');
+        }
+        escritor.cerrar();
+        assertThat((Long) escritor.estadisticas().get("segmentos")).isGreaterThan(1L);
+
+        SubidorSegmentos subidor = subidor(SubidorSegmentos.Composicion.CONTINUA, DIA);
+        subidor.ciclo();
+        assertThat(leer(subidor.objetoDia(DIA))).isEqualTo(esperado.toString());
+    }
+
+    @Test
+    void gzipPorBloquesSeLeePorRangoDeTiempo() throws Exception {
+        // Bloques de 4 KB y segmentos de 16 KB: varias tandas y varios bloques por segmento
+        EscritorSegmentos escritor = new EscritorSegmentos(dir, 200, 1 << 20, false, 16_384, 60_000,
+                BloquesSegmento.Compresion.GZIP, 4096, reloj(DIA));
+        long t0 = Instant.parse("2026-10-16T15:00:00Z").toEpochMilli();
+        List<String> lineas = new ArrayList<>();
+        long crudos = 0;
+        for (int i = 0; i < 2000; i++) {
+            long ts = t0 + i * 1000L;
+            String linea = EventoCodec.lineaJsonl(OffsetDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC).toString(),
+                    String.valueOf(1_000_000 + i), "tx-" + i, "TRANSFERENCIA",
+                    "{\"event_id\":\"tx-" + i + "\",\"tipo\":\"TRANSFERENCIA\",\"curp_origen\":\"GODE561231HDFRRN09\","
+                            + "\"curp_destino\":\"PEXA800101HDFRRN01\",\"monto\":" + (i % 997) + ".50}");
+            escritor.agregar(linea, ts).join();
+            lineas.add(linea);
+            crudos += linea.length() + 1;
+        }
+        escritor.cerrar();
+
+        LocalDate hoy = DIA;
+        SubidorSegmentos subidor = new SubidorSegmentos(storage, BUCKET, "auditoria", dir, "r1",
+                SubidorSegmentos.Composicion.CONTINUA, BloquesSegmento.Compresion.GZIP, reloj(DIA));
+        subidor.ciclo();
+
+        // El objeto del día es gzip válido de punta a punta y pesa mucho menos que el JSONL
+        byte[] dia = real.readAllBytes(BlobId.of(BUCKET, subidor.objetoDia(hoy)));
+        assertThat(real.get(BlobId.of(BUCKET, subidor.objetoDia(hoy))).getContentEncoding()).isEqualTo("gzip");
+        assertThat(new String(new GZIPInputStream(new ByteArrayInputStream(dia)).readAllBytes(), StandardCharsets.UTF_8))
+                .isEqualTo(String.join("\n", lineas) + "\n");
+        assertThat((long) dia.length).isLessThan(crudos / 3);
+
+        // Solo los bloques del rango: los del índice cuadran con el tamaño del objeto
+        List<String> indice = List.of(leer(subidor.objetoIndiceDia(hoy)).split("\n"));
+        BloquesSegmento.Bloque ultimo = BloquesSegmento.Bloque.deJson(indice.get(indice.size() - 1));
+        assertThat(ultimo.offset() + ultimo.bytes()).isEqualTo(dia.length);
+
+        LectorAuditoria lector = new LectorAuditoria(storage, BUCKET, "auditoria");
+        assertThat(lector.leer(hoy, Instant.ofEpochMilli(t0 + 500_000), Instant.ofEpochMilli(t0 + 600_000)))
+                .isEqualTo(lineas.subList(500, 600));
+        assertThat(lector.leer(hoy, Instant.ofEpochMilli(t0 - 10_000), Instant.ofEpochMilli(t0)))
+                .isEmpty();
+    }
+
+    private SubidorSegmentos subidor(SubidorSegmentos.Composicion modo, LocalDate hoy) {
+        return subidor(dir, "r1", modo, hoy);
+    }
+
+    private SubidorSegmentos subidor(Path local, String escritor, SubidorSegmentos.Composicion modo, LocalDate hoy) {
+        return new SubidorSegmentos(storage, BUCKET, "auditoria", local, escritor, modo,
+                BloquesSegmento.Compresion.NINGUNA, reloj(hoy));
+    }
+
+    private static Clock reloj(LocalDate hoy) {
+        return Clock.fixed(hoy.atTime(12, 0).toInstant(ZoneOffset.UTC), ZoneId.of("UTC"));
+    }
+
+    private Object componer(Storage.ComposeRequest req) {
+        if (antesDeComponer != null) {
+            Runnable r = antesDeComponer;
+            antesDeComponer = null;
+            r.run();
+        }
+        String nombre = req.getTarget().getName();
+        Blob existente = real.get(BlobId.of(BUCKET, nombre));
+        Long generacion = existente == null ? null : generacion(nombre);
+        // doesNotExist: el destino va sin generación; generationMatch: con la que se leyó
+        if (!Objects.equals(req.getTarget().getGeneration(), generacion)) {
+            throw new StorageException(412, "conditionNotMet: " + nombre);
+        }
+
+        fuentesPorCompose.add(req.getSourceBlobs().size());
+        ByteArrayOutputStream datos = new ByteArrayOutputStream();
+        for (Storage.ComposeRequest.SourceBlob fuente : req.getSourceBlobs()) {
+            datos.writeBytes(real.readAllBytes(BlobId.of(BUCKET, fuente.getName())));
+        }
+        BlobInfo destino = req.getTarget().toBuilder()
+                .setBlobId(BlobId.of(BUCKET, nombre))
+                .build();
+        Blob nuevo = real.create(destino, datos.toByteArray());
+        generaciones.put(nombre, generacion(nombre) + 1);
+        return conGeneracion(nuevo);
+    }
+
+    private long generacion(String nombre) {
+        return generaciones.getOrDefault(nombre, 1L);
+    }
+
+    private Blob conGeneracion(Blob b) {
+        return b.toBuilder().setBlobId(BlobId.of(b.getBucket(), b.getName(), generacion(b.getName()))).build();
+    }
+
+    private void segmento(LocalDate dia, String nombre, String contenido) throws Exception {
+        segmento(dir, dia, nombre, contenido);
+    }
+
+    private static void segmento(Path local, LocalDate dia, String nombre, String contenido) throws Exception {
+        Path d = Files.createDirectories(local.resolve(dia.toString()));
+        Files.writeString(d.resolve(nombre), contenido);
+    }
+
+    private List<String> archivos(LocalDate dia) throws Exception {
+        return archivos(dir, dia);
+    }
+
+    private static List<String> archivos(Path local, LocalDate dia) throws Exception {
+        try (var s = Files.list(local.resolve(dia.toString()))) {
+            return s.map(p -> p.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private String leer(String objeto) {
+        return new String(real.readAllBytes(BlobId.of(BUCKET, objeto)), StandardCharsets.UTF_8);
+    }
+}
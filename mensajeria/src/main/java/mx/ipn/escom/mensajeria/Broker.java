@@ -0,0 +1,50 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.pubsub.v1.PubsubMessage;
+
+import java.io.IOException;
+
+/**
+ * Lo que el servicio necesita de un broker: publicar en un tópico y recibir de una suscripción con
+ * ACK/NACK por mensaje. Implementaciones: {@link BrokerPubSub} (GCP) y {@link BrokerLocal} (archivos,
+ * para pruebas de carga sin GCP); {@link Mensajeria} elige una con mensajeria.tipo.
+ * Se sigue usando PubsubMessage/MessageReceiver como formato de mensaje para no tocar a los consumidores.
+ */
+public interface Broker {
+
+    Publicador publicador(String topicoId, ConfigPublicador config) throws IOException;
+
+    /** topicoId solo lo usa el broker local (en Pub/Sub la suscripción ya está ligada a su tópico). */
+    Suscripcion suscribir(String topicoId, String suscripcionId, MessageReceiver receiver, ConfigSuscripcion config) throws IOException;
+
+    interface Publicador {
+        /** El future se completa con el messageId o con el error. */
+        ApiFuture<String> publicar(PubsubMessage mensaje);
+
+        /** Tras un error en una ordering key, vuelve a aceptar mensajes de esa key. */
+        void reanudar(String orderingKey);
+
+        void cerrar() throws InterruptedException;
+    }
+
+    interface Suscripcion {
+        void detener();
+    }
+
+    /** batchMensajes <= 0 = batching por defecto del cliente. */
+    record ConfigPublicador(long batchMensajes, long batchBytes, long retrasoMs, boolean ordenado) {
+        public static final ConfigPublicador SIMPLE = new ConfigPublicador(0, 0, 0, false);
+    }
+
+    /**
+     * nombre: base de los nombres de hilo. hilosSistema <= 0 = pool del cliente;
+     * maxMensajes <= 0 = flow control por defecto.
+     */
+    record ConfigSuscripcion(String nombre, int hilos, int hilosSistema, long maxMensajes, long maxBytes, int parallelPull) {
+        public static ConfigSuscripcion basica(String nombre, int hilos) {
+            return new ConfigSuscripcion(nombre, hilos, 0, 0, 0, 1);
+        }
+    }
+}
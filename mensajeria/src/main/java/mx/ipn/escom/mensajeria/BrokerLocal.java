@@ -0,0 +1,500 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.pubsub.v1.PubsubMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Broker sobre archivos para pruebas de carga en una sola máquina (mensajeria.tipo=local).
+ * - Tópico: log append-only {dir}/{topico}/log con registros [int largo][PubsubMessage serializado].
+ *   Un hilo escritor por tópico junta lo que haya en cola y lo escribe con un solo write bajo
+ *   FileLock, así varios procesos pueden publicar en el mismo tópico. El messageId es el offset.
+ * - Suscripción: offset confirmado en {dir}/{topico}/{suscripcion}.offset. Cada suscripción la lee
+ *   un solo proceso (FileLock); con varias réplicas, una suscripción por réplica.
+ * Al menos una vez, como Pub/Sub: se guarda el offset del mensaje más viejo sin ACK, así que tras
+ * reiniciar se reentrega lo que estaba en vuelo. nack() reentrega de inmediato con
+ * googclient_deliveryattempt + 1 (el backoff lo pone el consumidor). Con ordering key hay a lo
+ * más un mensaje en vuelo por key. Sin fsync ni retención: borrar el directorio entre corridas.
+ */
+public final class BrokerLocal implements Broker {
+
+    private static final Logger log = LoggerFactory.getLogger(BrokerLocal.class);
+
+    // El que lee Subscriber.getDeliveryAttempt
+    private static final String ATRIBUTO_INTENTO = "googclient_deliveryattempt";
+
+    private static final int MAX_LOTE_ESCRITURA = 1000;
+    private static final int MAX_EN_VUELO_DEFAULT = 1000;
+    private static final long INTERVALO_OFFSET_MS = 100;
+
+    private final Path dir;
+    private final long pollMs;
+    private final ConcurrentHashMap<String, Escritor> escritores = new ConcurrentHashMap<>();
+
+    public BrokerLocal(Path dir, long pollMs) {
+        this.dir = dir.toAbsolutePath();
+        this.pollMs = Math.max(1, pollMs);
+    }
+
+    public Path directorio() {
+        return dir;
+    }
+
+    @Override
+    public Publicador publicador(String topicoId, ConfigPublicador config) throws IOException {
+        Escritor escritor;
+        try {
+            escritor = escritores.computeIfAbsent(topicoId, t -> {
+                try {
+                    return new Escritor(t);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return new Publicador() {
+            @Override
+            public ApiFuture<String> publicar(PubsubMessage mensaje) {
+                return escritor.encolar(mensaje);
+            }
+
+            @Override
+            public void reanudar(String orderingKey) {
+                // El escritor no bloquea keys después de un error: no hay nada que reanudar
+            }
+
+            @Override
+            public void cerrar() {
+                // El escritor es compartido por todos los publicadores del tópico; lo cierra el broker
+            }
+        };
+    }
+
+    @Override
+    public Suscripcion suscribir(String topicoId, String suscripcionId, MessageReceiver receiver, ConfigSuscripcion config) throws IOException {
+        Lector lector = new Lector(topicoId, suscripcionId, receiver, config);
+        lector.iniciar();
+        return lector::detener;
+    }
+
+    public void cerrar() {
+        for (Escritor e : escritores.values()) e.cerrar();
+        escritores.clear();
+    }
+
+    private Path archivoLog(String topicoId) throws IOException {
+        Path carpeta = dir.resolve(topicoId);
+        Files.createDirectories(carpeta);
+        Path archivo = carpeta.resolve("log");
+        try {
+            Files.createFile(archivo);
+        } catch (FileAlreadyExistsException ignored) {}
+        return archivo;
+    }
+
+    private record Envio(PubsubMessage mensaje, SettableApiFuture<String> resultado) {}
+
+    private record Entrega(long offset, PubsubMessage mensaje, int intento) {}
+
+    /** Un hilo por tópico: drena la cola y escribe el lote completo con un solo write. */
+    private final class Escritor {
+        private final FileChannel canal;
+        private final LinkedBlockingQueue<Envio> cola = new LinkedBlockingQueue<>();
+        private final Thread hilo;
+        private volatile boolean activo = true;
+
+        Escritor(String topicoId) throws IOException {
+            this.canal = FileChannel.open(archivoLog(topicoId), StandardOpenOption.WRITE);
+            this.hilo = new Thread(this::ciclo, "broker-local-" + topicoId);
+            hilo.setDaemon(false);
+            hilo.start();
+        }
+
+        ApiFuture<String> encolar(PubsubMessage mensaje) {
+            SettableApiFuture<String> resultado = SettableApiFuture.create();
+            if (!activo) {
+                resultado.setException(new IllegalStateException("Broker local cerrado"));
+                return resultado;
+            }
+            cola.add(new Envio(mensaje, resultado));
+            return resultado;
+        }
+
+        private void ciclo() {
+            List<Envio> lote = new ArrayList<>(MAX_LOTE_ESCRITURA);
+            while (activo || !cola.isEmpty()) {
+                try {
+                    Envio primero = cola.poll(100, TimeUnit.MILLISECONDS);
+                    if (primero == null) continue;
+                    lote.add(primero);
+                    cola.drainTo(lote, MAX_LOTE_ESCRITURA - 1);
+                    escribir(lote);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    log.error("❌ Broker local: falló escritura de {} mensajes", lote.size(), e);
+                    for (Envio x : lote) x.resultado().setException(e);
+                } finally {
+                    lote.clear();
+                }
+            }
+
+            Envio x;
+            while ((x = cola.poll()) != null) x.resultado().setException(new IllegalStateException("Broker local cerrado"));
+        }
+
+        private void escribir(List<Envio> lote) throws IOException {
+            byte[][] cuerpos = new byte[lote.size()][];
+            int total = 0;
+            for (int i = 0; i < cuerpos.length; i++) {
+                cuerpos[i] = lote.get(i).mensaje().toByteArray();
+                total += 4 + cuerpos[i].length;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(total);
+            for (byte[] c : cuerpos) buf.putInt(c.length).put(c);
+            buf.flip();
+
+            // El lock es entre procesos; en este proceso solo este hilo escribe el tópico
+            long inicio;
+            try (FileLock ignored = canal.lock()) {
+                inicio = canal.size();
+                while (buf.hasRemaining()) canal.write(buf, inicio + buf.position());
+            }
+
+            long offset = inicio;
+            for (int i = 0; i < cuerpos.length; i++) {
+                lote.get(i).resultado().set(String.valueOf(offset));
+                offset += 4 + cuerpos[i].length;
+            }
+        }
+
+        void cerrar() {
+            activo = false;
+            try {
+                hilo.join(5000);
+                canal.close();
+            } catch (Exception ignored) {}
+        }
+    }
+
+    /** Lee el log de una suscripción desde su offset y entrega al receiver con ACK/NACK. */
+    private final class Lector {
+        private final String suscripcion;
+        private final MessageReceiver receiver;
+        private final ConfigSuscripcion config;
+
+        private final FileChannel canalLog;
+        private final FileChannel canalOffset;
+        private final FileLock candadoOffset;
+
+        // Flow control: mensajes entregados sin ACK
+        private final Semaphore permisos;
+
+        // Offsets entregados sin ACK; el menor es lo que se puede confirmar
+        private final ConcurrentSkipListSet<Long> enVuelo = new ConcurrentSkipListSet<>();
+
+        // Ordering keys con un mensaje en vuelo y los que esperan detrás (ReentrantLock, ver HILOS_VIRTUALES.md)
+        private final ReentrantLock candadoKeys = new ReentrantLock();
+        private final Map<String, ArrayDeque<Entrega>> porKey = new HashMap<>();
+
+        private volatile long leido;
+        private long confirmado;
+        private volatile boolean activo = true;
+
+        private ExecutorService ejecutor;
+        private ScheduledExecutorService sistema;
+        private Thread hilo;
+
+        Lector(String topicoId, String suscripcion, MessageReceiver receiver, ConfigSuscripcion config) throws IOException {
+            this.suscripcion = suscripcion;
+            this.receiver = receiver;
+            this.config = config;
+
+            this.canalLog = FileChannel.open(archivoLog(topicoId), StandardOpenOption.READ);
+            this.canalOffset = FileChannel.open(dir.resolve(topicoId).resolve(suscripcion + ".offset"),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+            FileLock candado;
+            try {
+                candado = canalOffset.tryLock();
+            } catch (OverlappingFileLockException e) {
+                candado = null;
+            }
+            if (candado == null) {
+                canalLog.close();
+                canalOffset.close();
+                throw new IOException("La suscripción local " + suscripcion + " ya la está leyendo otro proceso");
+            }
+            this.candadoOffset = candado;
+
+            this.confirmado = leerOffset();
+            this.leido = confirmado;
+
+            long max = config.maxMensajes() > 0 ? config.maxMensajes() : MAX_EN_VUELO_DEFAULT;
+            this.permisos = new Semaphore((int) Math.min(max, Integer.MAX_VALUE));
+        }
+
+        void iniciar() {
+            ejecutor = Executors.newFixedThreadPool(Math.max(1, config.hilos()), new NamedNonDaemonFactory(config.nombre()));
+            sistema = Executors.newSingleThreadScheduledExecutor(new NamedNonDaemonFactory(config.nombre() + "-sistema"));
+            sistema.scheduleWithFixedDelay(this::confirmar, INTERVALO_OFFSET_MS, INTERVALO_OFFSET_MS, TimeUnit.MILLISECONDS);
+
+            hilo = new Thread(this::ciclo, config.nombre() + "-lector");
+            hilo.setDaemon(false);
+            hilo.start();
+            log.info("✔ Suscripción local {} leyendo desde offset {}", suscripcion, confirmado);
+        }
+
+        private void ciclo() {
+            ByteBuffer cabecera = ByteBuffer.allocate(4);
+            long pos = leido;
+
+            while (activo) {
+                try {
+                    if (!permisos.tryAcquire(pollMs, TimeUnit.MILLISECONDS)) continue;
+
+                    byte[] cuerpo = leerRegistro(pos, cabecera);
+                    if (cuerpo == null) {
+                        // Todavía no hay un registro completo
+                        permisos.release();
+                        Thread.sleep(pollMs);
+                        continue;
+                    }
+
+                    long offset = pos;
+                    pos += 4 + cuerpo.length;
+
+                    PubsubMessage mensaje;
+                    try {
+                        mensaje = PubsubMessage.parseFrom(cuerpo).toBuilder()
+                                .setMessageId(String.valueOf(offset))
+                                .build();
+                    } catch (IOException corrupto) {
+                        log.error("❌ Registro ilegible en offset {} de {}, se salta", offset, suscripcion, corrupto);
+                        permisos.release();
+                        leido = pos;
+                        continue;
+                    }
+
+                    // Primero en vuelo y luego leido: confirmar() nunca pasa de un mensaje sin ACK
+                    enVuelo.add(offset);
+                    leido = pos;
+                    despachar(new Entrega(offset, mensaje, 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (IOException e) {
+                    log.error("❌ Error leyendo el log de {}", suscripcion, e);
+                    permisos.release();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+
+        /** null si en pos todavía no hay un registro completo. */
+        private byte[] leerRegistro(long pos, ByteBuffer cabecera) throws IOException {
+            long tamano = canalLog.size();
+            if (tamano - pos < 4) return null;
+
+            cabecera.clear();
+            leerCompleto(cabecera, pos);
+            int largo = cabecera.getInt(0);
+            if (tamano - pos - 4 < largo) return null;
+
+            ByteBuffer cuerpo = ByteBuffer.allocate(largo);
+            leerCompleto(cuerpo, pos + 4);
+            return cuerpo.array();
+        }
+
+        private void leerCompleto(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                if (canalLog.read(buf, pos + buf.position()) < 0) throw new EOFException("Log truncado en " + pos);
+            }
+        }
+
+        private void despachar(Entrega e) {
+            String key = e.mensaje().getOrderingKey();
+            if (!key.isEmpty()) {
+                candadoKeys.lock();
+                try {
+                    ArrayDeque<Entrega> espera = porKey.get(key);
+                    if (espera != null) {
+                        espera.add(e);
+                        return;
+                    }
+                    porKey.put(key, new ArrayDeque<>());
+                } finally {
+                    candadoKeys.unlock();
+                }
+            }
+            entregar(e);
+        }
+
+        private void entregar(Entrega e) {
+            PubsubMessage mensaje = e.mensaje().toBuilder()
+                    .putAttributes(ATRIBUTO_INTENTO, String.valueOf(e.intento()))
+                    .build();
+
+            AtomicBoolean respondido = new AtomicBoolean();
+            AckReplyConsumer consumer = new AckReplyConsumer() {
+                @Override
+                public void ack() {
+                    if (respondido.compareAndSet(false, true)) terminar(e);
+                }
+
+                @Override
+                public void nack() {
+                    if (respondido.compareAndSet(false, true)) reentregar(e);
+                }
+            };
+
+            try {
+                ejecutor.execute(() -> {
+                    try {
+                        receiver.receiveMessage(mensaje, consumer);
+                    } catch (RuntimeException ex) {
+                        // Igual que el cliente de Pub/Sub: una excepción del receiver es un NACK
+                        log.warn("⚠ Receiver lanzó excepción en msgId={}: {}", mensaje.getMessageId(), ex.toString());
+                        consumer.nack();
+                    }
+                });
+            } catch (RejectedExecutionException apagando) {
+                // Queda sin ACK: su offset no se confirma y se entrega otra vez al reiniciar
+            }
+        }
+
+        private void terminar(Entrega e) {
+            enVuelo.remove(e.offset());
+            permisos.release();
+
+            String key = e.mensaje().getOrderingKey();
+            if (key.isEmpty()) return;
+
+            Entrega siguiente;
+            candadoKeys.lock();
+            try {
+                ArrayDeque<Entrega> espera = porKey.get(key);
+                siguiente = espera == null ? null : espera.poll();
+                if (siguiente == null) porKey.remove(key);
+            } finally {
+                candadoKeys.unlock();
+            }
+            if (siguiente != null) entregar(siguiente);
+        }
+
+        private void reentregar(Entrega e) {
+            // Apagando: se queda sin ACK y se reentrega al reiniciar
+            if (!activo) return;
+            entregar(new Entrega(e.offset(), e.mensaje(), e.intento() + 1));
+        }
+
+        private void confirmar() {
+            long l = leido;
+            Long masViejo = enVuelo.ceiling(Long.MIN_VALUE);
+            long nuevo = masViejo == null ? l : Math.min(masViejo, l);
+            if (nuevo == confirmado) return;
+
+            try {
+                canalOffset.write(ByteBuffer.allocate(8).putLong(0, nuevo), 0);
+                confirmado = nuevo;
+            } catch (IOException e) {
+                log.warn("⚠ No se pudo guardar el offset de {}: {}", suscripcion, e.getMessage());
+            }
+        }
+
+        private long leerOffset() throws IOException {
+            if (canalOffset.size() < 8) return 0;
+            ByteBuffer b = ByteBuffer.allocate(8);
+            while (b.hasRemaining()) {
+                if (canalOffset.read(b, b.position()) < 0) return 0;
+            }
+            return b.getLong(0);
+        }
+
+        void detener() {
+            activo = false;
+            try {
+                hilo.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            ejecutor.shutdown();
+            try {
+                if (!ejecutor.awaitTermination(10, TimeUnit.SECONDS)) ejecutor.shutdownNow();
+            } catch (Exception e) {
+                ejecutor.shutdownNow();
+            }
+
+            sistema.shutdown();
+            try {
+                sistema.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            confirmar();
+
+            try {
+                candadoOffset.release();
+                canalOffset.close();
+                canalLog.close();
+            } catch (IOException ignored) {}
+            log.info("ℹ Suscripción local {} detenida en offset {}", suscripcion, confirmado);
+        }
+    }
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiService;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.TopicName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Google Cloud Pub/Sub: lo que antes armaba cada publisher/subscriber por su cuenta. */
+public final class BrokerPubSub implements Broker {
+
+    private static final Logger log = LoggerFactory.getLogger(BrokerPubSub.class);
+
+    private final String projectId;
+
+    public BrokerPubSub(String projectId) {
+        this.projectId = projectId;
+    }
+
+    @Override
+    public Publicador publicador(String topicoId, ConfigPublicador config) throws IOException {
+        Publisher.Builder builder = Publisher.newBuilder(TopicName.of(projectId, topicoId))
+                .setEnableMessageOrdering(config.ordenado());
+
+        if (config.batchMensajes() > 0) {
+            builder.setBatchingSettings(BatchingSettings.newBuilder()
+                    .setElementCountThreshold(config.batchMensajes())
+                    .setRequestByteThreshold(config.batchBytes())
+                    .setDelayThreshold(Duration.ofMillis(config.retrasoMs()))
+                    .build());
+        }
+
+        Publisher publisher = builder.build();
+        return new Publicador() {
+            @Override
+            public ApiFuture<String> publicar(PubsubMessage mensaje) {
+                return publisher.publish(mensaje);
+            }
+
+            @Override
+            public void reanudar(String orderingKey) {
+                publisher.resumePublish(orderingKey);
+            }
+
+            @Override
+            public void cerrar() throws InterruptedException {
+                publisher.shutdown();
+                publisher.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        };
+    }
+
+    @Override
+    public Suscripcion suscribir(String topicoId, String suscripcionId, MessageReceiver receiver, ConfigSuscripcion config) {
+        ProjectSubscriptionName subName = ProjectSubscriptionName.of(projectId, suscripcionId);
+
+        // FixedExecutorProvider.create(...) requiere ScheduledExecutorService
+        ScheduledExecutorService subscriberExecutor = Executors.newScheduledThreadPool(
+                config.hilos(), new NamedNonDaemonFactory(config.nombre())
+        );
+
+        // Extensión de leases/acks en su propio pool (si se pide): los hilos del receiver pueden
+        // quedarse bloqueados y no deben frenar los modifyAckDeadline
+        ScheduledExecutorService systemExecutor = config.hilosSistema() <= 0 ? null
+                : Executors.newScheduledThreadPool(config.hilosSistema(), new NamedNonDaemonFactory(config.nombre() + "-sistema"));
+
+        ExecutorService listenerExecutor = Executors.newSingleThreadExecutor(
+                new NamedNonDaemonFactory(config.nombre() + "-listener")
+        );
+
+        Subscriber.Builder builder = Subscriber.newBuilder(subName, receiver)
+                .setExecutorProvider(FixedExecutorProvider.create(subscriberExecutor))
+                .setParallelPullCount(Math.max(1, config.parallelPull()));
+
+        if (systemExecutor != null) {
+            builder.setSystemExecutorProvider(FixedExecutorProvider.create(systemExecutor));
+        }
+        if (config.maxMensajes() > 0) {
+            builder.setFlowControlSettings(FlowControlSettings.newBuilder()
+                    .setMaxOutstandingElementCount(config.maxMensajes())
+                    .setMaxOutstandingRequestBytes(config.maxBytes())
+                    .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                    .build());
+        }
+
+        Subscriber subscriber = builder.build();
+        subscriber.addListener(new ApiService.Listener() {
+            @Override
+            public void failed(ApiService.State from, Throwable failure) {
+                log.error("❌ Suscripción {} falló. Estado previo: {}", suscripcionId, from, failure);
+            }
+        }, listenerExecutor);
+
+        subscriber.startAsync().awaitRunning();
+
+        return () -> {
+            try {
+                subscriber.stopAsync();
+                subscriber.awaitTerminated(10, TimeUnit.SECONDS);
+            } catch (Exception ignored) {}
+
+            shutdown(subscriberExecutor);
+            shutdown(systemExecutor);
+            shutdown(listenerExecutor);
+        };
+    }
+
+    private static void shutdown(ExecutorService exec) {
+        if (exec == null) return;
+        exec.shutdown();
+        try {
+            if (!exec.awaitTermination(5, TimeUnit.SECONDS)) exec.shutdownNow();
+        } catch (Exception e) {
+            exec.shutdownNow();
+        }
+    }
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package mx.ipn.escom.mensajeria;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Formato binario compacto (opcional) de tx-events y tx-confirmed. Cada mensaje anuncia su formato
+ * en el atributo "content-type"; sin atributo se asume JSON, así productores JSON y binarios
+ * conviven durante el despliegue. Account escribe TransferEvent y lee confirmaciones, Transaction
+ * lee TransferEvent y escribe confirmaciones, Audit lee confirmaciones.
+ *
+ * Layout v1 (enteros como varint; strings como varint(largo + 1) + UTF-8, 0 = null):
+ *   byte version (1), byte clase (1 = TransferEvent, 2 = confirmación), campos:
+ *   TransferEvent: str txId, str fromCurp, str toCurp, zigzag centavos, varint epochMs, str type
+ *   Confirmación:  str event_id, str tipo, str curp_origen, str curp_destino, zigzag centavos, varint epochMs
+ * La confirmación binaria no repite payload_original: sus campos ya van en el mensaje.
+ */
+public final class FormatoBinario {
+
+    public static final String ATRIBUTO = "content-type";
+    public static final String JSON = "application/json";
+    public static final String BINARIO = "application/x-sfd-evento; v=1";
+
+    static final byte VERSION = 1;
+    static final byte CLASE_TRANSFER_EVENT = 1;
+    static final byte CLASE_CONFIRMACION = 2;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private FormatoBinario() {}
+
+    public static boolean esBinario(Map<String, String> attrs) {
+        return BINARIO.equals(attrs.get(ATRIBUTO));
+    }
+
+    public static byte[] codificarEvento(String txId,
+                                         String fromCurp,
+                                         String toCurp,
+                                         long centavos,
+                                         long epochMs,
+                                         String type) {
+        Escritor w = new Escritor(96);
+        w.octeto(VERSION);
+        w.octeto(CLASE_TRANSFER_EVENT);
+        w.texto(txId);
+        w.texto(fromCurp);
+        w.texto(toCurp);
+        w.zigzag(centavos);
+        w.varint(epochMs);
+        w.texto(type);
+        return w.bytes();
+    }
+
+    /** IllegalArgumentException/BufferUnderflowException si está corrupto. */
+    public static Evento leerEvento(ByteString datos) {
+        Lector r = new Lector(datos.asReadOnlyByteBuffer(), CLASE_TRANSFER_EVENT);
+        return new Evento(r.texto(), r.texto(), r.texto(), r.zigzag(), r.varint(), r.texto());
+    }
+
+    public static byte[] codificarConfirmacion(String eventId,
+                                               String tipo,
+                                               String curpOrigen,
+                                               String curpDestino,
+                                               BigDecimal monto,
+                                               long epochMs) {
+        Escritor w = new Escritor(96);
+        w.octeto(VERSION);
+        w.octeto(CLASE_CONFIRMACION);
+        w.texto(eventId);
+        w.texto(tipo);
+        w.texto(curpOrigen);
+        w.texto(curpDestino);
+        // numeric(14,2): en centavos cabe en un long
+        w.zigzag(monto.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact());
+        w.varint(epochMs);
+        return w.bytes();
+    }
+
+    /** IllegalArgumentException/BufferUnderflowException si está corrupta. */
+    public static Confirmacion leerConfirmacion(ByteString datos) {
+        Lector r = new Lector(datos.asReadOnlyByteBuffer(), CLASE_CONFIRMACION);
+        return new Confirmacion(r.texto(), r.texto(), r.texto(), r.texto(), r.zigzag(), r.varint());
+    }
+
+    /** TransferEvent decodificado, con los mismos campos que el record de account-service. */
+    public record Evento(String txId, String fromCurp, String toCurp, long centavos, long timestampEpochMs, String type) {
+
+        public BigDecimal monto() {
+            return BigDecimal.valueOf(centavos, 2);
+        }
+
+        /**
+         * El JSON que account-service habría publicado para este evento (mismo orden de campos).
+         * Es lo que se guarda como payload en auditoría y viaja como payload_original.
+         */
+        public String json() {
+            StringWriter out = new StringWriter(160);
+            try (JsonGenerator g = JSON_FACTORY.createGenerator(out)) {
+                g.writeStartObject();
+                g.writeStringField("txId", txId);
+                g.writeStringField("fromCurp", fromCurp);
+                g.writeStringField("toCurp", toCurp);
+                g.writeFieldName("amount");
+                g.writeNumber(monto());
+                g.writeNumberField("timestampEpochMs", timestampEpochMs);
+                g.writeStringField("type", type);
+                g.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
+        }
+    }
+
+    /** Confirmación decodificada (tx-confirmed). */
+    public record Confirmacion(String eventId, String tipo, String curpOrigen, String curpDestino,
+                               long centavos, long epochMs) {
+
+        /**
+         * La confirmación como el JSON que TransactionService publica (sin payload_original, que el
+         * binario no lleva). Así la BD y el JSONL de auditoría guardan lo mismo en los dos formatos.
+         */
+        public String json() {
+            StringWriter out = new StringWriter(200);
+            try (JsonGenerator g = JSON_FACTORY.createGenerator(out)) {
+                g.writeStartObject();
+                g.writeStringField("event_id", eventId);
+                g.writeStringField("tipo_evento", "TRANSACCION_CONFIRMADA");
+                g.writeStringField("tipo", tipo);
+                g.writeStringField("curp_origen", curpOrigen);
+                g.writeStringField("curp_destino", curpDestino);
+                g.writeFieldName("monto");
+                g.writeNumber(BigDecimal.valueOf(centavos, 2));
+                g.writeStringField("timestamp", Instant.ofEpochMilli(epochMs).toString());
+                g.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
+        }
+    }
+
+    static final class Escritor {
+        private byte[] buf;
+        private int pos;
+
+        Escritor(int capacidad) {
+            buf = new byte[capacidad];
+        }
+
+        void octeto(int b) {
+            asegurar(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void varint(long v) {
+            asegurar(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        void texto(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length + 1L);
+            asegurar(utf8.length);
+            System.arraycopy(utf8, 0, buf, pos, utf8.length);
+            pos += utf8.length;
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void asegurar(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    static final class Lector {
+        private final ByteBuffer b;
+
+        Lector(ByteBuffer b, byte claseEsperada) {
+            this.b = b;
+            byte version = b.get();
+            byte clase = b.get();
+            if (version != VERSION || clase != claseEsperada) {
+                throw new IllegalArgumentException("Mensaje binario no soportado: version=" + version + ", clase=" + clase);
+            }
+        }
+
+        long varint() {
+            long v = 0;
+            for (int corrimiento = 0; corrimiento < 64; corrimiento += 7) {
+                byte x = b.get();
+                v |= (long) (x & 0x7F) << corrimiento;
+                if ((x & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("varint inválido");
+        }
+
+        long zigzag() {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String texto() {
+            long n = varint();
+            if (n == 0) return null;
+            // Sin signo: un varint corrupto de 64 bits no debe volverse un largo negativo
+            if (Long.compareUnsigned(n - 1, b.remaining()) > 0) {
+                throw new IllegalArgumentException("string fuera del mensaje: largo=" + Long.toUnsignedString(n - 1));
+            }
+            byte[] utf8 = new byte[(int) (n - 1)];
+            b.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
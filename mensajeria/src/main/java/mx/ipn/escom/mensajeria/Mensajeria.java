@@ -0,0 +1,58 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Broker que usan los publishers y subscribers del servicio, elegido con mensajeria.tipo:
+ * - pubsub (default): Google Cloud Pub/Sub
+ * - local: BrokerLocal sobre archivos en mensajeria.local.dir, para medir tx/s de punta a punta
+ *   en una sola máquina sin GCP. Todos los servicios deben apuntar al MISMO directorio.
+ * Cada servicio lo registra agregando mx.ipn.escom.mensajeria a los scanBasePackages de su
+ * @SpringBootApplication.
+ */
+@Component
+public class Mensajeria implements Broker {
+
+    private static final Logger log = LoggerFactory.getLogger(Mensajeria.class);
+
+    private final Broker broker;
+    private final BrokerLocal local;
+
+    public Mensajeria(@Value("${mensajeria.tipo:pubsub}") String tipo,
+                      @Value("${gcp.project-id}") String projectId,
+                      @Value("${mensajeria.local.dir:${java.io.tmpdir}/sfd-broker}") String dirLocal,
+                      @Value("${mensajeria.local.poll-ms:2}") long pollMs) {
+        if ("local".equalsIgnoreCase(tipo)) {
+            local = new BrokerLocal(Path.of(dirLocal), pollMs);
+            broker = local;
+            log.warn("⚠ Mensajería LOCAL en {} (sin Pub/Sub; solo para pruebas)", local.directorio());
+        } else {
+            local = null;
+            broker = new BrokerPubSub(projectId);
+            log.info("✔ Mensajería: Pub/Sub (project={})", projectId);
+        }
+    }
+
+    @Override
+    public Publicador publicador(String topicoId, ConfigPublicador config) throws IOException {
+        return broker.publicador(topicoId, config);
+    }
+
+    @Override
+    public Suscripcion suscribir(String topicoId, String suscripcionId, MessageReceiver receiver, ConfigSuscripcion config) throws IOException {
+        return broker.suscribir(topicoId, suscripcionId, receiver, config);
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        if (local != null) local.cerrar();
+    }
+}
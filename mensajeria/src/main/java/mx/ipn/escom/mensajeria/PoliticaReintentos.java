@@ -0,0 +1,199 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.pubsub.v1.PubsubMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Qué hacer con un mensaje que falló, en vez de nack() inmediato (loop caliente de redeliveries).
+ * - Intento: Subscriber.getDeliveryAttempt si la suscripción tiene dead-letter policy; si no, conteo
+ *   local por messageId (las redeliveries conservan el messageId).
+ * - Backoff exponencial con jitter: el nack se programa para dentro de min(max, inicial * 2^(n-1)) ms.
+ *   Mientras tanto el mensaje sigue "en vuelo" y el cliente le va extendiendo el ack deadline
+ *   (modifyAckDeadline), y como cuenta para el flow control, una caída de BD frena también el pull.
+ * - Al llegar a max-intentos se publica una copia en el topic de dead-letter (atributos dl_*) y se
+ *   hace ACK. Sin topic configurado, se sigue reintentando con el backoff máximo: no se pierde nada.
+ * El payload completo solo se loguea al mandarlo a dead-letter.
+ * Cada servicio la registra como bean con sus pubsub.reintentos.* y llama iniciar() / detener().
+ */
+public class PoliticaReintentos {
+
+    private static final Logger log = LoggerFactory.getLogger(PoliticaReintentos.class);
+
+    // Tope del conteo local (suscripción sin dead-letter policy); al pasarlo se reinicia
+    private static final int MAX_CONTEOS_LOCALES = 100_000;
+
+    private final Broker broker;
+    private final int maxIntentos;
+    private final long backoffInicialMs;
+    private final long backoffMaxMs;
+    private final String deadLetterTopicId;
+
+    private Broker.Publicador deadLetter;
+    private ScheduledExecutorService programador;
+
+    private final ConcurrentHashMap<String, Integer> intentosLocales = new ConcurrentHashMap<>();
+
+    private final LongAdder exitos = new LongAdder();
+    private final LongAdder reintentos = new LongAdder();
+    private final LongAdder muertos = new LongAdder();
+    private final LongAdder sinDestino = new LongAdder();
+    private final LongAdder fallosDeadLetter = new LongAdder();
+
+    /** deadLetterTopicId vacío o null: sin dead-letter, se reintenta para siempre con el backoff máximo. */
+    public PoliticaReintentos(Broker broker, int maxIntentos, long backoffInicialMs, long backoffMaxMs,
+                              String deadLetterTopicId) {
+        this.broker = broker;
+        this.maxIntentos = maxIntentos;
+        this.backoffInicialMs = backoffInicialMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.deadLetterTopicId = deadLetterTopicId;
+    }
+
+    public void iniciar() throws Exception {
+        programador = Executors.newSingleThreadScheduledExecutor(new NamedNonDaemonFactory("pubsub-reintentos"));
+        programador.scheduleAtFixedRate(this::resumen, 1, 1, TimeUnit.MINUTES);
+
+        if (deadLetterTopicId != null && !deadLetterTopicId.isBlank()) {
+            deadLetter = broker.publicador(deadLetterTopicId, Broker.ConfigPublicador.SIMPLE);
+        }
+        log.info("✔ PoliticaReintentos lista. maxIntentos={}, backoff={}..{} ms, deadLetter={}",
+                maxIntentos, backoffInicialMs, backoffMaxMs, deadLetter == null ? "(ninguno)" : deadLetterTopicId);
+    }
+
+    /** Llamar junto con cada ack() de un mensaje procesado. */
+    public void exito(PubsubMessage message) {
+        exitos.increment();
+        if (!intentosLocales.isEmpty()) intentosLocales.remove(message.getMessageId());
+    }
+
+    /** Reemplaza a consumer.nack() cuando el procesamiento falló. */
+    public void fallo(PubsubMessage message, AckReplyConsumer consumer, Throwable error) {
+        int intento = intento(message);
+
+        if (intento >= maxIntentos && deadLetter != null) {
+            mandarADeadLetter(message, consumer, error, intento);
+            return;
+        }
+        if (intento >= maxIntentos) sinDestino.increment();
+
+        long espera = backoffMs(intento);
+        reintentos.increment();
+        if (intento == 1) {
+            // Stack trace solo la primera vez; las redeliveries repiten el mismo error
+            log.warn("⚠ Falló msgId={} (intento 1). NACK en {} ms.", message.getMessageId(), espera, error);
+        } else {
+            log.warn("⚠ Falló msgId={} (intento {}). NACK en {} ms. error={}",
+                    message.getMessageId(), intento, espera, error.toString());
+        }
+
+        try {
+            programador.schedule(consumer::nack, espera, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException apagando) {
+            consumer.nack();
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("exitos", exitos.sum());
+        stats.put("reintentos", reintentos.sum());
+        stats.put("deadLetter", muertos.sum());
+        stats.put("agotadosSinDeadLetter", sinDestino.sum());
+        stats.put("fallosPublicandoDeadLetter", fallosDeadLetter.sum());
+        return stats;
+    }
+
+    private int intento(PubsubMessage message) {
+        Integer entrega = Subscriber.getDeliveryAttempt(message);
+        if (entrega != null && entrega > 0) return entrega;
+
+        if (intentosLocales.size() > MAX_CONTEOS_LOCALES) intentosLocales.clear();
+        return intentosLocales.merge(message.getMessageId(), 1, Integer::sum);
+    }
+
+    private long backoffMs(int intento) {
+        int exp = Math.min(Math.max(intento - 1, 0), 30);
+        long base = Math.min(backoffMaxMs, backoffInicialMs << exp);
+        // Mitad fija + mitad aleatoria: que las réplicas no reintenten todas al mismo tiempo
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    private void mandarADeadLetter(PubsubMessage message, AckReplyConsumer consumer, Throwable error, int intento) {
+        String detalle = String.valueOf(error);
+        if (detalle.length() > 500) detalle = detalle.substring(0, 500);
+
+        PubsubMessage copia = PubsubMessage.newBuilder()
+                .setData(message.getData())
+                .putAllAttributes(message.getAttributesMap())
+                .putAttributes("dl_message_id", message.getMessageId())
+                .putAttributes("dl_intentos", String.valueOf(intento))
+                .putAttributes("dl_error", detalle)
+                .build();
+
+        ApiFuture<String> fut = deadLetter.publicar(copia);
+        ApiFutures.addCallback(fut, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(String messageId) {
+                muertos.increment();
+                intentosLocales.remove(message.getMessageId());
+                log.error("❌ Mensaje a dead-letter tras {} intentos. msgId={} error={} payload={}",
+                        intento, message.getMessageId(), error.toString(), message.getData().toStringUtf8());
+                consumer.ack();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                fallosDeadLetter.increment();
+                log.error("❌ No se pudo publicar en dead-letter msgId={}. NACK con backoff máximo", message.getMessageId(), t);
+                try {
+                    programador.schedule(consumer::nack, backoffMaxMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException apagando) {
+                    consumer.nack();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void resumen() {
+        if (reintentos.sum() == 0 && muertos.sum() == 0) return;
+        log.info("ℹ Reintentos Pub/Sub: {}", estadisticas());
+    }
+
+    public void detener() throws Exception {
+        // Los nack programados se ejecutan ya: el mensaje vuelve a Pub/Sub para otra réplica
+        if (programador != null) {
+            for (Runnable pendiente : programador.shutdownNow()) pendiente.run();
+        }
+        if (deadLetter != null) deadLetter.cerrar();
+    }
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
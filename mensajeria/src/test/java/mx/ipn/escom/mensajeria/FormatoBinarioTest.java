@@ -0,0 +1,120 @@
+package mx.ipn.escom.mensajeria;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Contrato del formato binario v1 entre servicios: account-service escribe EVENTO_V1 y lee
+ * CONFIRMACION_V1, transaction-service lee EVENTO_V1 y escribe CONFIRMACION_V1, audit-service lee
+ * CONFIRMACION_V1. Si un vector cambia, es una versión nueva del formato.
+ */
+class FormatoBinarioTest {
+
+    /** TransferEvent: txId, fromCurp, toCurp, 1234.56, 1760659200000, TRANSFER. */
+    static final String EVENTO_V1 = "0101"
+            + "25" + "33663163376135322d386130652d346134652d396435352d306331623266396537613130"
+            + "13" + "474f444535363132333148444652524e3039"
+            + "13" + "50454d413830303130314d44465252523031"
+            + "80890f"
+            + "80b0ddfb9e33"
+            + "09" + "5452414e53464552";
+
+    /** Confirmación: event_id, TRANSFERENCIA, curp_origen, curp_destino, 1234.56, 1760659200123. */
+    static final String CONFIRMACION_V1 = "0102"
+            + "25" + "33663163376135322d386130652d346134652d396435352d306331623266396537613130"
+            + "0e" + "5452414e53464552454e434941"
+            + "13" + "474f444535363132333148444652524e3039"
+            + "13" + "50454d413830303130314d44465252523031"
+            + "80890f"
+            + "fbb0ddfb9e33";
+
+    private static final String TX_ID = "3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10";
+    private static final String ORIGEN = "GODE561231HDFRRN09";
+    private static final String DESTINO = "PEMA800101MDFRRR01";
+
+    @Test
+    void codificaElTransferEvent() {
+        byte[] datos = FormatoBinario.codificarEvento(TX_ID, ORIGEN, DESTINO, 123_456, 1_760_659_200_000L, "TRANSFER");
+
+        assertThat(HexFormat.of().formatHex(datos)).isEqualTo(EVENTO_V1);
+    }
+
+    @Test
+    void leeElTransferEvent() {
+        FormatoBinario.Evento e = FormatoBinario.leerEvento(bytes(EVENTO_V1));
+
+        assertThat(e).isEqualTo(new FormatoBinario.Evento(TX_ID, ORIGEN, DESTINO,
+                123_456, 1_760_659_200_000L, "TRANSFER"));
+        assertThat(e.json()).isEqualTo("{\"txId\":\"" + TX_ID + "\",\"fromCurp\":\"GODE561231HDFRRN09\","
+                + "\"toCurp\":\"PEMA800101MDFRRR01\",\"amount\":1234.56,\"timestampEpochMs\":1760659200000,"
+                + "\"type\":\"TRANSFER\"}");
+    }
+
+    @Test
+    void codificaLaConfirmacion() {
+        byte[] datos = FormatoBinario.codificarConfirmacion(TX_ID, "TRANSFERENCIA",
+                ORIGEN, DESTINO, new BigDecimal("1234.56"), 1_760_659_200_123L);
+
+        assertThat(HexFormat.of().formatHex(datos)).isEqualTo(CONFIRMACION_V1);
+    }
+
+    @Test
+    void leeLaConfirmacion() {
+        FormatoBinario.Confirmacion c = FormatoBinario.leerConfirmacion(bytes(CONFIRMACION_V1));
+
+        assertThat(c).isEqualTo(new FormatoBinario.Confirmacion(TX_ID, "TRANSFERENCIA", ORIGEN, DESTINO,
+                123_456, 1_760_659_200_123L));
+        assertThat(c.json()).isEqualTo("{\"event_id\":\"" + TX_ID + "\","
+                + "\"tipo_evento\":\"TRANSACCION_CONFIRMADA\",\"tipo\":\"TRANSFERENCIA\","
+                + "\"curp_origen\":\"GODE561231HDFRRN09\",\"curp_destino\":\"PEMA800101MDFRRR01\","
+                + "\"monto\":1234.56,\"timestamp\":\"2025-10-17T00:00:00.123Z\"}");
+    }
+
+    @Test
+    void idaYVueltaConNulosYNegativos() {
+        FormatoBinario.Escritor w = new FormatoBinario.Escritor(4);
+        w.octeto(FormatoBinario.VERSION);
+        w.octeto(FormatoBinario.CLASE_TRANSFER_EVENT);
+        w.texto(null);
+        w.texto("ñandú");
+        w.zigzag(-1);
+        w.varint(Long.MAX_VALUE);
+
+        FormatoBinario.Lector r = new FormatoBinario.Lector(ByteBuffer.wrap(w.bytes()),
+                FormatoBinario.CLASE_TRANSFER_EVENT);
+        assertThat(r.texto()).isNull();
+        assertThat(r.texto()).isEqualTo("ñandú");
+        assertThat(r.zigzag()).isEqualTo(-1);
+        assertThat(r.varint()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void largoDeStringCorruptoEsIllegalArgument() {
+        // Más largo que lo que queda, 2^40 (no cabe en int) y 2^64 - 1 (negativo como long)
+        for (String largo : new String[]{"7f", "808080808020", "ffffffffffffffffff01"}) {
+            assertThatThrownBy(() -> FormatoBinario.leerEvento(bytes("0101" + largo + "41")))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> FormatoBinario.leerConfirmacion(bytes("0102" + largo + "41")))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void claseEquivocadaEsIllegalArgument() {
+        assertThatThrownBy(() -> FormatoBinario.leerEvento(bytes(CONFIRMACION_V1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FormatoBinario.leerConfirmacion(bytes(EVENTO_V1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ByteString bytes(String hex) {
+        return ByteString.copyFrom(HexFormat.of().parseHex(hex));
+    }
+}
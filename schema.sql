@@ -136,6 +136,40 @@ CREATE TABLE public.cuentas (
 );
 
 
+--
+-- Name: outbox_eventos; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.outbox_eventos (
+    id bigint NOT NULL,
+    tx_id uuid NOT NULL,
+    tipo text NOT NULL,
+    payload bytea NOT NULL,
+    creado_en timestamp with time zone DEFAULT now() NOT NULL,
+    curp_origen character varying(18),
+    content_type text DEFAULT 'application/json'::text NOT NULL
+);
+
+
+--
+-- Name: outbox_eventos_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE public.outbox_eventos_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: outbox_eventos_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE public.outbox_eventos_id_seq OWNED BY public.outbox_eventos.id;
+
+
 --
 -- Name: transacciones; Type: TABLE; Schema: public; Owner: -
 --
@@ -171,6 +205,112 @@ CREATE TABLE public.usuarios (
 );
 
 
+--
+-- Name: aplicar_evento_tx(text, text, character varying, character varying, numeric, text); Type: FUNCTION; Schema: public; Owner: -
+--
+-- Un evento de tx-events en un solo round trip (TransactionProcessor.procesarEnBD):
+-- inserta o bloquea la transacción por event_id, aplica el movimiento si hay saldo, deja
+-- CONFIRMADA/FALLIDA, audita y regresa la fila final. Si ya era CONFIRMADA/FALLIDA la regresa
+-- tal cual (sin tocar saldos ni auditar). Violaciones de CHECK o JSON inválido => excepción, como antes.
+--
+
+CREATE FUNCTION public.aplicar_evento_tx(p_event_id text, p_tipo text, p_curp_origen character varying, p_curp_destino character varying, p_monto numeric, p_payload text) RETURNS SETOF public.transacciones
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+  v_origen  varchar(18) := p_curp_origen;
+  v_destino varchar(18) := p_curp_destino;
+  v_tx      public.transacciones%ROWTYPE;
+  v_ok      boolean := false;
+  v_cuentas integer;
+BEGIN
+  -- Misma normalización que TransactionRepository.insertIfAbsent (chk_tx_campos_por_tipo)
+  IF p_tipo = 'DEPOSITO' THEN
+    v_destino := COALESCE(v_destino, v_origen);
+    v_origen := NULL;
+  ELSIF p_tipo = 'RETIRO' THEN
+    v_origen := COALESCE(v_origen, v_destino);
+    v_destino := NULL;
+  END IF;
+
+  INSERT INTO public.transacciones(event_id, curp_origen, curp_destino, monto, tipo, estado)
+  VALUES (p_event_id, v_origen, v_destino, p_monto, p_tipo, 'PENDIENTE')
+  ON CONFLICT (event_id) DO NOTHING
+  RETURNING * INTO v_tx;
+
+  IF NOT FOUND THEN
+    -- Duplicado: bloquear la existente; si ya es final, idempotente
+    SELECT * INTO v_tx
+    FROM public.transacciones t
+    WHERE t.event_id = p_event_id
+    FOR UPDATE;
+
+    IF v_tx.estado <> 'PENDIENTE' THEN
+      RETURN NEXT v_tx;
+      RETURN;
+    END IF;
+  END IF;
+
+  IF v_tx.tipo = 'DEPOSITO' THEN
+    -- banco -> billetera
+    UPDATE public.cuentas
+    SET saldo_banco = saldo_banco - v_tx.monto,
+        saldo_billetera = saldo_billetera + v_tx.monto,
+        actualizado_en = now()
+    WHERE curp = v_tx.curp_destino AND saldo_banco >= v_tx.monto;
+    v_ok := FOUND;
+
+  ELSIF v_tx.tipo = 'RETIRO' THEN
+    -- billetera -> banco
+    UPDATE public.cuentas
+    SET saldo_billetera = saldo_billetera - v_tx.monto,
+        saldo_banco = saldo_banco + v_tx.monto,
+        actualizado_en = now()
+    WHERE curp = v_tx.curp_origen AND saldo_billetera >= v_tx.monto;
+    v_ok := FOUND;
+
+  ELSIF v_tx.curp_origen <> v_tx.curp_destino THEN
+    -- TRANSFERENCIA: lock de las dos cuentas en orden de curp (igual que lockTwoAccounts)
+    SELECT count(*) INTO v_cuentas
+    FROM (
+      SELECT 1
+      FROM public.cuentas c
+      WHERE c.curp IN (v_tx.curp_origen, v_tx.curp_destino)
+      ORDER BY c.curp
+      FOR UPDATE
+    ) bloqueadas;
+
+    IF v_cuentas = 2 THEN
+      UPDATE public.cuentas
+      SET saldo_billetera = saldo_billetera - v_tx.monto,
+          actualizado_en = now()
+      WHERE curp = v_tx.curp_origen AND saldo_billetera >= v_tx.monto;
+
+      IF FOUND THEN
+        UPDATE public.cuentas
+        SET saldo_billetera = saldo_billetera + v_tx.monto,
+            actualizado_en = now()
+        WHERE curp = v_tx.curp_destino;
+        v_ok := true;
+      END IF;
+    END IF;
+  END IF;
+
+  UPDATE public.transacciones t
+  SET estado = CASE WHEN v_ok THEN 'CONFIRMADA' ELSE 'FALLIDA' END,
+      confirmado_en = COALESCE(t.confirmado_en, now())
+  WHERE t.id = v_tx.id
+  RETURNING * INTO v_tx;
+
+  INSERT INTO public.auditoria(transaccion_id, tipo_evento, payload_json)
+  VALUES (v_tx.id, 'TRANSACCION_' || v_tx.estado, p_payload::jsonb);
+
+  RETURN NEXT v_tx;
+  RETURN;
+END;
+$$;
+
+
 --
 -- Name: vista_saldo_total; Type: VIEW; Schema: public; Owner: -
 --
@@ -187,6 +327,13 @@ CREATE VIEW public.vista_saldo_total AS
 ALTER TABLE ONLY public.auditoria ALTER COLUMN id SET DEFAULT nextval('public.auditoria_id_seq'::regclass);
 
 
+--
+-- Name: outbox_eventos id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.outbox_eventos ALTER COLUMN id SET DEFAULT nextval('public.outbox_eventos_id_seq'::regclass);
+
+
 --
 -- Name: auditoria auditoria_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -203,6 +350,14 @@ ALTER TABLE ONLY public.cuentas
     ADD CONSTRAINT cuentas_pkey PRIMARY KEY (curp);
 
 
+--
+-- Name: outbox_eventos outbox_eventos_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.outbox_eventos
+    ADD CONSTRAINT outbox_eventos_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: transacciones transacciones_event_id_key; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -242,10 +397,10 @@ CREATE INDEX idx_transacciones_creado_en ON public.transacciones USING btree (cr
 
 
 --
--- Name: idx_transacciones_destino; Type: INDEX; Schema: public; Owner: -
+-- Name: idx_transacciones_destino_creado; Type: INDEX; Schema: public; Owner: -
 --
 
-CREATE INDEX idx_transacciones_destino ON public.transacciones USING btree (curp_destino);
+CREATE INDEX idx_transacciones_destino_creado ON public.transacciones USING btree (curp_destino, creado_en, id);
 
 
 --
@@ -256,10 +411,10 @@ CREATE INDEX idx_transacciones_event_estado ON public.transacciones USING btree
 
 
 --
--- Name: idx_transacciones_origen; Type: INDEX; Schema: public; Owner: -
+-- Name: idx_transacciones_origen_creado; Type: INDEX; Schema: public; Owner: -
 --
 
-CREATE INDEX idx_transacciones_origen ON public.transacciones USING btree (curp_origen);
+CREATE INDEX idx_transacciones_origen_creado ON public.transacciones USING btree (curp_origen, creado_en, id);
 
 
 --
@@ -23,6 +23,20 @@ declare -a services=(
 declare -a new_folder_services=(
 )
 
+# Módulo compartido de mensajería: account, audit y transaction dependen de él
+echo ""
+echo ">>> Instalando mensajeria..."
+cd "$BASE_DIR/mensajeria"
+
+mvn clean install -DskipTests
+
+if [ $? -eq 0 ]; then
+    echo "✓ mensajeria instalado exitosamente"
+else
+    echo "✗ Error instalando mensajeria"
+    exit 1
+fi
+
 # Compilar servicios en carpeta principal
 for service in "${services[@]}"; do
     echo ""
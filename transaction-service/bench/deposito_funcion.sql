@@ -0,0 +1,5 @@
+-- procesarEnBD con aplicar_evento_tx: 1 round trip (autocommit).
+\set u random(1, 1000)
+\set ev random(1, 2000000000)
+SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+FROM aplicar_evento_tx('bench-' || :client_id || '-' || :ev, 'DEPOSITO', NULL, 'BENCH' || lpad(:u::text, 13, '0'), 1.00, '{"bench": true}');
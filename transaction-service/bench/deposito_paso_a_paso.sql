@@ -0,0 +1,16 @@
+-- Camino anterior de procesarEnBD para un depósito nuevo: 7 round trips (BEGIN ... COMMIT).
+\set u random(1, 1000)
+\set ev random(1, 2000000000)
+BEGIN;
+INSERT INTO transacciones(event_id, curp_origen, curp_destino, monto, tipo, estado)
+VALUES ('bench-' || :client_id || '-' || :ev, NULL, 'BENCH' || lpad(:u::text, 13, '0'), 1.00, 'DEPOSITO', 'PENDIENTE')
+ON CONFLICT (event_id) DO NOTHING;
+SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+FROM transacciones WHERE event_id = 'bench-' || :client_id || '-' || :ev FOR UPDATE;
+UPDATE cuentas SET saldo_banco = saldo_banco - 1.00, saldo_billetera = saldo_billetera + 1.00, actualizado_en = NOW()
+WHERE curp = 'BENCH' || lpad(:u::text, 13, '0') AND saldo_banco >= 1.00;
+UPDATE transacciones SET estado = 'CONFIRMADA', confirmado_en = COALESCE(confirmado_en, NOW())
+WHERE event_id = 'bench-' || :client_id || '-' || :ev AND estado <> 'CONFIRMADA';
+INSERT INTO auditoria(transaccion_id, tipo_evento, payload_json)
+SELECT id, 'TRANSACCION_CONFIRMADA', '{"bench": true}'::jsonb FROM transacciones WHERE event_id = 'bench-' || :client_id || '-' || :ev;
+COMMIT;
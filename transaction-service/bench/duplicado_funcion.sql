@@ -0,0 +1,4 @@
+-- Redelivery con aplicar_evento_tx: 1 round trip, regresa la fila CONFIRMADA sin tocar saldos.
+\set ev random(1, 1000)
+SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+FROM aplicar_evento_tx('dup-' || :ev, 'DEPOSITO', NULL, 'BENCH' || lpad(:ev::text, 13, '0'), 1.00, '{"bench": true}');
@@ -0,0 +1,9 @@
+-- Camino anterior para una redelivery de un evento ya CONFIRMADO: 4 round trips.
+\set ev random(1, 1000)
+BEGIN;
+INSERT INTO transacciones(event_id, curp_origen, curp_destino, monto, tipo, estado)
+VALUES ('dup-' || :ev, NULL, 'BENCH' || lpad(:ev::text, 13, '0'), 1.00, 'DEPOSITO', 'PENDIENTE')
+ON CONFLICT (event_id) DO NOTHING;
+SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+FROM transacciones WHERE event_id = 'dup-' || :ev FOR UPDATE;
+COMMIT;
@@ -0,0 +1,6 @@
+-- Borra lo que dejaron preparar.sql y los pgbench (auditoria queda con transaccion_id NULL por el FK).
+DELETE FROM auditoria WHERE transaccion_id IN (
+    SELECT id FROM transacciones WHERE event_id LIKE 'bench-%' OR event_id LIKE 'dup-%'
+);
+DELETE FROM transacciones WHERE event_id LIKE 'bench-%' OR event_id LIKE 'dup-%';
+DELETE FROM usuarios WHERE curp LIKE 'BENCH%';
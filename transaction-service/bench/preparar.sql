@@ -0,0 +1,20 @@
+-- Datos para los pgbench de aplicar_evento_tx. Crear sobre una BD de pruebas, NUNCA sobre la real.
+-- 1000 cuentas BENCH0000000000001..1000 con saldo de sobra y 1000 depósitos ya CONFIRMADOS (dup-1..1000).
+
+INSERT INTO usuarios(curp, hash_contrasena, rol)
+SELECT 'BENCH' || lpad(g::text, 13, '0'), 'bench', 'USUARIO'
+FROM generate_series(1, 1000) g
+ON CONFLICT (curp) DO NOTHING;
+
+UPDATE cuentas
+SET saldo_banco = 100000000.00,
+    saldo_billetera = 100000000.00
+WHERE curp LIKE 'BENCH%';
+
+INSERT INTO transacciones(event_id, curp_origen, curp_destino, monto, tipo, estado, confirmado_en)
+SELECT 'dup-' || g, NULL, 'BENCH' || lpad(g::text, 13, '0'), 1.00, 'DEPOSITO', 'CONFIRMADA', now()
+FROM generate_series(1, 1000) g
+ON CONFLICT (event_id) DO NOTHING;
+
+VACUUM ANALYZE cuentas;
+VACUUM ANALYZE transacciones;
@@ -4,7 +4,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class AccountRepository {
@@ -87,4 +91,62 @@ public class AccountRepository {
             throw new BusinessException("Cuenta destino no encontrada");
         }
     }
+
+    /**
+     * Bloquea todas las cuentas de un lote en orden de curp (determinista, sin deadlocks entre réplicas)
+     * y regresa sus saldos. Las CURPs que no existen simplemente no aparecen en el mapa.
+     */
+    public Map<String, Saldos> lockCuentas(Collection<String> curps) {
+        Map<String, Saldos> saldos = new HashMap<>();
+        if (curps.isEmpty()) return saldos;
+
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                SELECT curp, saldo_banco, saldo_billetera
+                FROM cuentas
+                WHERE curp = ANY(?)
+                ORDER BY curp
+                FOR UPDATE
+            """);
+            ps.setArray(1, con.createArrayOf("varchar", curps.toArray()));
+            return ps;
+        }, rs -> {
+            saldos.put(rs.getString("curp"), new Saldos(rs.getBigDecimal("saldo_banco"), rs.getBigDecimal("saldo_billetera")));
+        });
+        return saldos;
+    }
+
+    /** Escribe los saldos finales de un lote en un solo UPDATE (las filas ya están bloqueadas). */
+    public void actualizarSaldos(Map<String, Saldos> saldos) {
+        if (saldos.isEmpty()) return;
+
+        int n = saldos.size();
+        String[] curps = new String[n];
+        BigDecimal[] bancos = new BigDecimal[n];
+        BigDecimal[] billeteras = new BigDecimal[n];
+        int i = 0;
+        for (Map.Entry<String, Saldos> e : saldos.entrySet()) {
+            curps[i] = e.getKey();
+            bancos[i] = e.getValue().banco();
+            billeteras[i] = e.getValue().billetera();
+            i++;
+        }
+
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                UPDATE cuentas c
+                SET saldo_banco = u.banco,
+                    saldo_billetera = u.billetera,
+                    actualizado_en = NOW()
+                FROM unnest(?::varchar[], ?::numeric[], ?::numeric[]) AS u(curp, banco, billetera)
+                WHERE c.curp = u.curp
+            """);
+            ps.setArray(1, con.createArrayOf("varchar", curps));
+            ps.setArray(2, con.createArrayOf("numeric", bancos));
+            ps.setArray(3, con.createArrayOf("numeric", billeteras));
+            return ps;
+        });
+    }
+
+    public record Saldos(BigDecimal banco, BigDecimal billetera) {}
 }
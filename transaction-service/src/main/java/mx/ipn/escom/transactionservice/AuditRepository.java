@@ -3,6 +3,8 @@ package mx.ipn.escom.transactionservice;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.PreparedStatement;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
@@ -20,4 +22,34 @@ public class AuditRepository {
             VALUES (?, ?, ?::jsonb)
         """, txId, tipoEvento, payloadJson);
     }
+
+    /** Varias filas de auditoría en un INSERT (payload como text[] y cast a jsonb por fila). */
+    public void insertarLote(List<Registro> registros) {
+        if (registros.isEmpty()) return;
+
+        int n = registros.size();
+        UUID[] txIds = new UUID[n];
+        String[] tipos = new String[n];
+        String[] payloads = new String[n];
+        for (int i = 0; i < n; i++) {
+            Registro r = registros.get(i);
+            txIds[i] = r.txId();
+            tipos[i] = r.tipoEvento();
+            payloads[i] = r.payloadJson();
+        }
+
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                INSERT INTO auditoria(transaccion_id, tipo_evento, payload_json)
+                SELECT u.tx_id, u.tipo_evento, u.payload::jsonb
+                FROM unnest(?::uuid[], ?::text[], ?::text[]) AS u(tx_id, tipo_evento, payload)
+            """);
+            ps.setArray(1, con.createArrayOf("uuid", txIds));
+            ps.setArray(2, con.createArrayOf("text", tipos));
+            ps.setArray(3, con.createArrayOf("text", payloads));
+            return ps;
+        });
+    }
+
+    public record Registro(UUID txId, String tipoEvento, String payloadJson) {}
 }
@@ -0,0 +1,207 @@
+package mx.ipn.escom.transactionservice;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Límite adaptativo de eventos admitidos hacia la BD (recibidos y aún sin resultado de BD).
+ * El receiver de Pub/Sub pide un permiso antes de encolar en LoteadorEventos; si no hay, su hilo
+ * espera, Pub/Sub deja de entregar y el flow control del Subscriber frena el pull.
+ *
+ * AIMD cada tx.flujo.intervalo-ms:
+ * - latencia media de lote > objetivo, o hilos esperando conexión en Hikari => límite * factor-baja
+ * - si no, y el límite se está usando (>= 80%)                              => límite + paso
+ * Así cada réplica sube hasta donde su pool y la BD responden a tiempo y baja antes de que las
+ * esperas por conexión terminen en timeouts.
+ */
+@Component
+public class ControlFlujoBd {
+
+    private static final Logger log = LoggerFactory.getLogger(ControlFlujoBd.class);
+
+    private final boolean adaptativo;
+    private final int limiteMin;
+    private final int limiteMax;
+    private final long objetivoNs;
+    private final int paso;
+    private final double factorBaja;
+    private final long intervaloMs;
+
+    // Spring Boot arranca el pool de Hikari con la primera getConnection(): hasta entonces no hay MXBean,
+    // así que se busca en cada observación hasta encontrarlo y de ahí se reutiliza
+    private final HikariDataSource hikari;
+    private volatile HikariPoolMXBean pool;
+
+    private final ReentrantLock candado = new ReentrantLock();
+    private final Condition hayPermiso = candado.newCondition();
+    private int limite;
+    private int enVuelo;
+
+    // Ventana actual de observaciones (se reinicia en cada ajuste)
+    private final LongAdder lotesVentana = new LongAdder();
+    private final LongAdder nanosVentana = new LongAdder();
+    private final AtomicInteger maxEsperandoConexion = new AtomicInteger();
+
+    private final AtomicLong subidas = new AtomicLong();
+    private final AtomicLong bajadas = new AtomicLong();
+
+    private ScheduledExecutorService ajustador;
+
+    public ControlFlujoBd(DataSource dataSource,
+                          @Value("${tx.flujo.adaptativo:true}") boolean adaptativo,
+                          @Value("${tx.flujo.limite-inicial:200}") int limiteInicial,
+                          @Value("${tx.flujo.limite-min:20}") int limiteMin,
+                          @Value("${tx.flujo.limite-max:1000}") int limiteMax,
+                          @Value("${tx.flujo.latencia-objetivo-ms:200}") long objetivoMs,
+                          @Value("${tx.flujo.paso:10}") int paso,
+                          @Value("${tx.flujo.factor-baja:0.75}") double factorBaja,
+                          @Value("${tx.flujo.intervalo-ms:1000}") long intervaloMs) {
+        this.adaptativo = adaptativo;
+        this.limiteMin = Math.max(1, limiteMin);
+        this.limiteMax = Math.max(this.limiteMin, limiteMax);
+        this.limite = Math.min(this.limiteMax, Math.max(this.limiteMin, limiteInicial));
+        this.objetivoNs = TimeUnit.MILLISECONDS.toNanos(objetivoMs);
+        this.paso = Math.max(1, paso);
+        this.factorBaja = factorBaja;
+        this.intervaloMs = intervaloMs;
+        this.hikari = (dataSource instanceof HikariDataSource h) ? h : null;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!adaptativo) {
+            log.info("ℹ Control de flujo adaptativo deshabilitado (solo flow control de Pub/Sub)");
+            return;
+        }
+        ajustador = Executors.newSingleThreadScheduledExecutor(new NamedNonDaemonFactory("tx-flujo"));
+        ajustador.scheduleWithFixedDelay(this::ajustar, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+        log.info("✔ Control de flujo adaptativo. limite={} [{}..{}], objetivo={} ms, hikari={}",
+                limite, limiteMin, limiteMax, TimeUnit.NANOSECONDS.toMillis(objetivoNs), hikari != null);
+    }
+
+    /** Bloquea hasta que haya permiso. InterruptedException => el llamador hace NACK. */
+    public void adquirir() throws InterruptedException {
+        if (!adaptativo) return;
+        candado.lockInterruptibly();
+        try {
+            while (enVuelo >= limite) hayPermiso.await();
+            enVuelo++;
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    public void liberar(int permisos) {
+        if (!adaptativo || permisos <= 0) return;
+        candado.lock();
+        try {
+            enVuelo = Math.max(0, enVuelo - permisos);
+            hayPermiso.signalAll();
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /** Duración de un lote en la BD (procesarLote + caídas al camino individual). */
+    public void observar(long duracionNs) {
+        if (!adaptativo) return;
+        lotesVentana.increment();
+        nanosVentana.add(duracionNs);
+        HikariPoolMXBean p = pool();
+        if (p != null) maxEsperandoConexion.accumulateAndGet(p.getThreadsAwaitingConnection(), Math::max);
+    }
+
+    private HikariPoolMXBean pool() {
+        HikariPoolMXBean p = pool;
+        if (p == null && hikari != null) {
+            p = hikari.getHikariPoolMXBean();
+            if (p != null) pool = p;
+        }
+        return p;
+    }
+
+    /** Un paso del AIMD; lo programa iniciar() cada intervalo-ms. */
+    void ajustar() {
+        try {
+            long lotes = lotesVentana.sumThenReset();
+            long nanos = nanosVentana.sumThenReset();
+            int esperando = maxEsperandoConexion.getAndSet(0);
+            HikariPoolMXBean p = pool();
+            if (p != null) esperando = Math.max(esperando, p.getThreadsAwaitingConnection());
+            long promedioNs = lotes == 0 ? 0 : nanos / lotes;
+
+            candado.lock();
+            try {
+                int anterior = limite;
+                if (esperando > 0 || promedioNs > objetivoNs) {
+                    limite = Math.max(limiteMin, (int) (limite * factorBaja));
+                } else if (enVuelo >= limite * 0.8) {
+                    limite = Math.min(limiteMax, limite + paso);
+                }
+
+                if (limite > anterior) {
+                    subidas.incrementAndGet();
+                    hayPermiso.signalAll();
+                } else if (limite < anterior) {
+                    bajadas.incrementAndGet();
+                    log.info("ℹ Límite de flujo {} -> {} (latenciaLote={} ms, esperandoConexion={})",
+                            anterior, limite, TimeUnit.NANOSECONDS.toMillis(promedioNs), esperando);
+                }
+            } finally {
+                candado.unlock();
+            }
+        } catch (Exception e) {
+            log.warn("⚠ Error ajustando control de flujo: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        candado.lock();
+        try {
+            stats.put("adaptativo", adaptativo);
+            stats.put("limite", limite);
+            stats.put("enVuelo", enVuelo);
+        } finally {
+            candado.unlock();
+        }
+        stats.put("subidas", subidas.get());
+        stats.put("bajadas", bajadas.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (ajustador != null) ajustador.shutdownNow();
+    }
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package mx.ipn.escom.transactionservice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.pubsub.v1.PubsubMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Lee un mensaje de tx-events en una sola pasada con JsonParser, sin JsonNode intermedio.
+ * Cada alias de la raíz del JSON se resuelve en un switch a (campo, prioridad) y se queda el de mayor
+ * prioridad, igual que la cadena de firstNonBlank de antes:
+ * - eventId:   attr event_id, attr txId, event_id, txId, id
+ * - tipo:      attr tipo, tipo, type
+ * - curps:     curp_origen/fromCurp (o curp_destino/toCurp), luego los mismos en attributes
+ * - monto:     monto, amount, luego attributes
+ * Solo valores escalares de la raíz; objetos/arreglos anidados se saltan. Vacíos cuentan como ausentes.
+ */
+public final class EventoCodec {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final int EVENT_ID = 0;
+    private static final int TIPO = 1;
+    private static final int CURP_ORIGEN = 2;
+    private static final int CURP_DESTINO = 3;
+    private static final int MONTO = 4;
+
+    private static final int SIN_VALOR = Integer.MAX_VALUE;
+
+    /** Campos del evento; cualquiera puede ser null si no vino (el llamador decide si es malformado). */
+    public record Campos(String eventId, String tipo, String curpOrigen, String curpDestino, BigDecimal monto) {}
+
+    private EventoCodec() {}
+
+    /** NumberFormatException si el monto elegido no es número; IOException si el JSON es inválido. */
+    public static Campos leer(PubsubMessage message) throws IOException {
+        String[] textos = new String[4];
+        int[] prioridades = {SIN_VALOR, SIN_VALOR, SIN_VALOR, SIN_VALOR, SIN_VALOR};
+        BigDecimal monto = null;
+        boolean montoInvalido = false;
+
+        try (InputStream in = message.getData().newInput();
+             JsonParser p = JSON.createParser(in)) {
+
+            if (p.nextToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String clave = p.currentName();
+                    JsonToken valor = p.nextToken();
+
+                    if (valor == JsonToken.START_OBJECT || valor == JsonToken.START_ARRAY) {
+                        p.skipChildren();
+                        continue;
+                    }
+
+                    int campo;
+                    int prioridad;
+                    switch (clave) {
+                        case "event_id" -> { campo = EVENT_ID; prioridad = 2; }
+                        case "txId" -> { campo = EVENT_ID; prioridad = 3; }
+                        case "id" -> { campo = EVENT_ID; prioridad = 4; }
+                        case "tipo" -> { campo = TIPO; prioridad = 1; }
+                        case "type" -> { campo = TIPO; prioridad = 2; }
+                        case "curp_origen" -> { campo = CURP_ORIGEN; prioridad = 0; }
+                        case "fromCurp" -> { campo = CURP_ORIGEN; prioridad = 1; }
+                        case "curp_destino" -> { campo = CURP_DESTINO; prioridad = 0; }
+                        case "toCurp" -> { campo = CURP_DESTINO; prioridad = 1; }
+                        case "monto" -> { campo = MONTO; prioridad = 0; }
+                        case "amount" -> { campo = MONTO; prioridad = 1; }
+                        default -> { continue; }
+                    }
+
+                    // <= : con claves repetidas gana la última, como en readTree
+                    if (valor == JsonToken.VALUE_NULL || prioridad > prioridades[campo]) continue;
+
+                    if (campo == MONTO) {
+                        if (valor == JsonToken.VALUE_NUMBER_INT || valor == JsonToken.VALUE_NUMBER_FLOAT) {
+                            monto = p.getDecimalValue();
+                            montoInvalido = false;
+                        } else {
+                            if (esBlanco(p)) continue;
+                            try {
+                                monto = new BigDecimal(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                                montoInvalido = false;
+                            } catch (NumberFormatException e) {
+                                monto = null;
+                                montoInvalido = true;
+                            }
+                        }
+                        prioridades[MONTO] = prioridad;
+                    } else {
+                        if (esBlanco(p)) continue;
+                        textos[campo] = p.getText();
+                        prioridades[campo] = prioridad;
+                    }
+                }
+            }
+        }
+
+        // Attributes: antes que el cuerpo para eventId/tipo, después para curps/monto
+        Map<String, String> attrs = message.getAttributesMap();
+        String eventId = primero(attrs.get("event_id"), attrs.get("txId"), textos[EVENT_ID]);
+        String tipo = primero(attrs.get("tipo"), textos[TIPO]);
+        String curpOrigen = primero(textos[CURP_ORIGEN], attrs.get("curp_origen"), attrs.get("fromCurp"));
+        String curpDestino = primero(textos[CURP_DESTINO], attrs.get("curp_destino"), attrs.get("toCurp"));
+
+        if (montoInvalido) throw new NumberFormatException("monto inválido en event_id=" + eventId);
+        if (prioridades[MONTO] == SIN_VALOR) {
+            String montoAttr = primero(attrs.get("monto"), attrs.get("amount"));
+            if (montoAttr != null) monto = new BigDecimal(montoAttr);
+        }
+
+        return new Campos(eventId, tipo, curpOrigen, curpDestino, monto);
+    }
+
+    /** Texto vacío o solo espacios, revisado sobre el buffer del parser (sin crear String). */
+    private static boolean esBlanco(JsonParser p) throws IOException {
+        char[] buf = p.getTextCharacters();
+        int fin = p.getTextOffset() + p.getTextLength();
+        for (int i = p.getTextOffset(); i < fin; i++) {
+            if (!Character.isWhitespace(buf[i])) return false;
+        }
+        return true;
+    }
+
+    private static String primero(String... valores) {
+        for (String v : valores) {
+            if (v != null && !v.isBlank()) return v;
+        }
+        return null;
+    }
+}
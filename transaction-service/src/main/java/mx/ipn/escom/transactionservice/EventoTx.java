@@ -0,0 +1,61 @@
+package mx.ipn.escom.transactionservice;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/** Evento de tx-events ya parseado (antes de tocar la BD). */
+public record EventoTx(
+        String eventId,
+        TxType tipo,
+        String curpOrigen,
+        String curpDestino,
+        BigDecimal monto,
+        String payloadOriginal
+) {
+    private static final int MAX_CURP = 18;                                        // varchar(18)
+    private static final BigDecimal MAX_MONTO = new BigDecimal("999999999999.99"); // numeric(14,2)
+
+    /** Misma normalización que TransactionRepository.insertIfAbsent (para cumplir chk_tx_campos_por_tipo). */
+    public EventoTx normalizado() {
+        String o = curpOrigen;
+        String d = curpDestino;
+
+        if (tipo == TxType.DEPOSITO) {
+            if (d == null && o != null) d = o;
+            o = null;
+        } else if (tipo == TxType.RETIRO) {
+            if (o == null && d != null) o = d;
+            d = null;
+        }
+        return new EventoTx(eventId, tipo, o, d, monto, payloadOriginal);
+    }
+
+    /**
+     * CURP de la cuenta que origina el movimiento (la ordering key con la que account-service publica):
+     * curp_origen en RETIRO/TRANSFERENCIA, curp_destino en DEPOSITO. El destino de una TRANSFERENCIA
+     * no entra en la clave: transferencias de orígenes distintos al mismo destino van a carriles
+     * distintos y se esperan en el lock de esa cuenta (ver LoteadorEventos).
+     */
+    public String claveParticion() {
+        EventoTx n = normalizado();
+        return n.curpOrigen() != null ? n.curpOrigen() : n.curpDestino();
+    }
+
+    /**
+     * true si el INSERT no violaría ningún CHECK de transacciones.
+     * En un INSERT multi-fila una sola fila inválida tumba todo el lote; esas van por el camino individual.
+     */
+    public boolean insertable() {
+        if (monto == null) return false;
+        BigDecimal redondeado = monto.setScale(2, RoundingMode.HALF_UP); // como lo guarda numeric(14,2)
+        if (redondeado.signum() <= 0 || redondeado.compareTo(MAX_MONTO) > 0) return false;
+        if (!curpValida(curpOrigen, tipo != TxType.DEPOSITO)) return false;
+        if (!curpValida(curpDestino, tipo != TxType.RETIRO)) return false;
+        return tipo != TxType.TRANSFERENCIA || !curpOrigen.equals(curpDestino);
+    }
+
+    private static boolean curpValida(String curp, boolean requerida) {
+        if (curp == null) return !requerida;
+        return requerida && curp.length() <= MAX_CURP;
+    }
+}
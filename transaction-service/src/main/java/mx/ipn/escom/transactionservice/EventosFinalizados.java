@@ -0,0 +1,86 @@
+package mx.ipn.escom.transactionservice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * event_ids que ESTA réplica ya dejó en estado final (y cuya confirmación ya se publicó).
+ * Una redelivery que aparece aquí se hace ACK sin abrir transacción ni tomar locks.
+ *
+ * Dos generaciones por tiempo: se busca en la actual y en la anterior, y cada tx.dedup.ventana-s
+ * (o al llegar a max-por-generacion ids) la anterior se descarta. Memoria acotada a ~2 generaciones.
+ * Es un set exacto y no un filtro de Bloom: un falso positivo haría ACK de un evento que nunca se
+ * aplicó. Un fallo (evento de otra réplica, reinicio, generación descartada) solo significa ir a la BD.
+ */
+@Component
+public class EventosFinalizados {
+
+    private static final Logger log = LoggerFactory.getLogger(EventosFinalizados.class);
+
+    private final boolean habilitado;
+    private final long ventanaNs;
+    private final int maxPorGeneracion;
+
+    private volatile Set<String> actual = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> anterior = ConcurrentHashMap.newKeySet();
+    private volatile long inicioActual = System.nanoTime();
+
+    // Solo protege la rotación. Se toma con tryLock: quien no lo obtiene sigue sin esperar
+    private final ReentrantLock rotacion = new ReentrantLock();
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    public EventosFinalizados(@Value("${tx.dedup.enabled:true}") boolean habilitado,
+                              @Value("${tx.dedup.ventana-s:600}") long ventanaSegundos,
+                              @Value("${tx.dedup.max-por-generacion:200000}") int maxPorGeneracion) {
+        this.habilitado = habilitado;
+        this.ventanaNs = TimeUnit.SECONDS.toNanos(Math.max(1, ventanaSegundos));
+        this.maxPorGeneracion = Math.max(1, maxPorGeneracion);
+    }
+
+    /** true si el evento ya se finalizó aquí hace menos de 1-2 ventanas. false => ir a la BD. */
+    public boolean contiene(String eventId) {
+        if (!habilitado || eventId == null) return false;
+        rotarSiToca();
+
+        boolean hit = actual.contains(eventId) || anterior.contains(eventId);
+        (hit ? aciertos : fallos).increment();
+        return hit;
+    }
+
+    /** Llamar solo cuando ya no hace falta repetir nada (estado final en BD y tx-confirmed publicado). */
+    public void registrar(String eventId) {
+        if (!habilitado || eventId == null) return;
+        rotarSiToca();
+        actual.add(eventId);
+    }
+
+    private void rotarSiToca() {
+        if (System.nanoTime() - inicioActual < ventanaNs && actual.size() < maxPorGeneracion) return;
+        // Otro hilo ya está rotando: seguir con las generaciones de antes no es incorrecto
+        if (!rotacion.tryLock()) return;
+        try {
+            long ahora = System.nanoTime();
+            if (ahora - inicioActual < ventanaNs && actual.size() < maxPorGeneracion) return;
+
+            Set<String> saliente = actual;
+            anterior = saliente;
+            actual = ConcurrentHashMap.newKeySet();
+            inicioActual = ahora;
+
+            log.info("ℹ Rotación de eventos finalizados. generacion={} ids, aciertos={}, fallos={}",
+                    saliente.size(), aciertos.sum(), fallos.sum());
+        } finally {
+            rotacion.unlock();
+        }
+    }
+}
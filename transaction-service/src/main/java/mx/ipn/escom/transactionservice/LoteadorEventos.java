@@ -0,0 +1,314 @@
+package mx.ipn.escom.transactionservice;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.pubsub.v1.PubsubMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.PoliticaReintentos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Etapa de lotes entre TransactionSubscriber y la BD.
+ * Junta hasta tx.lote.max-eventos mensajes (o lo que llegue en tx.lote.max-espera-ms desde el primero)
+ * y los aplica con TransactionProcessor.procesarLote en una sola transacción.
+ * ACK/NACK sigue siendo por mensaje: un FALLIDA de negocio se confirma y se hace ACK como antes;
+ * si el lote entero falla, cada mensaje se reintenta solo con procesarEnBD y solo el culpable hace NACK.
+ * Los CONFIRMADA hacen ACK cuando Pub/Sub confirma la publicación en tx-confirmed (callback del
+ * future), así el hilo queda libre para el siguiente lote mientras las confirmaciones viajan.
+ *
+ * Modo particionado (tx.lote.particionado=true): en vez de una cola compartida por todos los hilos,
+ * cada hilo es un carril con su propia cola y el evento va al carril hash(CURP origen) mod hilos.
+ * Todo lo de una misma cuenta origen lo procesa un solo hilo, en orden de llegada, así que dos hilos
+ * de esta réplica no compiten por el lock de esa cuenta como origen. Entre réplicas lo reparte Pub/Sub
+ * con la ordering key (ver TransferPublisher en account-service y la suscripción con ordenamiento).
+ * Límite: la clave es solo el origen. Transferencias de orígenes distintos a un mismo destino caen
+ * en carriles (o réplicas) distintos y sí se esperan en lockCuentas por la fila del destino; lo mismo
+ * una cuenta que es origen en un carril y destino en otro. Solo se evita la espera por el origen.
+ *
+ * Redeliveries de eventos que esta réplica ya terminó (EventosFinalizados) se hacen ACK al recibirse,
+ * sin pasar por la BD. Los fallos no hacen nack() directo: van a PoliticaReintentos (backoff y dead-letter).
+ * Cada evento admitido toma un permiso de ControlFlujoBd y lo devuelve al tener resultado de BD.
+ */
+@Component
+public class LoteadorEventos {
+
+    private static final Logger log = LoggerFactory.getLogger(LoteadorEventos.class);
+
+    @Value("${tx.lote.enabled:true}")
+    private boolean habilitado;
+
+    @Value("${tx.lote.max-eventos:100}")
+    private int maxEventos;
+
+    @Value("${tx.lote.max-espera-ms:20}")
+    private long maxEsperaMs;
+
+    @Value("${tx.lote.hilos:2}")
+    private int hilos;
+
+    @Value("${tx.lote.particionado:false}")
+    private boolean particionado;
+
+    private final TransactionProcessor processor;
+    private final PublicadorConfirmaciones publicador;
+    private final EventosFinalizados finalizados;
+    private final PoliticaReintentos politica;
+    private final ControlFlujoBd flujo;
+
+    // Una cola compartida, o una por carril en modo particionado.
+    // Acotadas de hecho por el flow control del Subscriber (mensajes sin ACK pendientes)
+    private List<LinkedBlockingQueue<Pendiente>> colas = List.of();
+
+    private ExecutorService trabajadores;
+    private volatile boolean activo;
+
+    public LoteadorEventos(TransactionProcessor processor,
+                           PublicadorConfirmaciones publicador,
+                           EventosFinalizados finalizados,
+                           PoliticaReintentos politica,
+                           ControlFlujoBd flujo) {
+        this.processor = processor;
+        this.publicador = publicador;
+        this.finalizados = finalizados;
+        this.politica = politica;
+        this.flujo = flujo;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!habilitado) {
+            log.info("ℹ Lotes deshabilitados: un mensaje por transacción de BD");
+            return;
+        }
+
+        List<LinkedBlockingQueue<Pendiente>> nuevas = new ArrayList<>();
+        for (int i = 0; i < (particionado ? hilos : 1); i++) {
+            nuevas.add(new LinkedBlockingQueue<>());
+        }
+        colas = List.copyOf(nuevas);
+
+        activo = true;
+        trabajadores = Executors.newFixedThreadPool(hilos, new NamedNonDaemonFactory(particionado ? "tx-carril" : "tx-lote"));
+        for (int i = 0; i < hilos; i++) {
+            LinkedBlockingQueue<Pendiente> cola = colas.get(particionado ? i : 0);
+            trabajadores.execute(() -> ciclo(cola));
+        }
+        log.info("✔ LoteadorEventos listo. maxEventos={}, maxEsperaMs={}, hilos={}, particionado={}",
+                maxEventos, maxEsperaMs, hilos, particionado);
+    }
+
+    /** Entrada desde el MessageReceiver; el ACK/NACK lo hace este componente cuando se procesa. */
+    public void recibir(EventoTx evento, PubsubMessage mensaje, AckReplyConsumer consumer) {
+        Pendiente p = new Pendiente(evento, mensaje, consumer);
+        if (finalizados.contiene(evento.eventId())) {
+            log.info("ℹ Redelivery de evento ya finalizado en esta réplica. ACK sin BD. event_id={}", evento.eventId());
+            ack(p);
+            return;
+        }
+
+        try {
+            // Sin permiso este hilo del Subscriber espera: Pub/Sub deja de entregar hasta que la BD alcance
+            flujo.adquirir();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            consumer.nack();
+            return;
+        }
+
+        if (!habilitado) {
+            long inicio = System.nanoTime();
+            try {
+                completar(p, null, new HashMap<>());
+            } finally {
+                flujo.observar(System.nanoTime() - inicio);
+                flujo.liberar(1);
+            }
+            return;
+        }
+        colas.get(carril(evento)).add(p);
+    }
+
+    /** Carril del evento: misma CURP origen (la ordering key de tx-events) => mismo carril. */
+    private int carril(EventoTx evento) {
+        if (colas.size() == 1) return 0;
+        String clave = evento.claveParticion();
+        return clave == null ? 0 : Math.floorMod(clave.hashCode(), colas.size());
+    }
+
+    private void ciclo(LinkedBlockingQueue<Pendiente> cola) {
+        List<Pendiente> lote = new ArrayList<>(maxEventos);
+        while (activo || !cola.isEmpty()) {
+            try {
+                Pendiente primero = cola.poll(200, TimeUnit.MILLISECONDS);
+                if (primero == null) continue;
+                lote.add(primero);
+
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxEsperaMs);
+                while (lote.size() < maxEventos) {
+                    cola.drainTo(lote, maxEventos - lote.size());
+                    if (lote.size() >= maxEventos) break;
+
+                    long restante = limite - System.nanoTime();
+                    if (restante <= 0) break;
+                    Pendiente siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) break;
+                    lote.add(siguiente);
+                }
+
+                procesar(lote);
+                lote.clear();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("❌ Error inesperado en LoteadorEventos", e);
+                lote.forEach(p -> politica.fallo(p.mensaje(), p.consumer(), e));
+                lote.clear();
+            }
+        }
+        // Interrumpido a media espera: lo no procesado vuelve a Pub/Sub
+        flujo.liberar(lote.size());
+        lote.forEach(p -> p.consumer().nack());
+    }
+
+    private void procesar(List<Pendiente> lote) {
+        long inicio = System.nanoTime();
+        try {
+            procesarEnBd(lote);
+        } finally {
+            flujo.observar(System.nanoTime() - inicio);
+            flujo.liberar(lote.size());
+        }
+    }
+
+    private void procesarEnBd(List<Pendiente> lote) {
+        Map<String, TxRow> resultados = Map.of();
+        try {
+            resultados = processor.procesarLote(lote.stream().map(Pendiente::evento).toList());
+        } catch (Exception e) {
+            log.warn("⚠ Falló el lote de {} eventos; se procesan uno por uno. error={}", lote.size(), e.getMessage());
+        }
+
+        Map<String, ApiFuture<String>> publicados = new HashMap<>();
+        for (Pendiente p : lote) {
+            completar(p, resultados.get(p.evento().eventId()), publicados);
+        }
+    }
+
+    /**
+     * Publica la confirmación (si quedó CONFIRMADA) y hace ACK al completarse; cualquier error => NACK.
+     * Sin resultado del lote (fuera de él o lote fallido) se procesa solo, en su propia transacción.
+     */
+    private void completar(Pendiente p, TxRow result, Map<String, ApiFuture<String>> publicados) {
+        EventoTx e = p.evento();
+        try {
+            if (result == null) {
+                result = processor.procesarEnBD(e.eventId(), e.tipo(), e.curpOrigen(), e.curpDestino(), e.monto(), e.payloadOriginal());
+            }
+
+            if ("CONFIRMADA".equalsIgnoreCase(result.estado())) {
+                // Duplicados dentro del mismo lote: una sola confirmación, todos esperan el mismo future
+                ApiFuture<String> publicacion = publicados.get(result.eventId());
+                if (publicacion == null) {
+                    publicacion = publicador.publicarConfirmacion(
+                            result.eventId(),
+                            result.tipo().name(),
+                            result.curpOrigen(),
+                            result.curpDestino(),
+                            result.monto(),
+                            e.payloadOriginal()
+                    );
+                    publicados.put(result.eventId(), publicacion);
+                }
+                ackAlPublicar(p, result.eventId(), publicacion);
+                return;
+            }
+
+            log.info("ℹ Transacción no confirmada (estado={}). No se publica tx-confirmed. event_id={}",
+                    result.estado(), result.eventId());
+            if ("FALLIDA".equalsIgnoreCase(result.estado())) finalizados.registrar(result.eventId());
+            ack(p);
+        } catch (Exception ex) {
+            // PoliticaReintentos loguea (sin payload salvo al mandarlo a dead-letter) y programa el NACK
+            politica.fallo(p.mensaje(), p.consumer(), ex);
+        }
+    }
+
+    private void ack(Pendiente p) {
+        politica.exito(p.mensaje());
+        p.consumer().ack();
+    }
+
+    private void ackAlPublicar(Pendiente p, String eventId, ApiFuture<String> publicacion) {
+        // El callback es solo ack/nack + log: directExecutor (corre en el hilo que completa el future)
+        ApiFutures.addCallback(publicacion, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(String messageId) {
+                log.info("✔ Publicada confirmación a tx-confirmed. event_id={}", eventId);
+                // Hasta aquí: si la publicación falla, la redelivery debe volver a publicarla
+                finalizados.registrar(eventId);
+                ack(p);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // La transacción ya quedó CONFIRMADA en BD: el reintento solo vuelve a publicar
+                log.error("❌ No se pudo publicar en tx-confirmed. event_id={} error={}", eventId, t.toString());
+                politica.fallo(p.mensaje(), p.consumer(), t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (trabajadores == null) return;
+
+        // El Subscriber ya se detuvo (depende de este bean): terminar lo encolado y salir
+        activo = false;
+        trabajadores.shutdown();
+        try {
+            if (!trabajadores.awaitTermination(10, TimeUnit.SECONDS)) trabajadores.shutdownNow();
+        } catch (Exception e) {
+            trabajadores.shutdownNow();
+        }
+
+        for (LinkedBlockingQueue<Pendiente> cola : colas) {
+            Pendiente p;
+            while ((p = cola.poll()) != null) {
+                flujo.liberar(1);
+                p.consumer().nack();
+            }
+        }
+    }
+
+    private record Pendiente(EventoTx evento, PubsubMessage mensaje, AckReplyConsumer consumer) {}
+
+    private static class NamedNonDaemonFactory implements ThreadFactory {
+        private final String base;
+        private final AtomicInteger n = new AtomicInteger(1);
+        NamedNonDaemonFactory(String base) { this.base = base; }
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, base + "-" + n.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
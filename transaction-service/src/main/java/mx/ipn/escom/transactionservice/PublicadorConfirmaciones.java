@@ -2,12 +2,16 @@ package mx.ipn.escom.transactionservice;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.core.ApiFuture;
-import com.google.cloud.pubsub.v1.Publisher;
 import com.google.protobuf.ByteString;
-import com.google.pubsub.v1.ProjectTopicName;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.pubsub.v1.PubsubMessage;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.Broker;
+import mx.ipn.escom.mensajeria.FormatoBinario;
+import mx.ipn.escom.mensajeria.Mensajeria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -15,42 +19,72 @@ import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Publica en tx-confirmed sin bloquear: regresa el future de Pub/Sub y el llamador decide qué
+ * hacer al completarse (LoteadorEventos hace ACK del tx-events original en ese momento).
+ * El Publisher junta mensajes según gcp.pubsub.confirmed.batch.* antes de mandarlos.
+ * Pub/Sub o broker local según {@link Mensajeria}.
+ */
 @Component
 public class PublicadorConfirmaciones {
 
-    @Value("${gcp.project-id}")
-    private String projectId;
+    private static final Logger log = LoggerFactory.getLogger(PublicadorConfirmaciones.class);
 
     @Value("${gcp.pubsub.confirmed-topic-id}")
     private String confirmedTopicId;
 
-    private Publisher publisher;
+    @Value("${gcp.pubsub.confirmed.batch.element-count:100}")
+    private long batchElementos;
+
+    @Value("${gcp.pubsub.confirmed.batch.request-bytes:262144}")
+    private long batchBytes;
+
+    @Value("${gcp.pubsub.confirmed.batch.delay-ms:10}")
+    private long batchDelayMs;
+
+    // json | binario (FormatoBinario). El binario no lleva payload_original
+    @Value("${gcp.pubsub.confirmed.formato:json}")
+    private String formato;
+
+    private boolean binario;
+
+    private final Mensajeria mensajeria;
+    private Broker.Publicador publisher;
     private final ObjectMapper mapper = new ObjectMapper();
 
+    public PublicadorConfirmaciones(Mensajeria mensajeria) {
+        this.mensajeria = mensajeria;
+    }
+
     @PostConstruct
     public void iniciar() throws Exception {
-        ProjectTopicName topicName = ProjectTopicName.of(projectId, confirmedTopicId);
-        publisher = Publisher.newBuilder(topicName).build();
-        System.out.println("✔ PublicadorConfirmaciones listo. Topic: " + confirmedTopicId);
+        binario = "binario".equalsIgnoreCase(formato);
+        publisher = mensajeria.publicador(confirmedTopicId,
+                new Broker.ConfigPublicador(batchElementos, batchBytes, batchDelayMs, false));
+        log.info("✔ PublicadorConfirmaciones listo. Topic: {} (batch: {} msgs / {} bytes / {} ms, formato: {})",
+                confirmedTopicId, batchElementos, batchBytes, batchDelayMs, binario ? "binario" : "json");
     }
 
     @PreDestroy
     public void cerrar() throws Exception {
-        if (publisher != null) {
-            publisher.shutdown();
-            publisher.awaitTermination(10, TimeUnit.SECONDS);
-        }
+        if (publisher != null) publisher.cerrar();
     }
 
-    public void publicarConfirmacion(String eventId,
+    /** Encola la confirmación en el Publisher; el future se completa con el messageId o con el error. */
+    public ApiFuture<String> publicarConfirmacion(String eventId,
                                      String tipo,
                                      String curpOrigen,
                                      String curpDestino,
                                      BigDecimal monto,
                                      String payloadOriginal) throws Exception {
 
+        if (binario) {
+            byte[] datos = FormatoBinario.codificarConfirmacion(
+                    eventId, tipo, curpOrigen, curpDestino, monto, System.currentTimeMillis());
+            return publisher.publicar(mensaje(eventId, UnsafeByteOperations.unsafeWrap(datos), FormatoBinario.BINARIO));
+        }
+
         Map<String, Object> payload = new HashMap<>();
         payload.put("event_id", eventId);
         payload.put("tipo_evento", "TRANSACCION_CONFIRMADA");
@@ -62,14 +96,15 @@ public class PublicadorConfirmaciones {
         payload.put("payload_original", payloadOriginal);
 
         String json = mapper.writeValueAsString(payload);
+        return publisher.publicar(mensaje(eventId, ByteString.copyFromUtf8(json), FormatoBinario.JSON));
+    }
 
-        PubsubMessage msg = PubsubMessage.newBuilder()
-                .setData(ByteString.copyFromUtf8(json))
+    private PubsubMessage mensaje(String eventId, ByteString datos, String contentType) {
+        return PubsubMessage.newBuilder()
+                .setData(datos)
                 .putAttributes("event_id", eventId)
                 .putAttributes("tipo_evento", "TRANSACCION_CONFIRMADA")
+                .putAttributes(FormatoBinario.ATRIBUTO, contentType)
                 .build();
-
-        ApiFuture<String> fut = publisher.publish(msg);
-        fut.get(10, TimeUnit.SECONDS);
     }
 }
@@ -0,0 +1,36 @@
+package mx.ipn.escom.transactionservice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.ipn.escom.mensajeria.Mensajeria;
+import mx.ipn.escom.mensajeria.PoliticaReintentos;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * PoliticaReintentos (módulo mensajeria) registrada como bean con los pubsub.reintentos.* del
+ * servicio, sobre el mismo broker que Mensajeria. Los subscribers la inyectan como PoliticaReintentos.
+ */
+@Component
+public class ReintentosPubSub extends PoliticaReintentos {
+
+    public ReintentosPubSub(Mensajeria mensajeria,
+                            @Value("${pubsub.reintentos.max-intentos:5}") int maxIntentos,
+                            @Value("${pubsub.reintentos.backoff-inicial-ms:1000}") long backoffInicialMs,
+                            @Value("${pubsub.reintentos.backoff-max-ms:60000}") long backoffMaxMs,
+                            @Value("${pubsub.reintentos.dead-letter-topic-id:}") String deadLetterTopicId) {
+        super(mensajeria, maxIntentos, backoffInicialMs, backoffMaxMs, deadLetterTopicId);
+    }
+
+    @PostConstruct
+    @Override
+    public void iniciar() throws Exception {
+        super.iniciar();
+    }
+
+    @PreDestroy
+    @Override
+    public void detener() throws Exception {
+        super.detener();
+    }
+}
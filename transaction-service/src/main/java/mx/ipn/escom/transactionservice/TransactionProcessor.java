@@ -1,30 +1,68 @@
 package mx.ipn.escom.transactionservice;
 
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 @Component
 public class TransactionProcessor {
 
+    private static final Logger log = LoggerFactory.getLogger(TransactionProcessor.class);
+
     private final TransactionTemplate txTemplate;
     private final TransactionRepository txRepo;
     private final AccountRepository accountRepo;
     private final AuditRepository auditRepo;
+    // Se apaga en verificarFuncionBd si la BD no tiene la función
+    private boolean funcionBd;
 
     public TransactionProcessor(PlatformTransactionManager txManager,
                                 TransactionRepository txRepo,
                                 AccountRepository accountRepo,
-                                AuditRepository auditRepo) {
+                                AuditRepository auditRepo,
+                                @Value("${tx.procesar.funcion-bd:true}") boolean funcionBd) {
         this.txTemplate = new TransactionTemplate(txManager);
         this.txRepo = txRepo;
         this.accountRepo = accountRepo;
         this.auditRepo = auditRepo;
+        this.funcionBd = funcionBd;
     }
 
+    /** Una BD creada antes de aplicar_evento_tx sigue con el camino paso a paso en vez de fallar cada evento. */
+    @PostConstruct
+    public void verificarFuncionBd() {
+        if (!funcionBd) return;
+        try {
+            if (txRepo.existeFuncionAplicarEvento()) return;
+            log.warn("⚠ tx.procesar.funcion-bd=true pero la BD no tiene aplicar_evento_tx (ver COMO_LEVANTAR_REPLICAS.md). Se usa el camino paso a paso.");
+        } catch (Exception e) {
+            log.warn("⚠ No se pudo verificar aplicar_evento_tx ({}). Se usa el camino paso a paso.", e.getMessage());
+        }
+        funcionBd = false;
+    }
+
+    /**
+     * Procesa un evento de forma idempotente. Por default (tx.procesar.funcion-bd=true) es UN round
+     * trip a aplicar_evento_tx, incluso para duplicados; con false, o si la BD no tiene la función,
+     * el camino paso a paso de abajo (números en bench/README.md).
+     */
     public TxRow procesarEnBD(String eventId, TxType tipo, String curpOrigen, String curpDestino, BigDecimal monto, String payloadOriginal) {
+        if (funcionBd) {
+            return txRepo.aplicarEvento(eventId, tipo, curpOrigen, curpDestino, monto, payloadOriginal);
+        }
+
         return txTemplate.execute(status -> {
             // 0) Insert si no existe (idempotencia)
             txRepo.insertIfAbsent(eventId, tipo, curpOrigen, curpDestino, monto);
@@ -33,18 +71,13 @@ public class TransactionProcessor {
             TxRow row = txRepo.lockByEventId(eventId);
             if (row == null) throw new IllegalStateException("No existe transacción en BD para event_id=" + eventId);
 
-            // 2) Si ya fue CONFIRMADA, NO tocar balances (idempotente)
-            if ("CONFIRMADA".equalsIgnoreCase(row.estado())) {
+            // 2) Si ya es final (CONFIRMADA/FALLIDA), NO tocar balances (idempotente)
+            if (row.esFinal()) {
                 // Nota: no insertamos auditoría otra vez para evitar duplicados
                 return row;
             }
 
-            // 3) Si ya fue FALLIDA, tampoco tocar balances
-            if ("FALLIDA".equalsIgnoreCase(row.estado())) {
-                return row;
-            }
-
-            // 4) Aplicar operación (si falla por negocio → marcar FALLIDA y COMMIT)
+            // 3) Aplicar operación (si falla por negocio → marcar FALLIDA y COMMIT)
             try {
                 aplicarOperacion(row);
                 txRepo.markConfirmed(eventId);
@@ -58,6 +91,107 @@ public class TransactionProcessor {
         });
     }
 
+    /**
+     * Aplica un lote de eventos en UNA transacción, con sentencias multi-fila:
+     * insert idempotente, lock de transacciones, lock de todas las cuentas en orden de curp,
+     * un UPDATE de saldos, un UPDATE de estados y un INSERT de auditoría (~6 round trips por lote).
+     * Las reglas de negocio se evalúan en memoria, evento por evento en orden de llegada, sobre los
+     * saldos bloqueados: un FALLIDA no deshace a los demás porque nunca llegó a escribirse.
+     *
+     * Regresa el resultado por event_id de los eventos que entraron al lote. Los que no
+     * (datos que violarían los CHECK de transacciones) NO vienen en el mapa: el llamador los
+     * procesa con {@link #procesarEnBD}, igual que si el lote entero falla.
+     */
+    public Map<String, TxRow> procesarLote(List<EventoTx> eventos) {
+        // Duplicados dentro del lote (redelivery): se aplica el primero, todos reciben su resultado
+        Map<String, EventoTx> porEventId = new LinkedHashMap<>();
+        for (EventoTx e : eventos) {
+            EventoTx n = e.normalizado();
+            if (n.insertable()) porEventId.putIfAbsent(n.eventId(), n);
+        }
+        if (porEventId.isEmpty()) return Map.of();
+
+        return txTemplate.execute(status -> {
+            txRepo.insertIfAbsentLote(porEventId.values());
+            Map<String, TxRow> filas = txRepo.lockByEventIds(porEventId.keySet());
+
+            TreeSet<String> curps = new TreeSet<>();
+            for (TxRow row : filas.values()) {
+                if (row.esFinal()) continue;
+                if (row.curpOrigen() != null) curps.add(row.curpOrigen());
+                if (row.curpDestino() != null) curps.add(row.curpDestino());
+            }
+            Map<String, AccountRepository.Saldos> saldos = accountRepo.lockCuentas(curps);
+            Map<String, AccountRepository.Saldos> modificados = new HashMap<>();
+
+            Map<String, TxRow> resultados = new LinkedHashMap<>();
+            Map<String, String> estados = new LinkedHashMap<>();
+            List<AuditRepository.Registro> auditoria = new ArrayList<>();
+
+            for (EventoTx e : porEventId.values()) {
+                TxRow row = filas.get(e.eventId());
+                if (row == null) continue;
+
+                // Ya CONFIRMADA o FALLIDA: no tocar balances ni auditar otra vez (idempotente)
+                if (row.esFinal()) {
+                    resultados.put(e.eventId(), row);
+                    continue;
+                }
+
+                String estado = aplicarEnMemoria(row, saldos, modificados) ? "CONFIRMADA" : "FALLIDA";
+                estados.put(row.eventId(), estado);
+                auditoria.add(new AuditRepository.Registro(row.id(), "TRANSACCION_" + estado, e.payloadOriginal()));
+                resultados.put(e.eventId(), new TxRow(row.id(), row.eventId(), row.tipo(), row.curpOrigen(), row.curpDestino(), row.monto(), estado));
+            }
+
+            accountRepo.actualizarSaldos(modificados);
+            txRepo.marcarEstados(estados);
+            auditRepo.insertarLote(auditoria);
+            return resultados;
+        });
+    }
+
+    /**
+     * Mismas reglas que aplicarOperacion + AccountRepository, sobre saldos en memoria. false = FALLIDA.
+     * Las reglas de dinero están en tres lugares (también aplicar_evento_tx en schema.sql): un cambio
+     * va en los tres. TransactionProcessorTest fija aquí los resultados del camino paso a paso.
+     */
+    static boolean aplicarEnMemoria(TxRow row,
+                                     Map<String, AccountRepository.Saldos> saldos,
+                                     Map<String, AccountRepository.Saldos> modificados) {
+        BigDecimal monto = row.monto();
+        switch (row.tipo()) {
+            case DEPOSITO -> {
+                // banco -> billetera
+                AccountRepository.Saldos s = saldos.get(row.curpDestino());
+                if (s == null || s.banco().compareTo(monto) < 0) return false;
+                poner(row.curpDestino(), new AccountRepository.Saldos(s.banco().subtract(monto), s.billetera().add(monto)), saldos, modificados);
+            }
+            case RETIRO -> {
+                // billetera -> banco
+                AccountRepository.Saldos s = saldos.get(row.curpOrigen());
+                if (s == null || s.billetera().compareTo(monto) < 0) return false;
+                poner(row.curpOrigen(), new AccountRepository.Saldos(s.banco().add(monto), s.billetera().subtract(monto)), saldos, modificados);
+            }
+            case TRANSFERENCIA -> {
+                if (row.curpOrigen().equals(row.curpDestino())) return false;
+                AccountRepository.Saldos o = saldos.get(row.curpOrigen());
+                AccountRepository.Saldos d = saldos.get(row.curpDestino());
+                if (o == null || d == null || o.billetera().compareTo(monto) < 0) return false;
+                poner(row.curpOrigen(), new AccountRepository.Saldos(o.banco(), o.billetera().subtract(monto)), saldos, modificados);
+                poner(row.curpDestino(), new AccountRepository.Saldos(d.banco(), d.billetera().add(monto)), saldos, modificados);
+            }
+        }
+        return true;
+    }
+
+    private static void poner(String curp, AccountRepository.Saldos nuevos,
+                              Map<String, AccountRepository.Saldos> saldos,
+                              Map<String, AccountRepository.Saldos> modificados) {
+        saldos.put(curp, nuevos);
+        modificados.put(curp, nuevos);
+    }
+
     private void aplicarOperacion(TxRow row) {
         switch (row.tipo()) {
             case DEPOSITO -> {
@@ -5,6 +5,13 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Repository
@@ -43,6 +50,34 @@ public class TransactionRepository {
         """, eventId, o, d, monto, tipo.name());
     }
 
+    /**
+     * Todo procesarEnBD en una sola sentencia (función aplicar_evento_tx de schema.sql):
+     * insert/lock por event_id, movimiento de saldos, estado, auditoría y fila final en un round trip.
+     * Corre en autocommit: la función es atómica por sí sola.
+     */
+    public TxRow aplicarEvento(String eventId, TxType tipo, String curpOrigen, String curpDestino, BigDecimal monto, String payloadJson) {
+        return jdbc.queryForObject("""
+            SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+            FROM aplicar_evento_tx(?, ?, ?, ?, ?, ?)
+        """, (rs, rowNum) -> new TxRow(
+                UUID.fromString(rs.getString("id")),
+                rs.getString("event_id"),
+                TxType.from(rs.getString("tipo")),
+                rs.getString("curp_origen"),
+                rs.getString("curp_destino"),
+                rs.getBigDecimal("monto"),
+                rs.getString("estado")
+        ), eventId, tipo.name(), curpOrigen, curpDestino, monto, payloadJson);
+    }
+
+    /** true si la BD ya tiene aplicar_evento_tx (BDs creadas antes de la función no la tienen). */
+    public boolean existeFuncionAplicarEvento() {
+        Boolean existe = jdbc.queryForObject("""
+            SELECT to_regprocedure('public.aplicar_evento_tx(text, text, varchar, varchar, numeric, text)') IS NOT NULL
+        """, Boolean.class);
+        return Boolean.TRUE.equals(existe);
+    }
+
     /** Bloquea la transacción por event_id para evitar que dos réplicas apliquen balances. */
     public TxRow lockByEventId(String eventId) {
         try {
@@ -82,4 +117,96 @@ public class TransactionRepository {
             WHERE event_id = ? AND estado <> 'FALLIDA'
         """, eventId);
     }
+
+    /**
+     * insertIfAbsent de varios eventos en un solo INSERT ... SELECT FROM unnest.
+     * Los eventos deben venir normalizados y sin violar CHECKs (ver EventoTx.insertable).
+     * Se insertan en orden de event_id, el mismo en que después se bloquean, para no cruzarse con otra réplica.
+     */
+    public void insertIfAbsentLote(Collection<EventoTx> eventos) {
+        if (eventos.isEmpty()) return;
+
+        List<EventoTx> ordenados = new ArrayList<>(eventos);
+        ordenados.sort(Comparator.comparing(EventoTx::eventId));
+
+        int n = ordenados.size();
+        String[] eventIds = new String[n];
+        String[] origenes = new String[n];
+        String[] destinos = new String[n];
+        BigDecimal[] montos = new BigDecimal[n];
+        String[] tipos = new String[n];
+        for (int i = 0; i < n; i++) {
+            EventoTx e = ordenados.get(i);
+            eventIds[i] = e.eventId();
+            origenes[i] = e.curpOrigen();
+            destinos[i] = e.curpDestino();
+            montos[i] = e.monto();
+            tipos[i] = e.tipo().name();
+        }
+
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                INSERT INTO transacciones(event_id, curp_origen, curp_destino, monto, tipo, estado)
+                SELECT u.event_id, u.curp_origen, u.curp_destino, u.monto, u.tipo, 'PENDIENTE'
+                FROM unnest(?::text[], ?::varchar[], ?::varchar[], ?::numeric[], ?::varchar[])
+                     WITH ORDINALITY AS u(event_id, curp_origen, curp_destino, monto, tipo, orden)
+                ORDER BY u.orden
+                ON CONFLICT (event_id) DO NOTHING
+            """);
+            ps.setArray(1, con.createArrayOf("text", eventIds));
+            ps.setArray(2, con.createArrayOf("varchar", origenes));
+            ps.setArray(3, con.createArrayOf("varchar", destinos));
+            ps.setArray(4, con.createArrayOf("numeric", montos));
+            ps.setArray(5, con.createArrayOf("varchar", tipos));
+            return ps;
+        });
+    }
+
+    /** lockByEventId de varios eventos en un round trip, en orden de event_id. */
+    public Map<String, TxRow> lockByEventIds(Collection<String> eventIds) {
+        Map<String, TxRow> filas = new HashMap<>();
+        if (eventIds.isEmpty()) return filas;
+
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                SELECT id, event_id, tipo, curp_origen, curp_destino, monto, estado
+                FROM transacciones
+                WHERE event_id = ANY(?)
+                ORDER BY event_id
+                FOR UPDATE
+            """);
+            ps.setArray(1, con.createArrayOf("text", eventIds.toArray()));
+            return ps;
+        }, rs -> {
+            TxRow row = new TxRow(
+                    UUID.fromString(rs.getString("id")),
+                    rs.getString("event_id"),
+                    TxType.from(rs.getString("tipo")),
+                    rs.getString("curp_origen"),
+                    rs.getString("curp_destino"),
+                    rs.getBigDecimal("monto"),
+                    rs.getString("estado")
+            );
+            filas.put(row.eventId(), row);
+        });
+        return filas;
+    }
+
+    /** markConfirmed/markFailed de varios eventos en un UPDATE (estado por event_id). */
+    public void marcarEstados(Map<String, String> estadoPorEventId) {
+        if (estadoPorEventId.isEmpty()) return;
+
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                UPDATE transacciones t
+                SET estado = u.estado,
+                    confirmado_en = COALESCE(t.confirmado_en, NOW())
+                FROM unnest(?::text[], ?::varchar[]) AS u(event_id, estado)
+                WHERE t.event_id = u.event_id AND t.estado <> u.estado
+            """);
+            ps.setArray(1, con.createArrayOf("text", estadoPorEventId.keySet().toArray()));
+            ps.setArray(2, con.createArrayOf("varchar", estadoPorEventId.values().toArray()));
+            return ps;
+        });
+    }
 }
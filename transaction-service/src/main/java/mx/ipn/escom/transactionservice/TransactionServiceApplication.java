@@ -3,7 +3,8 @@ package mx.ipn.escom.transactionservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@SpringBootApplication
+// mx.ipn.escom.mensajeria: el bean Mensajeria del módulo compartido
+@SpringBootApplication(scanBasePackages = {"mx.ipn.escom.transactionservice", "mx.ipn.escom.mensajeria"})
 public class TransactionServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(TransactionServiceApplication.class, args);
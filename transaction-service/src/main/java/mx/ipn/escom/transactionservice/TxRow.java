@@ -11,4 +11,13 @@ public record TxRow(
         String curpDestino,
         BigDecimal monto,
         String estado
-) {}
+) {
+
+    /**
+     * Solo PENDIENTE se aplica: cualquier otro estado ya es final y no se vuelve a tocar (idempotencia).
+     * Mismo criterio en procesarEnBD, procesarLote y aplicar_evento_tx (estado <> 'PENDIENTE').
+     */
+    public boolean esFinal() {
+        return !"PENDIENTE".equalsIgnoreCase(estado);
+    }
+}
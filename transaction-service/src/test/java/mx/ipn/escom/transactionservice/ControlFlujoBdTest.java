@@ -0,0 +1,103 @@
+package mx.ipn.escom.transactionservice;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * AIMD de ControlFlujoBd con muestras sintéticas: ajustar() se llama a mano (sin el ajustador) y el
+ * pool de Hikari es un MXBean falso que aparece después de construir el componente, como en Spring Boot.
+ */
+class ControlFlujoBdTest {
+
+    private static final long OBJETIVO_MS = 200;
+
+    private final AtomicInteger esperandoConexion = new AtomicInteger();
+    private final PoolPerezoso dataSource = new PoolPerezoso();
+
+    // limite-inicial 100 [20..1000], paso 10, factor-baja 0.5
+    private final ControlFlujoBd flujo = new ControlFlujoBd(dataSource, true, 100, 20, 1000, OBJETIVO_MS, 10, 0.5, 1000);
+
+    @Test
+    void subeElPasoSiElLimiteSeUsaYLaBdRespondeATiempo() throws Exception {
+        ocupar(80);
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(50));
+        flujo.ajustar();
+
+        assertThat(flujo.estadisticas()).containsEntry("limite", 110).containsEntry("subidas", 1L);
+    }
+
+    @Test
+    void noSubeSiElLimiteCasiNoSeUsa() throws Exception {
+        ocupar(10);
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(50));
+        flujo.ajustar();
+
+        assertThat(flujo.estadisticas()).containsEntry("limite", 100).containsEntry("subidas", 0L);
+    }
+
+    @Test
+    void bajaPorFactorSiLaLatenciaMediaPasaDelObjetivo() {
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(100));
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(400));
+        flujo.ajustar();
+
+        assertThat(flujo.estadisticas()).containsEntry("limite", 50).containsEntry("bajadas", 1L);
+    }
+
+    @Test
+    void bajaSiHayHilosEsperandoConexionAunqueElPoolArranqueTarde() throws Exception {
+        ocupar(90);
+        esperandoConexion.set(3);
+
+        // Pool aún sin arrancar: sin MXBean no hay señal de espera y el límite sube por uso
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(10));
+        flujo.ajustar();
+        assertThat(flujo.estadisticas()).containsEntry("limite", 110);
+
+        // Primera getConnection(): el MXBean aparece y la espera por conexión se detecta
+        dataSource.arrancar();
+        flujo.observar(TimeUnit.MILLISECONDS.toNanos(10));
+        flujo.ajustar();
+        assertThat(flujo.estadisticas()).containsEntry("limite", 55).containsEntry("bajadas", 1L);
+    }
+
+    @Test
+    void noBajaDelMinimo() {
+        for (int i = 0; i < 10; i++) {
+            flujo.observar(TimeUnit.SECONDS.toNanos(1));
+            flujo.ajustar();
+        }
+        assertThat(flujo.estadisticas()).containsEntry("limite", 20);
+    }
+
+    private void ocupar(int permisos) throws InterruptedException {
+        for (int i = 0; i < permisos; i++) flujo.adquirir();
+    }
+
+    /** HikariDataSource sin BD: su MXBean es null hasta arrancar(), igual que antes de la primera conexión. */
+    private final class PoolPerezoso extends HikariDataSource {
+        private volatile HikariPoolMXBean bean;
+
+        void arrancar() {
+            bean = (HikariPoolMXBean) Proxy.newProxyInstance(HikariPoolMXBean.class.getClassLoader(),
+                    new Class<?>[]{HikariPoolMXBean.class},
+                    (proxy, metodo, args) -> switch (metodo.getName()) {
+                        case "getThreadsAwaitingConnection" -> esperandoConexion.get();
+                        case "getIdleConnections", "getActiveConnections", "getTotalConnections" -> 0;
+                        default -> null;
+                    });
+        }
+
+        @Override
+        public HikariPoolMXBean getHikariPoolMXBean() {
+            return bean;
+        }
+    }
+}
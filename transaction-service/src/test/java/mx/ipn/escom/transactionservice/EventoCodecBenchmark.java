@@ -0,0 +1,93 @@
+package mx.ipn.escom.transactionservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parseo de un mensaje de tx-events tal como lo publica OutboxRelay (TransferEvent + attributes).
+ * - arbolJsonNode: camino anterior de TransactionSubscriber (readTree + text + firstNonBlank)
+ * - codecStreaming: EventoCodec.leer
+ *
+ * Correr con -prof gc para comparar bytes asignados por mensaje:
+ *   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=mx.ipn.escom.transactionservice.EventoCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventoCodecBenchmark {
+
+    private final PubsubMessage mensaje = PubsubMessage.newBuilder()
+            .setData(ByteString.copyFromUtf8("{\"txId\":\"3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10\","
+                    + "\"fromCurp\":\"GODE561231HDFRRN09\",\"toCurp\":\"PEMA800101MDFRRR01\","
+                    + "\"amount\":1234.56,\"timestampEpochMs\":1760659200000,\"type\":\"TRANSFER\"}"))
+            .putAttributes("type", "TRANSFER")
+            .putAttributes("txId", "3f1c7a52-8a0e-4a4e-9d55-0c1b2f9e7a10")
+            .build();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Benchmark
+    public EventoCodec.Campos arbolJsonNode() throws Exception {
+        JsonNode root = mapper.readTree(mensaje.getData().toStringUtf8());
+        Map<String, String> attrs = mensaje.getAttributesMap();
+
+        String eventId = firstNonBlank(attrs.get("event_id"), attrs.get("txId"),
+                text(root, "event_id"), text(root, "txId"), text(root, "id"));
+        String tipo = firstNonBlank(attrs.get("tipo"), text(root, "tipo"), text(root, "type"));
+        String curpOrigen = firstNonBlank(text(root, "curp_origen"), text(root, "fromCurp"),
+                attrs.get("curp_origen"), attrs.get("fromCurp"));
+        String curpDestino = firstNonBlank(text(root, "curp_destino"), text(root, "toCurp"),
+                attrs.get("curp_destino"), attrs.get("toCurp"));
+        String montoStr = firstNonBlank(text(root, "monto"), text(root, "amount"),
+                attrs.get("monto"), attrs.get("amount"));
+
+        return new EventoCodec.Campos(eventId, tipo, curpOrigen, curpDestino, new BigDecimal(montoStr));
+    }
+
+    @Benchmark
+    public EventoCodec.Campos codecStreaming() throws Exception {
+        return EventoCodec.leer(mensaje);
+    }
+
+    private String text(JsonNode node, String key) {
+        JsonNode n = node.get(key);
+        if (n == null || n.isNull()) return null;
+        String v = n.asText();
+        return (v == null || v.isBlank()) ? null : v;
+    }
+
+    private String firstNonBlank(String... values) {
+        for (String v : values) {
+            if (v != null && !v.isBlank()) return v;
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(EventoCodecBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
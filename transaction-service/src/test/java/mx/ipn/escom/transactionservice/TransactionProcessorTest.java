@@ -0,0 +1,101 @@
+package mx.ipn.escom.transactionservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * aplicarEnMemoria (camino por lote) contra los resultados del camino paso a paso
+ * (aplicarOperacion + AccountRepository): qué queda CONFIRMADA, qué FALLIDA y cómo quedan los saldos.
+ */
+class TransactionProcessorTest {
+
+    private static final String ANA = "ANAA000000HDFAAA01";
+    private static final String BETO = "BETO000000HDFBBB02";
+    private static final String NADIE = "NADI000000HDFNNN03";
+
+    // banco 100, billetera 10 en las dos cuentas
+    private final Map<String, AccountRepository.Saldos> saldos = new HashMap<>(Map.of(
+            ANA, saldos("100", "10"),
+            BETO, saldos("100", "10")));
+    private final Map<String, AccountRepository.Saldos> modificados = new HashMap<>();
+
+    @Test
+    void depositoPasaDeBancoABilletera() {
+        assertThat(aplicar(TxType.DEPOSITO, null, ANA, "100")).isTrue();
+        assertThat(saldos.get(ANA)).isEqualTo(saldos("0", "110"));
+        assertThat(modificados).containsOnlyKeys(ANA);
+    }
+
+    @Test
+    void retiroPasaDeBilleteraABanco() {
+        assertThat(aplicar(TxType.RETIRO, BETO, null, "10")).isTrue();
+        assertThat(saldos.get(BETO)).isEqualTo(saldos("110", "0"));
+    }
+
+    @Test
+    void transferenciaMueveSoloBilleteras() {
+        assertThat(aplicar(TxType.TRANSFERENCIA, ANA, BETO, "4.50")).isTrue();
+        assertThat(saldos.get(ANA)).isEqualTo(saldos("100", "5.50"));
+        assertThat(saldos.get(BETO)).isEqualTo(saldos("100", "14.50"));
+        assertThat(modificados).containsOnlyKeys(ANA, BETO);
+    }
+
+    @Test
+    void fondosInsuficientesEsFallidaSinTocarSaldos() {
+        assertThat(aplicar(TxType.DEPOSITO, null, ANA, "100.01")).isFalse();
+        assertThat(aplicar(TxType.RETIRO, ANA, null, "10.01")).isFalse();
+        assertThat(aplicar(TxType.TRANSFERENCIA, ANA, BETO, "10.01")).isFalse();
+        assertThat(saldos.get(ANA)).isEqualTo(saldos("100", "10"));
+        assertThat(saldos.get(BETO)).isEqualTo(saldos("100", "10"));
+        assertThat(modificados).isEmpty();
+    }
+
+    @Test
+    void cuentaInexistenteOMismaCuentaEsFallida() {
+        assertThat(aplicar(TxType.DEPOSITO, null, NADIE, "1")).isFalse();
+        assertThat(aplicar(TxType.RETIRO, NADIE, null, "1")).isFalse();
+        assertThat(aplicar(TxType.TRANSFERENCIA, ANA, NADIE, "1")).isFalse();
+        assertThat(aplicar(TxType.TRANSFERENCIA, NADIE, ANA, "1")).isFalse();
+        assertThat(aplicar(TxType.TRANSFERENCIA, ANA, ANA, "1")).isFalse();
+        assertThat(modificados).isEmpty();
+    }
+
+    @Test
+    void cadaEventoVeLosSaldosQueDejoElAnterior() {
+        // Como en la BD evento por evento: el retiro solo alcanza después del depósito
+        assertThat(aplicar(TxType.RETIRO, ANA, null, "60")).isFalse();
+        assertThat(aplicar(TxType.DEPOSITO, null, ANA, "50")).isTrue();
+        assertThat(aplicar(TxType.RETIRO, ANA, null, "60")).isTrue();
+        assertThat(aplicar(TxType.TRANSFERENCIA, ANA, BETO, "0.01")).isFalse();
+        assertThat(saldos.get(ANA)).isEqualTo(saldos("110", "0"));
+    }
+
+    @Test
+    void soloPendienteSeAplica() {
+        assertThat(fila("PENDIENTE").esFinal()).isFalse();
+        assertThat(fila("pendiente").esFinal()).isFalse();
+        assertThat(fila("CONFIRMADA").esFinal()).isTrue();
+        assertThat(fila("FALLIDA").esFinal()).isTrue();
+        assertThat(fila("RECHAZADA").esFinal()).isTrue();
+    }
+
+    private boolean aplicar(TxType tipo, String origen, String destino, String monto) {
+        TxRow row = new TxRow(UUID.randomUUID(), UUID.randomUUID().toString(), tipo, origen, destino,
+                new BigDecimal(monto), "PENDIENTE");
+        return TransactionProcessor.aplicarEnMemoria(row, saldos, modificados);
+    }
+
+    private static TxRow fila(String estado) {
+        return new TxRow(UUID.randomUUID(), "ev", TxType.DEPOSITO, null, ANA, BigDecimal.ONE, estado);
+    }
+
+    private static AccountRepository.Saldos saldos(String banco, String billetera) {
+        return new AccountRepository.Saldos(new BigDecimal(banco), new BigDecimal(billetera));
+    }
+}